@@ -0,0 +1,136 @@
+package com.google.android.glass.sample.compass;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.location.Location;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightHistory;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+import com.google.android.glass.sample.compass.model.SyntheticTraffic;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Draws a {@link CompassView} into a software canvas, without a device or a display, and reports
+ * per-frame CPU time, bytes allocated per frame, and how many flight labels each frame placed and
+ * dropped. Each run sweeps the heading through two full turns for several aircraft counts, with
+ * the flights coming from {@link SyntheticTraffic} so that runs are comparable with each other.
+ * Each count's flights come with a history of an earlier refresh, so that the labels of climbing
+ * and descending flights carry their arrows.
+ * <p>
+ * The view gets its state through {@link RenderState}, as it does from {@link CompassRenderer},
+ * but without an {@link OrientationManager}: headings are fed straight to it. It runs under
+ * Robolectric with its native graphics, so text measurement and drawing do real work; see
+ * {@code run-render.sh}. This is a JUnit class only because that is how Robolectric is started;
+ * it checks nothing and prints its results.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class CompassViewRenderBenchmark {
+
+  /** The size of the Glass display. */
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 360;
+
+  private static final double USER_LAT = 37.62;
+  private static final double USER_LON = -122.38;
+  private static final long TRAFFIC_TIME_MILLIS = 1386224354000L;
+  private static final long HISTORY_MILLIS = 20000;
+  /** Room for two samples of 32,768 aircraft, more than two refreshes of the largest count. */
+  private static final int HISTORY_BYTES = 1 << 20;
+
+  private static final int[] AIRCRAFT_COUNTS = {0, 10, 100, 1000, 10000};
+
+  /** The heading advances by half a degree per frame, i.e. 30 degrees per second at 60 fps. */
+  private static final float DEGREES_PER_FRAME = 0.5f;
+  private static final long FRAME_NANOS = 16666667;
+  private static final int WARMUP_FRAMES = 720;
+  private static final int MEASURED_FRAMES = 1440;
+
+  @Test
+  public void render() {
+    com.sun.management.ThreadMXBean threads =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+
+    Location location = new Location(CompassViewRenderBenchmark.class.getSimpleName());
+    location.setLatitude(USER_LAT);
+    location.setLongitude(USER_LON);
+
+    System.out.println(String.format(Locale.US, "%8s %10s %10s %10s %10s %12s %8s %8s",
+        "aircraft", "mean us", "p50 us", "p99 us", "max us", "bytes/frame", "placed", "dropped"));
+    for (int count : AIRCRAFT_COUNTS) {
+      CompassView view = new CompassView(RuntimeEnvironment.getApplication());
+      view.layout(0, 0, WIDTH, HEIGHT);
+      FlightHistory history = new FlightHistory(2, HISTORY_BYTES);
+      history.record(flights(count, TRAFFIC_TIME_MILLIS - HISTORY_MILLIS),
+          TRAFFIC_TIME_MILLIS - HISTORY_MILLIS);
+      List<Flight> flights = flights(count, TRAFFIC_TIME_MILLIS);
+      history.record(flights, TRAFFIC_TIME_MILLIS);
+      RenderState state =
+          RenderState.EMPTY.withLocation(location).withFlights(flights, history);
+
+      long[] cpuNanos = new long[MEASURED_FRAMES];
+      long allocatedBytes = 0;
+      long placed = 0;
+      long dropped = 0;
+      for (int frame = 0; frame < WARMUP_FRAMES + MEASURED_FRAMES; frame++) {
+        long timeNanos = frame * FRAME_NANOS;
+        state = state.withOrientation(frame * DEGREES_PER_FRAME, timeNanos, 0);
+
+        long startCpu = threads.getCurrentThreadCpuTime();
+        long startBytes = threads.getThreadAllocatedBytes(threadId);
+        view.setRenderState(state);
+        view.predictHeading(timeNanos);
+        view.draw(canvas);
+        long endBytes = threads.getThreadAllocatedBytes(threadId);
+        long endCpu = threads.getCurrentThreadCpuTime();
+
+        int measured = frame - WARMUP_FRAMES;
+        if (measured >= 0) {
+          cpuNanos[measured] = endCpu - startCpu;
+          allocatedBytes += endBytes - startBytes;
+          placed += view.getLabelsPlaced();
+          dropped += view.getLabelsDropped();
+        }
+      }
+
+      long total = 0;
+      for (long nanos : cpuNanos) {
+        total += nanos;
+      }
+      Arrays.sort(cpuNanos);
+      System.out.println(String.format(Locale.US,
+          "%8d %10.1f %10.1f %10.1f %10.1f %12d %8.1f %8.1f", state.flights.size(), total / 1000.0 / MEASURED_FRAMES,
+          cpuNanos[MEASURED_FRAMES / 2] / 1000.0, cpuNanos[MEASURED_FRAMES * 99 / 100] / 1000.0,
+          cpuNanos[MEASURED_FRAMES - 1] / 1000.0, allocatedBytes / MEASURED_FRAMES,
+          (double) placed / MEASURED_FRAMES, (double) dropped / MEASURED_FRAMES));
+    }
+  }
+
+  /**
+   * Gets up to {@code count} flights around the user at the specified time, the way a refresh
+   * would deliver them.
+   */
+  private static List<Flight> flights(int count, long timeMillis) {
+    // About a third of the generated airspace falls inside the box.
+    double[] box = FlightRetrieval.getBoundingBox(USER_LAT, USER_LON, 20, null);
+    List<Flight> flights = new SyntheticTraffic(USER_LAT, USER_LON, count * 4, 42)
+        .getFlights(box, timeMillis);
+    return flights.subList(0, Math.min(count, flights.size()));
+  }
+}
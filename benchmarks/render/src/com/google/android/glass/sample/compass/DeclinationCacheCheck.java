@@ -0,0 +1,84 @@
+package com.google.android.glass.sample.compass;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks {@link DeclinationCache}'s interpolated declination against the geomagnetic model
+ * evaluated directly, over a sweep of latitudes, longitudes, and dates, and fails if any point is
+ * off by more than {@link DeclinationCache#MAX_ERROR_DEGREES}. The sweep steps are not multiples
+ * of the grid cell, so points fall all over the cells, and the dates fall at different points
+ * within the cache's epochs. Points beyond the grid's latitude limit are included too; they are
+ * evaluated directly and must match exactly. The last {@link #BAND_DEGREES} below the limit, where
+ * declination changes fastest and the worst errors are, are swept again more finely.
+ * <p>
+ * It runs under Robolectric, whose {@code GeomagneticField} is the real model rather than a stub;
+ * see {@code run-render.sh}. It prints the largest and mean errors.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class DeclinationCacheCheck {
+
+  private static final double LATITUDE_STEP = 0.9;
+  private static final double LONGITUDE_STEP = 1.7;
+
+  /** The band below the grid's latitude limit swept finely, and its steps. */
+  private static final double BAND_DEGREES = 10;
+  private static final double BAND_LATITUDE_STEP = 0.23;
+  private static final double BAND_LONGITUDE_STEP = 0.61;
+
+  /** The dates swept: every 150 days from the start of 2015, plus a week more each time. */
+  private static final long FIRST_TIME_MILLIS = 1420070400000L;
+  private static final long DATE_STEP_MILLIS = TimeUnit.DAYS.toMillis(157);
+  private static final int DATES = 12;
+
+  private static final double LIMIT_LATITUDE = DeclinationCache.MAX_GRID_LATITUDE + 10;
+
+  private final DeclinationCache mCache = new DeclinationCache();
+  private float mMaxError;
+  private String mWorst = "none";
+  private double mErrorSum;
+  private int mPoints;
+
+  @Test
+  public void sweep() {
+    double bandStart = DeclinationCache.MAX_GRID_LATITUDE - BAND_DEGREES;
+    for (int date = 0; date < DATES; date++) {
+      long time = FIRST_TIME_MILLIS + date * DATE_STEP_MILLIS;
+      sweep(-LIMIT_LATITUDE, LIMIT_LATITUDE, LATITUDE_STEP, LONGITUDE_STEP, time);
+      sweep(-DeclinationCache.MAX_GRID_LATITUDE, -bandStart, BAND_LATITUDE_STEP,
+          BAND_LONGITUDE_STEP, time);
+      sweep(bandStart, DeclinationCache.MAX_GRID_LATITUDE, BAND_LATITUDE_STEP,
+          BAND_LONGITUDE_STEP, time);
+    }
+
+    System.out.println(String.format(Locale.US,
+        "%d points: mean error %.4f degrees, max %.4f degrees at %s", mPoints,
+        mErrorSum / mPoints, mMaxError, mWorst));
+    Assert.assertTrue("Interpolated declination off by " + mMaxError + " degrees at " + mWorst,
+        mMaxError <= DeclinationCache.MAX_ERROR_DEGREES);
+  }
+
+  private void sweep(double fromLatitude, double toLatitude, double latitudeStep,
+      double longitudeStep, long time) {
+    for (double latitude = fromLatitude; latitude <= toLatitude; latitude += latitudeStep) {
+      for (double longitude = -179.95; longitude < 180; longitude += longitudeStep) {
+        float interpolated = mCache.computeDeclination(latitude, longitude, 0, time);
+        float direct = DeclinationCache.directDeclination(latitude, longitude, 0, time);
+        float error = Math.abs(DeclinationCache.wrap(interpolated - direct));
+        if (error > mMaxError) {
+          mMaxError = error;
+          mWorst = String.format(Locale.US, "%.2f,%.2f at %tF", latitude, longitude, time);
+        }
+        mErrorSum += error;
+        mPoints++;
+      }
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package com.google.android.glass.sample.compass;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+import com.google.android.glass.sample.compass.model.FlightSource;
+import com.google.android.glass.sample.compass.model.TieredFlightSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks how {@link TieredFlightSource} merges its tiers when an aircraft lands, moves between
+ * tiers, or stays out of the inner tiers, with the app's default tiers over a stand-in for
+ * planefinder. The outer tiers are not due again during a check, so their results are the ones
+ * from the first query.
+ * <p>
+ * It runs under Robolectric for the framework's org.json; see {@code run-render.sh}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class TieredFlightSourceCheck {
+
+  private static final double LATITUDE = 37.6;
+  private static final double LONGITUDE = -122.4;
+  private static final double KM_PER_DEGREE = 111.2;
+
+  private final StandIn mStandIn = new StandIn();
+  private TieredFlightSource mTiers;
+  private double[] mBox;
+
+  /**
+   * Returns the aircraft inside the box, leaving out those on the ground as the default filter
+   * does.
+   */
+  private static class StandIn implements FlightSource {
+    final Map<String, Flight> aircraft = new HashMap<String, Flight>();
+
+    void put(String identification, double kmNorth, float altitude, long timestamp) {
+      aircraft.put(identification, new Flight(identification, "B738", "N1", identification,
+          LATITUDE + kmNorth / KM_PER_DEGREE, LONGITUDE, altitude, 0, 140, timestamp, "", null,
+          ""));
+    }
+
+    @Override
+    public List<Flight> getFlights(double[] box) {
+      List<Flight> flights = new ArrayList<Flight>();
+      for (Flight flight : aircraft.values()) {
+        if (flight.altitude != 0 && flight.latitude >= box[0] && flight.latitude <= box[2]
+            && flight.longitude >= box[1] && flight.longitude <= box[3]) {
+          flights.add(flight);
+        }
+      }
+      return flights;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mTiers = TieredFlightSource.parse(mStandIn, "5:0;15:60000;40:300000");
+    mBox = FlightRetrieval.getBoundingBox(LATITUDE, LONGITUDE, mTiers.getMaxRadiusKm(), null);
+  }
+
+  @Test
+  public void landedInsideInnerTier() throws Exception {
+    mStandIn.put("A00001", 3, 1200, 1000);
+    Assert.assertEquals(1, query().size());
+
+    // Every tier saw it airborne; now only the inner tier is queried, and leaves it out.
+    mStandIn.put("A00001", 3, 0, 1010);
+    Assert.assertEquals(0, query().size());
+  }
+
+  @Test
+  public void keptOutsideInnerTier() throws Exception {
+    mStandIn.put("A00002", 30, 20000, 1000);
+    Assert.assertEquals(1, query().size());
+
+    // Only the outer tier covers it, and it is not due, so its last result stands.
+    mStandIn.put("A00002", 29, 20000, 1010);
+    List<Flight> flights = query();
+    Assert.assertEquals(1, flights.size());
+    Assert.assertEquals(1000, flights.get(0).timestamp);
+  }
+
+  @Test
+  public void movedIntoInnerTier() throws Exception {
+    mStandIn.put("A00003", 8, 5000, 1000);
+    Assert.assertEquals(1, query().size());
+
+    mStandIn.put("A00003", 4, 4000, 1010);
+    List<Flight> flights = query();
+    Assert.assertEquals(1, flights.size());
+    Assert.assertEquals(1010, flights.get(0).timestamp);
+  }
+
+  private List<Flight> query() throws Exception {
+    // Tiers are ordered by when they were queried, to the millisecond.
+    Thread.sleep(2);
+    return mTiers.getFlights(mBox);
+  }
+}
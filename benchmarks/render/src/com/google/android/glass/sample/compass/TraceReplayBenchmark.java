@@ -0,0 +1,313 @@
+package com.google.android.glass.sample.compass;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.hardware.SensorManager;
+import android.location.Location;
+import android.location.LocationManager;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+import com.google.android.glass.sample.compass.model.SyntheticTraffic;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Replays a sensor and location trace through {@link TraceReplayer} into an
+ * {@link OrientationManager}, and draws a {@link CompassView} at each frame the renderer would
+ * have drawn, as fast as possible and without a device. It reports per-frame CPU time, covering
+ * the orientation update and the drawing, and how far the drawn heading was from the heading
+ * measured at each frame's display time, with and without the heading prediction.
+ * <p>
+ * It also measures what {@link SensorRateGovernor} saves, by replaying the trace with and without
+ * it, delivering only the samples the sensors would have at the governed rate (see
+ * {@link TraceReplayer#setSimulateSensorRate}). For each it reports the rotation vector samples
+ * delivered, each of which wakes the application processor unless the sensor batches, the share
+ * of the time the magnetic field sensor was off, and the thread CPU time of the replay.
+ * <p>
+ * The trace is the file named by the {@code trace} system property, e.g. one recorded on the
+ * device through {@code CompassService.CompassBinder.startTraceRecording()}, or else a synthetic
+ * one: two minutes of head motion sampled every 20 ms, still for a few seconds at a time between
+ * turns of up to 120 degrees per second, from a fixed seed. It runs under Robolectric, like
+ * {@link CompassViewRenderBenchmark}; see {@code run-render.sh}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class TraceReplayBenchmark {
+
+  /** The size of the Glass display. */
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 360;
+
+  private static final double USER_LAT = 37.62;
+  private static final double USER_LON = -122.38;
+  private static final long TRAFFIC_TIME_MILLIS = 1386224354000L;
+  private static final int AIRCRAFT_COUNT = 100;
+
+  /** The frame interval and display latency of {@link CompassRenderer}, at 30 fps. */
+  private static final long FRAME_NANOS = 33333333;
+  private static final long DISPLAY_LATENCY_NANOS = FRAME_NANOS;
+
+  /** The frames replayed before measuring, for the JIT. */
+  private static final int WARMUP_FRAMES = 300;
+
+  private static final long SAMPLE_NANOS = 20000000;
+  private static final long SYNTHETIC_NANOS = 120000000000L;
+
+  @Test
+  public void replay() throws IOException {
+    File trace = traceFile();
+    Frames frames = new Frames();
+    int records = new TraceReplayer(trace).replay(frames.mOrientationManager, false, FRAME_NANOS,
+        frames);
+
+    int measured = frames.mCount - WARMUP_FRAMES;
+    if (measured <= 0) {
+      System.out.println("Trace too short: " + frames.mCount + " frames");
+      return;
+    }
+    long[] sorted = Arrays.copyOfRange(frames.mCpuNanos, WARMUP_FRAMES, frames.mCount);
+    long total = 0;
+    for (long nanos : sorted) {
+      total += nanos;
+    }
+    Arrays.sort(sorted);
+    HeadingFilter filter = frames.mView.getHeadingFilter();
+    System.out.println(String.format(Locale.US,
+        "%s: %d records, %d frames; frame CPU mean %.1f us, p50 %.1f us, p99 %.1f us, max %.1f us;"
+            + " heading error at display %.2f degrees predicted, %.2f unpredicted",
+        trace.getName(), records, frames.mCount, total / 1000.0 / measured,
+        sorted[measured / 2] / 1000.0, sorted[measured * 99 / 100] / 1000.0,
+        sorted[measured - 1] / 1000.0, filter.getMeanPredictionError(),
+        filter.getMeanHeldError()));
+  }
+
+  @Test
+  public void governor() throws IOException {
+    File trace = traceFile();
+    System.out.println(String.format(Locale.US, "%-9s %10s %12s %10s %12s %12s", "governor",
+        "samples", "rate changes", "idle %", "replay ms", "update ms"));
+    // The first pass warms up the JIT.
+    for (int pass = 0; pass < 2; pass++) {
+      for (boolean enabled : new boolean[] {false, true}) {
+        final OrientationManager orientationManager = newOrientationManager();
+        orientationManager.setRateGovernorEnabled(enabled);
+        TraceReplayer replayer = new TraceReplayer(trace);
+        replayer.setSimulateSensorRate(true);
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final long[] updateNanos = new long[1];
+        final long[] lastFrameNanos = new long[1];
+
+        long startCpu = threads.getCurrentThreadCpuTime();
+        replayer.replay(orientationManager, false, FRAME_NANOS,
+            new TraceReplayer.FrameCallback() {
+              @Override
+              public void onFrame(long frameTimeNanos) {
+                long start = threads.getCurrentThreadCpuTime();
+                orientationManager.updateOrientation();
+                updateNanos[0] += threads.getCurrentThreadCpuTime() - start;
+                lastFrameNanos[0] = frameTimeNanos;
+              }
+            });
+        long replayNanos = threads.getCurrentThreadCpuTime() - startCpu;
+
+        if (pass > 0) {
+          SensorRateGovernor governor = orientationManager.getRateGovernor();
+          System.out.println(String.format(Locale.US, "%-9s %10d %12d %10.1f %12.1f %12.1f",
+              enabled ? "on" : "off", orientationManager.getSensorEventCount(),
+              governor.getTransitions(), 100 * governor.getIdleFraction(lastFrameNanos[0]),
+              replayNanos / 1e6, updateNanos[0] / 1e6));
+        }
+      }
+    }
+  }
+
+  /**
+   * Draws each replayed frame as {@link CompassRenderer} would, timing it.
+   */
+  private static class Frames implements TraceReplayer.FrameCallback {
+    final ThreadMXBean mThreads = ManagementFactory.getThreadMXBean();
+    final OrientationManager mOrientationManager = newOrientationManager();
+    final CompassView mView = new CompassView(RuntimeEnvironment.getApplication());
+    final Canvas mCanvas =
+        new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    RenderState mState = RenderState.EMPTY;
+    long[] mCpuNanos = new long[4096];
+    int mCount;
+
+    Frames() {
+      mView.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    @Override
+    public void onFrame(long frameTimeNanos) {
+      if (mState.location == null && mOrientationManager.hasLocation()) {
+        Location location = mOrientationManager.getLocation();
+        mState = mState.withLocation(location)
+            .withFlights(flights(location.getLatitude(), location.getLongitude()), null);
+      }
+
+      long startCpu = mThreads.getCurrentThreadCpuTime();
+      mOrientationManager.updateOrientation();
+      if (mOrientationManager.getHeadingTimeNanos() != mState.headingTimeNanos) {
+        mState = mState.withOrientation(mOrientationManager.getHeading(),
+            mOrientationManager.getHeadingTimeNanos(), mOrientationManager.getPitch());
+      }
+      mView.setRenderState(mState);
+      mView.predictHeading(frameTimeNanos + DISPLAY_LATENCY_NANOS);
+      mView.draw(mCanvas);
+      long cpuNanos = mThreads.getCurrentThreadCpuTime() - startCpu;
+
+      if (mCount == WARMUP_FRAMES) {
+        mView.getHeadingFilter().resetErrors();
+      }
+      if (mCount == mCpuNanos.length) {
+        mCpuNanos = Arrays.copyOf(mCpuNanos, mCount * 2);
+      }
+      mCpuNanos[mCount++] = cpuNanos;
+    }
+  }
+
+  /**
+   * Gets the trace named by the {@code trace} system property, or writes a synthetic one.
+   */
+  static File traceFile() throws IOException {
+    String name = System.getProperty("trace");
+    if (name != null && name.length() > 0) {
+      return new File(name);
+    }
+    File file = File.createTempFile("synthetic", ".trace");
+    file.deleteOnExit();
+    writeSyntheticTrace(file);
+    return file;
+  }
+
+  static OrientationManager newOrientationManager() {
+    Context context = RuntimeEnvironment.getApplication();
+    return new OrientationManager((SensorManager) context.getSystemService(Context.SENSOR_SERVICE),
+        (LocationManager) context.getSystemService(Context.LOCATION_SERVICE));
+  }
+
+  /**
+   * Writes a synthetic trace: a location fix, then head motion that alternates between holding
+   * still, with a little sensor noise, and turning to a new heading with a smooth speed profile.
+   */
+  private static void writeSyntheticTrace(File file) throws IOException {
+    TraceRecorder recorder = new TraceRecorder(file, 0);
+    try {
+      Location location = new Location(TraceReplayBenchmark.class.getSimpleName());
+      location.setLatitude(USER_LAT);
+      location.setLongitude(USER_LON);
+      location.setTime(TRAFFIC_TIME_MILLIS);
+      recorder.recordLocation(0, location);
+      recorder.recordAccuracy(0, SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+
+      Random random = new Random(42);
+      float[] values = new float[4];
+      double heading = 0;
+      double pitch = 0;
+      long time = 0;
+      while (time < SYNTHETIC_NANOS) {
+        // Hold still for 1 to 8 seconds.
+        long stillEnd = time + (long) ((1 + 7 * random.nextDouble()) * 1e9);
+        for (; time < stillEnd; time += SAMPLE_NANOS) {
+          rotationVector(heading + random.nextGaussian() * 0.01,
+              pitch + random.nextGaussian() * 0.01, values);
+          recorder.recordRotationVector(time, values);
+        }
+
+        // Turn by up to 120 degrees at up to 120 degrees per second, glancing up or down a bit.
+        double turn = (random.nextDouble() * 2 - 1) * 120;
+        double nod = (random.nextDouble() * 2 - 1) * 15 - pitch;
+        double seconds = Math.max(Math.abs(turn) / (30 + 90 * random.nextDouble()), 0.3);
+        long turnStart = time;
+        for (; time < turnStart + (long) (seconds * 1e9); time += SAMPLE_NANOS) {
+          double progress = (1 - Math.cos(Math.PI * (time - turnStart) / (seconds * 1e9))) / 2;
+          rotationVector(heading + turn * progress, pitch + nod * progress, values);
+          recorder.recordRotationVector(time, values);
+        }
+        heading += turn;
+        pitch += nod;
+      }
+    } finally {
+      recorder.close();
+    }
+  }
+
+  /**
+   * Computes the rotation vector (x, y, z, cos) of Glass worn upright, looking toward the
+   * specified heading and pitch: the device's z axis points where the user looks and its y axis
+   * up, which is what {@link OrientationManager}'s remapping of the axes expects.
+   */
+  private static void rotationVector(double heading, double pitch, float[] out) {
+    double h = Math.toRadians(heading);
+    double p = Math.toRadians(pitch);
+    // The columns of the rotation matrix, in east, north, up coordinates.
+    double[] z = {Math.sin(h) * Math.cos(p), Math.cos(h) * Math.cos(p), Math.sin(p)};
+    double[] y = {-Math.sin(h) * Math.sin(p), -Math.cos(h) * Math.sin(p), Math.cos(p)};
+    double[] x = {y[1] * z[2] - y[2] * z[1], y[2] * z[0] - y[0] * z[2], y[0] * z[1] - y[1] * z[0]};
+
+    double trace = x[0] + y[1] + z[2];
+    double w;
+    double qx;
+    double qy;
+    double qz;
+    if (trace > 0) {
+      double s = Math.sqrt(trace + 1) * 2;
+      w = s / 4;
+      qx = (y[2] - z[1]) / s;
+      qy = (z[0] - x[2]) / s;
+      qz = (x[1] - y[0]) / s;
+    } else if (x[0] > y[1] && x[0] > z[2]) {
+      double s = Math.sqrt(1 + x[0] - y[1] - z[2]) * 2;
+      w = (y[2] - z[1]) / s;
+      qx = s / 4;
+      qy = (y[0] + x[1]) / s;
+      qz = (z[0] + x[2]) / s;
+    } else if (y[1] > z[2]) {
+      double s = Math.sqrt(1 + y[1] - x[0] - z[2]) * 2;
+      w = (z[0] - x[2]) / s;
+      qx = (y[0] + x[1]) / s;
+      qy = s / 4;
+      qz = (z[1] + y[2]) / s;
+    } else {
+      double s = Math.sqrt(1 + z[2] - x[0] - y[1]) * 2;
+      w = (x[1] - y[0]) / s;
+      qx = (z[0] + x[2]) / s;
+      qy = (z[1] + y[2]) / s;
+      qz = s / 4;
+    }
+    // Rotation vectors keep the scalar part non-negative.
+    double sign = w < 0 ? -1 : 1;
+    out[0] = (float) (sign * qx);
+    out[1] = (float) (sign * qy);
+    out[2] = (float) (sign * qz);
+    out[3] = (float) (sign * w);
+  }
+
+  /**
+   * Gets flights around the trace's location, the way a refresh would deliver them.
+   */
+  private static List<Flight> flights(double latitude, double longitude) {
+    double[] box = FlightRetrieval.getBoundingBox(latitude, longitude, 20, null);
+    List<Flight> flights = new SyntheticTraffic(latitude, longitude, AIRCRAFT_COUNT * 4, 42)
+        .getFlights(box, TRAFFIC_TIME_MILLIS);
+    return flights.subList(0, Math.min(AIRCRAFT_COUNT, flights.size()));
+  }
+}
@@ -0,0 +1,45 @@
+#!/bin/sh
+# Builds CompassView with its resources and runs CompassViewRenderBenchmark, TraceReplayBenchmark,
+# DeclinationCacheCheck, and TieredFlightSourceCheck under Robolectric on a desktop JVM, or only the
+# classes named as arguments, e.g. "./run-render.sh DeclinationCacheCheck". See the README.
+#
+# Needs four environment variables:
+#   ROBOLECTRIC_CLASSPATH  Robolectric 4.10 or later with its dependencies, JUnit 4, and the
+#                          android-all jar for SDK 28 (Robolectric can download it instead)
+#   HTTP_CLASSPATH         Apache HttpClient 4.x with httpcore and commons-logging, which the
+#                          model package uses and SDK 28 no longer has, as for run.sh
+#   ANDROID_JAR            platforms/android-19/android.jar from the SDK, to compile resources
+#   AAPT                   the aapt tool from the SDK's build-tools
+# and optionally TRACE, a trace file recorded on the device for TraceReplayBenchmark to replay.
+set -e
+cd "$(dirname "$0")"
+APP=../src/com/google/android/glass/sample/compass
+
+rm -rf build/render
+mkdir -p build/render/gen build/render/classes/com/android/tools
+"$AAPT" package -f -m -J build/render/gen -M ../AndroidManifest.xml -S ../res -I "$ANDROID_JAR" \
+    -F build/render/resources.ap_
+
+# Where Robolectric finds the app's resources, as the Android Gradle plugin would write it.
+cat > build/render/classes/com/android/tools/test_config.properties <<PROPERTIES
+android_merged_manifest=$(pwd)/../AndroidManifest.xml
+android_resource_apk=$(pwd)/build/render/resources.ap_
+android_custom_package=com.google.android.glass.sample.compass
+PROPERTIES
+
+if [ $# -eq 0 ]; then
+  set -- CompassViewRenderBenchmark TraceReplayBenchmark DeclinationCacheCheck \
+      TieredFlightSourceCheck
+fi
+
+# Only the view, the orientation and trace classes, and what they need; the rest of the app depends
+# on the Glass GDK.
+javac -d build/render/classes -cp "$ROBOLECTRIC_CLASSPATH:$HTTP_CLASSPATH" \
+    $(find build/render/gen $APP/util $APP/model render/src -name '*.java') \
+    $APP/CompassView.java $APP/HeadingFilter.java $APP/RenderState.java $APP/TextMetricsCache.java \
+    $APP/OrientationManager.java $APP/OnChangedDispatcher.java $APP/LatestValueSlot.java \
+    $APP/DeclinationCache.java $APP/SensorRateGovernor.java $APP/TraceRecorder.java \
+    $APP/TraceReplayer.java $APP/FlightSelector.java $APP/FlightClusters.java
+java -cp "build/render/classes:$ROBOLECTRIC_CLASSPATH:$HTTP_CLASSPATH" -Dtrace="$TRACE" \
+    org.junit.runner.JUnitCore \
+    $(for name in "$@"; do echo "com.google.android.glass.sample.compass.$name"; done)
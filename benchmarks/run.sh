@@ -0,0 +1,22 @@
+#!/bin/sh
+# Builds the JMH benchmarks against the app sources and runs them on a desktop JVM, with the GC
+# profiler so that allocation rates are reported next to throughput. Extra arguments are passed to
+# JMH, e.g. "./run.sh GeoMathBenchmark -p aircraftCount=1000".
+#
+# Needs four environment variables:
+#   JMH_CLASSPATH   jmh-core, jmh-generator-annprocess and their dependencies
+#   JSON_JAR        a real org.json implementation (android.jar only has stubs of it)
+#   HTTP_CLASSPATH  Apache HttpClient 4.x with httpcore and commons-logging, for RefreshBenchmark
+#   ANDROID_JAR     platforms/android-19/android.jar from the SDK; the benchmarked code paths only
+#                   touch android.util.Log and android.os.StrictMode, which are replaced by the
+#                   no-ops in stubs/
+set -e
+cd "$(dirname "$0")"
+APP=../src/com/google/android/glass/sample/compass
+
+rm -rf build
+mkdir -p build/classes
+CLASSPATH="$JMH_CLASSPATH:$JSON_JAR:$HTTP_CLASSPATH:$ANDROID_JAR"
+javac -d build/classes -cp "$CLASSPATH" \
+    $(find $APP/util $APP/model -name '*.java') $(find stubs src -name '*.java')
+java -cp "build/classes:$CLASSPATH" org.openjdk.jmh.Main -prof gc "$@"
@@ -0,0 +1,109 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightFilter;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link FlightFilter}: parsing a response with the filter applied as each aircraft is
+ * read ({@code parseFiltered}), against parsing everything and filtering the built flights
+ * afterwards ({@code parseThenFilter}), and the filter's own throughput over already built flights
+ * ({@code filterFlights}, in flight sets per millisecond).
+ * <p>
+ * The filters range from one numeric condition to all of them together; "none" shows the
+ * unfiltered parse. Comparing {@code gc.alloc.rate.norm} between the first two benchmarks shows
+ * what rejected aircraft no longer cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterBenchmark {
+
+  /** San Francisco airport, which the payloads are centered on. */
+  private static final double CENTER_LAT = 37.62;
+  private static final double CENTER_LON = -122.38;
+
+  /** The payload to parse; see {@link Payloads#get}. */
+  @Param({"recorded", "array-5000", "object-5000"})
+  public String payload;
+
+  /** One of the filter specs in {@link #spec}. */
+  @Param({"none", "altitude", "airline", "distance", "combined"})
+  public String filter;
+
+  private String responseText;
+  private FlightFilter flightFilter;
+  private ArrayList<Flight> flights;
+
+  private static String spec(String name) {
+    if (name.equals("none")) {
+      return "";
+    } else if (name.equals("altitude")) {
+      return "altitude=10000-";
+    } else if (name.equals("airline")) {
+      return "airline=UAL,SWA,DAL";
+    } else if (name.equals("distance")) {
+      return "distance=10";
+    } else if (name.equals("combined")) {
+      return "altitude=1000-30000;speed=150-;state=airborne;type=!E120,C172;airline=!VRD;"
+          + "distance=15";
+    }
+    throw new IllegalArgumentException("Unknown filter " + name);
+  }
+
+  @Setup
+  public void setUp() throws IOException, JSONException {
+    responseText = Payloads.get(payload);
+    flightFilter = FlightFilter.parse(spec(filter)).at(CENTER_LAT, CENTER_LON);
+    flights = FlightRetrieval.parseResponse(responseText);
+    if (parseFiltered().size() != parseThenFilter().size()) {
+      throw new IllegalStateException("Filtering while parsing kept a different set of flights");
+    }
+  }
+
+  @Benchmark
+  public ArrayList<Flight> parseFiltered() throws JSONException {
+    return FlightRetrieval.parseResponse(responseText, flightFilter);
+  }
+
+  @Benchmark
+  public ArrayList<Flight> parseThenFilter() throws JSONException {
+    return filter(FlightRetrieval.parseResponse(responseText));
+  }
+
+  @Benchmark
+  public ArrayList<Flight> filterFlights() {
+    return filter(flights);
+  }
+
+  private ArrayList<Flight> filter(ArrayList<Flight> all) {
+    ArrayList<Flight> kept = new ArrayList<Flight>();
+    for (int i = 0; i < all.size(); i++) {
+      Flight flight = all.get(i);
+      if (flightFilter.accepts(flight)) {
+        kept.add(flight);
+      }
+    }
+    return kept;
+  }
+}
@@ -0,0 +1,134 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+import com.google.android.glass.sample.compass.util.MathUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the geo math that runs for every aircraft whenever the flights or the user's
+ * location change. Each benchmark invocation processes the whole set of aircraft, the way the view
+ * does, so scores are "aircraft sets per second"; divide by {@code aircraftCount} for per-aircraft
+ * cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoMathBenchmark {
+
+  /** The radius, in km, around the user within which aircraft are scattered. */
+  private static final double SPREAD_KM = 50;
+
+  private static final double KM_PER_DEGREE = 111.2;
+
+  @Param({"10", "100", "1000", "10000", "100000"})
+  public int aircraftCount;
+
+  /**
+   * Where the user stands: San Francisco (mid-latitude), Singapore (equator), Tromso (high
+   * latitude), and Fiji (straddling the antimeridian, where longitudes wrap).
+   */
+  @Param({"37.62,-122.38", "1.36,103.99", "69.68,18.92", "-17.76,179.9"})
+  public String userLocation;
+
+  private double userLat;
+  private double userLon;
+  private double[] latitudes;
+  private double[] longitudes;
+  private float[] headings;
+  private int[] ints;
+
+  @Setup
+  public void setUp() {
+    String[] parts = userLocation.split(",");
+    userLat = Double.parseDouble(parts[0]);
+    userLon = Double.parseDouble(parts[1]);
+
+    Random random = new Random(42);
+    latitudes = new double[aircraftCount];
+    longitudes = new double[aircraftCount];
+    headings = new float[aircraftCount];
+    ints = new int[aircraftCount];
+    double lonScale = Math.cos(Math.toRadians(userLat));
+    for (int i = 0; i < aircraftCount; i++) {
+      // Uniform over a disc, so that density matches airspace rather than clustering at the center.
+      double r = SPREAD_KM * Math.sqrt(random.nextDouble());
+      double theta = 2 * Math.PI * random.nextDouble();
+      latitudes[i] = userLat + r * Math.cos(theta) / KM_PER_DEGREE;
+      double lon = userLon + r * Math.sin(theta) / (KM_PER_DEGREE * lonScale);
+      longitudes[i] = lon > 180 ? lon - 360 : (lon < -180 ? lon + 360 : lon);
+      // Headings outside 0-360, as sensor math produces before it is normalized.
+      headings[i] = (float) (random.nextDouble() * 1080 - 360);
+      ints[i] = random.nextInt(64) - 32;
+    }
+  }
+
+  @Benchmark
+  public void bearing(Blackhole blackhole) {
+    for (int i = 0; i < aircraftCount; i++) {
+      blackhole.consume(MathUtils.getBearing(userLat, userLon, latitudes[i], longitudes[i]));
+    }
+  }
+
+  @Benchmark
+  public void distance(Blackhole blackhole) {
+    for (int i = 0; i < aircraftCount; i++) {
+      blackhole.consume(MathUtils.getDistance(userLat, userLon, latitudes[i], longitudes[i]));
+    }
+  }
+
+  @Benchmark
+  public void bearingAndDistance(Blackhole blackhole) {
+    for (int i = 0; i < aircraftCount; i++) {
+      blackhole.consume(MathUtils.getBearing(userLat, userLon, latitudes[i], longitudes[i]));
+      blackhole.consume(MathUtils.getDistance(userLat, userLon, latitudes[i], longitudes[i]));
+    }
+  }
+
+  @Benchmark
+  public void halfWindIndex(Blackhole blackhole) {
+    for (int i = 0; i < aircraftCount; i++) {
+      blackhole.consume(MathUtils.getHalfWindIndex(headings[i]));
+    }
+  }
+
+  @Benchmark
+  public void modFloat(Blackhole blackhole) {
+    for (int i = 0; i < aircraftCount; i++) {
+      blackhole.consume(MathUtils.mod(headings[i], 360.0f));
+    }
+  }
+
+  @Benchmark
+  public void modInt(Blackhole blackhole) {
+    for (int i = 0; i < aircraftCount; i++) {
+      blackhole.consume(MathUtils.mod(ints[i], 16));
+    }
+  }
+
+  /**
+   * The bounding box is computed once per refresh rather than per aircraft, so this measures a
+   * single call; it is here to catch allocation and trigonometry regressions.
+   */
+  @Benchmark
+  public double[] boundingBox() {
+    return FlightRetrieval.getBoundingBox(userLat, userLon, SPREAD_KM, null);
+  }
+}
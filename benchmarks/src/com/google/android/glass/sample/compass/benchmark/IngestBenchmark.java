@@ -0,0 +1,86 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightFilter;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning an update.php response into the filtered list of flights that the compass
+ * draws: {@link FlightRetrieval#parseResponse} (JSON parsing plus {@link Flight} construction, for
+ * both the array-shaped and the object-shaped "planes" payloads), {@link Flight} construction on
+ * its own, and parsing with {@link FlightFilter#DEFAULT}, which drops untracked and landed
+ * aircraft as the rows are read.
+ * <p>
+ * The payloads come from {@link Payloads}. Throughput mode gives parse rate; sample mode gives
+ * the latency distribution, whose high percentiles are what a user sees as a stalled refresh.
+ * Divide {@code gc.alloc.rate.norm} by the payload's aircraft count for bytes allocated per
+ * flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestBenchmark {
+
+  /** The payload to ingest; see {@link Payloads#get}. */
+  @Param({"recorded", "array-1000", "object-1000", "array-5000", "object-5000"})
+  public String payload;
+
+  private String responseText;
+  private List<String> ids;
+  private List<JSONArray> inputs;
+
+  @Setup
+  public void setUp() throws IOException, JSONException {
+    responseText = Payloads.get(payload);
+
+    ids = new ArrayList<String>();
+    inputs = new ArrayList<JSONArray>();
+    Payloads.collectAircraft(new JSONObject(responseText), ids, inputs);
+    ArrayList<Flight> flights = FlightRetrieval.parseResponse(responseText);
+    if (flights.size() != ids.size()) {
+      throw new IllegalStateException(
+          "Parsed " + flights.size() + " of " + ids.size() + " aircraft in " + payload);
+    }
+  }
+
+  @Benchmark
+  public ArrayList<Flight> parseResponse() throws JSONException {
+    return FlightRetrieval.parseResponse(responseText);
+  }
+
+  @Benchmark
+  public void constructFlights(Blackhole blackhole) throws JSONException {
+    for (int i = 0; i < ids.size(); i++) {
+      blackhole.consume(new Flight(ids.get(i), inputs.get(i)));
+    }
+  }
+
+  @Benchmark
+  public ArrayList<Flight> parseAndFilter() throws JSONException {
+    return FlightRetrieval.parseResponse(responseText, FlightFilter.DEFAULT);
+  }
+}
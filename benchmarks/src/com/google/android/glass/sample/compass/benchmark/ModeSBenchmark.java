@@ -0,0 +1,106 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.AircraftStateTable;
+import com.google.android.glass.sample.compass.model.ModeSDecoder;
+import com.google.android.glass.sample.compass.model.ReceiverFlightSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the raw Mode-S receiver path: {@link ModeSDecoder} on ten seconds of frames in 64
+ * KB reads, as the client does, and with the {@link AircraftStateTable#publish} that turns the
+ * aircraft into flights. The frames are synthesized by {@link ModeSFrames} unless {@code capture}
+ * names a recorded file (e.g. from "nc receiver 30005 > capture.beast"), in which case
+ * {@code aircraftCount} is ignored. Scores are feeds per second, so multiply by the frame count
+ * that setup prints; {@code gc.alloc.rate.norm} should stay near zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModeSBenchmark {
+
+  private static final int READ_SIZE = 64 * 1024;
+
+  /** The seconds of traffic in the synthesized feed. */
+  private static final int FEED_SECONDS = 10;
+
+  @Param({"beast", "avr"})
+  public String format;
+
+  /** The number of aircraft in the simulated airspace; the feed covers the airborne ones. */
+  @Param({"100", "1000", "5000"})
+  public int aircraftCount;
+
+  /** A recorded feed in {@link #format} to decode instead of synthesized frames. */
+  @Param({""})
+  public String capture;
+
+  private byte[] feed;
+  private ByteBuffer readBuffer;
+  private AircraftStateTable table;
+  private ModeSDecoder decoder;
+  private ReceiverFlightSource receiver;
+
+  @Setup
+  public void setUp() throws IOException {
+    int decoderFormat = format.equals("avr") ? ModeSDecoder.FORMAT_AVR : ModeSDecoder.FORMAT_BEAST;
+    feed = capture.length() > 0 ? SbsStandIn.read(new File(capture))
+        : ModeSFrames.synthesize(decoderFormat, aircraftCount, FEED_SECONDS);
+    readBuffer = ByteBuffer.allocateDirect(READ_SIZE);
+    table = new AircraftStateTable(16384);
+    decoder = new ModeSDecoder(table, decoderFormat);
+    receiver = new ReceiverFlightSource();
+    long framesPerFeed = decodeFeed();
+    if (capture.length() == 0 && decoder.getBadParityCount() != 0) {
+      throw new IllegalStateException(decoder.getBadParityCount() + " frames failed parity");
+    }
+    System.out.println(framesPerFeed + " frames per feed, " + table.size() + " aircraft");
+  }
+
+  /**
+   * Decodes the whole feed; one operation is one feed, whose frame count setup prints.
+   */
+  @Benchmark
+  public long decode() {
+    return decodeFeed();
+  }
+
+  @Benchmark
+  public int decodeAndPublish() {
+    decodeFeed();
+    return table.publish(receiver, System.currentTimeMillis(), Long.MAX_VALUE);
+  }
+
+  private long decodeFeed() {
+    long before = decoder.getMessageCount();
+    long nowMillis = System.currentTimeMillis();
+    readBuffer.clear();
+    for (int offset = 0; offset < feed.length;) {
+      int length = Math.min(readBuffer.remaining(), feed.length - offset);
+      readBuffer.put(feed, offset, length);
+      offset += length;
+      readBuffer.flip();
+      decoder.decode(readBuffer, nowMillis);
+      readBuffer.compact();
+    }
+    return decoder.getMessageCount() - before;
+  }
+}
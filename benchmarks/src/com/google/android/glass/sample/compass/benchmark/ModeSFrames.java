@@ -0,0 +1,146 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.Cpr;
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.ModeSDecoder;
+import com.google.android.glass.sample.compass.model.SyntheticTraffic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Synthesizes the raw Mode-S frames a receiver would hear from {@link SyntheticTraffic} around San
+ * Francisco airport, in the Beast or AVR format, for {@link ModeSBenchmark} and for replaying to a
+ * device with {@link SbsStandIn}. Every second, each airborne aircraft sends an even and an odd
+ * airborne position and an airborne velocity, and every ten seconds an identification, all as
+ * DF17 extended squitters with their parity.
+ * <p>
+ * Run on its own, it writes a file, with the arguments
+ * {@code beast|avr aircraft-count seconds file}.
+ */
+public class ModeSFrames {
+
+  private static final String CALLSIGN_CHARS =
+      "#ABCDEFGHIJKLMNOPQRSTUVWXYZ##### ###############0123456789######";
+
+  private static final int FRAME_BYTES = 14;
+
+  private ModeSFrames() {
+  }
+
+  /**
+   * @param format {@link ModeSDecoder#FORMAT_BEAST} or {@link ModeSDecoder#FORMAT_AVR}
+   */
+  static byte[] synthesize(int format, int aircraftCount, int seconds) {
+    SyntheticTraffic traffic = new SyntheticTraffic(37.62, -122.38, aircraftCount, 42);
+    double[] everywhere = {-90, -180, 90, 180};
+    long startMillis = 1386224353000L;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] frame = new byte[FRAME_BYTES];
+    int[] cpr = new int[2];
+    for (int second = 0; second < seconds; second++) {
+      List<Flight> flights = traffic.getFlights(everywhere, startMillis + second * 1000L);
+      for (int i = 0; i < flights.size(); i++) {
+        Flight flight = flights.get(i);
+        int address = Integer.parseInt(flight.identification, 16);
+        long ticks = second * 12000000L;
+        if (second % 10 == i % 10) {
+          write(out, format, frame, address, identification(flight.flightNumber), ticks);
+        }
+        for (int half = 0; half < 2; half++) {
+          Cpr.encode(flight.latitude, flight.longitude, half == 1, cpr);
+          write(out, format, frame, address, position(flight.altitude, half == 1, cpr), ticks);
+        }
+        write(out, format, frame, address, velocity(flight.speed, flight.angle), ticks);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static long identification(String callsign) {
+    long me = 4L << 51;
+    for (int i = 0; i < 8; i++) {
+      char c = i < callsign.length() ? callsign.charAt(i) : ' ';
+      int code = CALLSIGN_CHARS.indexOf(c);
+      me |= (long) (code < 0 ? 32 : code) << (42 - 6 * i);
+    }
+    return me;
+  }
+
+  private static long position(float altitude, boolean odd, int[] cpr) {
+    int n = Math.max(0, Math.min(0x7ff, Math.round((altitude + 1000) / 25)));
+    long altitudeCode = ((n & 0x7f0) << 1) | 0x10 | (n & 0xf);
+    return (11L << 51) | (altitudeCode << 36) | ((odd ? 1L : 0L) << 34) | ((long) cpr[0] << 17)
+        | cpr[1];
+  }
+
+  private static long velocity(float speed, float track) {
+    double east = speed * Math.sin(Math.toRadians(track));
+    double north = speed * Math.cos(Math.toRadians(track));
+    long eastWest = Math.min(1023, Math.round(Math.abs(east)) + 1);
+    long northSouth = Math.min(1023, Math.round(Math.abs(north)) + 1);
+    return (19L << 51) | (1L << 48) | ((east < 0 ? 1L : 0L) << 42) | (eastWest << 32)
+        | ((north < 0 ? 1L : 0L) << 31) | (northSouth << 21);
+  }
+
+  private static void write(ByteArrayOutputStream out, int format, byte[] frame, int address,
+      long me, long ticks) {
+    frame[0] = (byte) ((17 << 3) | 5);
+    frame[1] = (byte) (address >>> 16);
+    frame[2] = (byte) (address >>> 8);
+    frame[3] = (byte) address;
+    for (int i = 0; i < 7; i++) {
+      frame[4 + i] = (byte) (me >>> (48 - 8 * i));
+    }
+    int parity = ModeSDecoder.parity(frame, 11);
+    frame[11] = (byte) (parity >>> 16);
+    frame[12] = (byte) (parity >>> 8);
+    frame[13] = (byte) parity;
+
+    if (format == ModeSDecoder.FORMAT_AVR) {
+      out.write('*');
+      for (int i = 0; i < FRAME_BYTES; i++) {
+        out.write(Character.toUpperCase(Character.forDigit((frame[i] >> 4) & 0xf, 16)));
+        out.write(Character.toUpperCase(Character.forDigit(frame[i] & 0xf, 16)));
+      }
+      out.write(';');
+      out.write('\n');
+      return;
+    }
+    out.write(0x1a);
+    out.write('3');
+    for (int i = 5; i >= 0; i--) {
+      writeEscaped(out, (byte) (ticks >>> (8 * i)));
+    }
+    // Signal level.
+    writeEscaped(out, (byte) 0x80);
+    for (int i = 0; i < FRAME_BYTES; i++) {
+      writeEscaped(out, frame[i]);
+    }
+  }
+
+  private static void writeEscaped(ByteArrayOutputStream out, byte b) {
+    out.write(b);
+    if (b == 0x1a) {
+      out.write(b);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 4) {
+      System.err.println("Usage: ModeSFrames beast|avr aircraft-count seconds file");
+      System.exit(1);
+    }
+    int format = args[0].equals("avr") ? ModeSDecoder.FORMAT_AVR : ModeSDecoder.FORMAT_BEAST;
+    byte[] frames = synthesize(format, Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    OutputStream out = new FileOutputStream(args[3]);
+    try {
+      out.write(frames);
+    } finally {
+      out.close();
+    }
+  }
+}
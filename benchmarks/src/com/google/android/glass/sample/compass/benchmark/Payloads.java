@@ -0,0 +1,129 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Recorded and synthetic update.php responses for the benchmarks and the stand-in server.
+ * <p>
+ * The recorded response is a real one for the San Francisco Bay Area, copied from
+ * {@code aircraft/types.txt}. Synthetic responses clone its aircraft under new identifiers and
+ * with jittered positions, so that they keep the real mix of unknown, landed, and airborne
+ * aircraft. They are generated from a fixed seed, so runs are comparable with each other.
+ */
+final class Payloads {
+
+  /** The recorded payload, relative to the benchmarks directory that run.sh runs from. */
+  static final String RECORDED = "payloads/recorded-sfo.json";
+
+  /** How many aircraft each object in an array-shaped synthetic response holds. */
+  private static final int AIRCRAFT_PER_GROUP = 128;
+
+  private Payloads() {}
+
+  /**
+   * Reads the recorded response.
+   */
+  static String readRecorded() throws IOException {
+    return new String(Files.readAllBytes(new File(RECORDED).toPath()), Charset.forName("UTF-8"));
+  }
+
+  /**
+   * Gets a response by name: "recorded", or "array-N" / "object-N" for N synthetic aircraft,
+   * jittered by up to half a degree, in the array-shaped or object-shaped "planes" layout.
+   */
+  static String get(String name) throws IOException, JSONException {
+    String recorded = readRecorded();
+    if (name.equals("recorded")) {
+      return recorded;
+    }
+    String[] parts = name.split("-");
+    return synthesize(recorded, parts[0].equals("array"), Integer.parseInt(parts[1]), 0.5);
+  }
+
+  /**
+   * Builds a response with {@code count} aircraft cloned from a template response.
+   *
+   * @param jitterDegrees the largest offset added to each clone's latitude and longitude
+   */
+  static String synthesize(String template, boolean arrayShaped, int count, double jitterDegrees)
+      throws JSONException {
+    List<String> templateIds = new ArrayList<String>();
+    List<JSONArray> templates = new ArrayList<JSONArray>();
+    collectAircraft(new JSONObject(template), templateIds, templates);
+
+    Random random = new Random(42);
+    List<String> ids = new ArrayList<String>(count);
+    List<JSONArray> aircraft = new ArrayList<JSONArray>(count);
+    for (int i = 0; i < count; i++) {
+      JSONArray source = templates.get(i % templates.size());
+      JSONArray clone = new JSONArray(source.toString());
+      clone.put(3, source.getDouble(3) + (random.nextDouble() * 2 - 1) * jitterDegrees);
+      clone.put(4, source.getDouble(4) + (random.nextDouble() * 2 - 1) * jitterDegrees);
+      ids.add(String.format(Locale.US, "%06X", i));
+      aircraft.add(clone);
+    }
+    return toResponse(ids, aircraft, arrayShaped).toString();
+  }
+
+  /**
+   * Builds a response holding the specified aircraft.
+   */
+  static JSONObject toResponse(List<String> ids, List<JSONArray> aircraft, boolean arrayShaped)
+      throws JSONException {
+    JSONArray groups = new JSONArray();
+    JSONObject group = new JSONObject();
+    for (int i = 0; i < ids.size(); i++) {
+      group.put(ids.get(i), aircraft.get(i));
+      if (arrayShaped && group.length() == AIRCRAFT_PER_GROUP) {
+        groups.put(group);
+        group = new JSONObject();
+      }
+    }
+
+    JSONObject response = new JSONObject();
+    response.put("paths", new JSONArray());
+    response.put("isPartial", false);
+    if (arrayShaped) {
+      if (group.length() > 0) {
+        groups.put(group);
+      }
+      response.put("planes", groups);
+    } else {
+      response.put("planes", new JSONObject().put("1", group));
+    }
+    return response;
+  }
+
+  /**
+   * Collects the identifiers and raw arrays of every aircraft in a response, in either layout.
+   */
+  static void collectAircraft(JSONObject response, List<String> ids, List<JSONArray> aircraft)
+      throws JSONException {
+    JSONArray groups = response.optJSONArray("planes");
+    if (groups == null) {
+      groups = new JSONArray().put(response.getJSONObject("planes").getJSONObject("1"));
+    }
+    for (int i = 0; i < groups.length(); i++) {
+      JSONObject group = groups.getJSONObject(i);
+      @SuppressWarnings("unchecked")
+      Iterator<String> keys = group.keys();
+      while (keys.hasNext()) {
+        String id = keys.next();
+        ids.add(id);
+        aircraft.add(group.getJSONArray(id));
+      }
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.FlightManager;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency and throughput of {@link FlightManager#refreshFlights()} against a
+ * {@link StandInServer}: the HTTP request, the response body, parsing, and filtering, exactly as
+ * the compass runs them. The refresh throttle is turned off so that every call refreshes.
+ * <p>
+ * Besides the timings, each result reports how many refreshes succeeded and failed, and how many
+ * flights were loaded, so that injected faults and the size of the bounded payload can be seen in
+ * the numbers. The user stands at San Francisco airport, in the middle of the recorded traffic.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RefreshBenchmark {
+
+  private static final double USER_LAT = 37.62;
+  private static final double USER_LON = -122.38;
+
+  /** The fraction of requests that fail when a fault is injected. */
+  private static final double FAULT_RATE = 0.1;
+
+  /** The response the server filters by bounds; see {@link Payloads#get}. */
+  @Param({"recorded", "array-5000", "array-50000"})
+  public String payload;
+
+  @Param({"0", "200"})
+  public int latencyMillis;
+
+  /** "none", "errors" for HTTP 500s, or "truncated" for bodies cut off halfway. */
+  @Param({"none", "errors", "truncated"})
+  public String fault;
+
+  private StandInServer server;
+  private FlightManager flightManager;
+
+  /**
+   * The outcome of the refreshes in an iteration, reported by JMH next to the timings.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Outcomes {
+    public long refreshed;
+    public long failed;
+    public long flights;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      refreshed = 0;
+      failed = 0;
+      flights = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() throws IOException, JSONException {
+    server = new StandInServer(Payloads.get(payload),
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    server.setLatency(latencyMillis);
+    server.setErrorRate(fault.equals("errors") ? FAULT_RATE : 0);
+    server.setTruncateRate(fault.equals("truncated") ? FAULT_RATE : 0);
+    server.start();
+    FlightRetrieval.setEndpoint(server.getUrl());
+
+    flightManager = new FlightManager(null);
+    flightManager.setMinRefreshInterval(0);
+    flightManager.setLocation(USER_LAT, USER_LON);
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.stop();
+    FlightRetrieval.setEndpoint(FlightRetrieval.DEFAULT_ENDPOINT);
+  }
+
+  @Benchmark
+  public int refresh(Outcomes outcomes) {
+    if (flightManager.refreshFlights()) {
+      outcomes.refreshed++;
+      outcomes.flights += flightManager.getNumFlights();
+    } else {
+      outcomes.failed++;
+    }
+    return flightManager.getNumFlights();
+  }
+}
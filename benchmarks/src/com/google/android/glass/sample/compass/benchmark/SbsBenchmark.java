@@ -0,0 +1,135 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.AircraftStateTable;
+import com.google.android.glass.sample.compass.model.ReceiverClient;
+import com.google.android.glass.sample.compass.model.ReceiverFlightSource;
+import com.google.android.glass.sample.compass.model.SbsDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the SBS-1 receiver path. {@code decode} feeds ten seconds of synthesized traffic
+ * (see {@link SbsStandIn#synthesize}) through {@link SbsDecoder} in 64 KB reads, as the client
+ * does, and {@code decodeAndPublish} adds the {@link AircraftStateTable#publish} that turns the
+ * aircraft into flights; their scores are feeds per second, so multiply by the message count that
+ * setup prints. {@code stream} is end to end, in messages per second: a {@link ReceiverClient}
+ * reading from an {@link SbsStandIn} over a loopback socket, timed until it has decoded
+ * {@link #STREAM_MESSAGES} more messages.
+ * <p>
+ * A real receiver sends a few thousand messages per second at a busy hub; {@code
+ * gc.alloc.rate.norm} on the decode benchmarks should stay near zero.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SbsBenchmark {
+
+  /** The number of messages {@code stream} waits for per invocation. */
+  static final int STREAM_MESSAGES = 10000;
+
+  private static final int READ_SIZE = 64 * 1024;
+
+  /** The seconds of traffic in the synthesized feed. */
+  private static final int FEED_SECONDS = 10;
+
+  /** The number of aircraft in the simulated airspace; the feed covers the airborne ones. */
+  @Param({"100", "1000", "5000"})
+  public int aircraftCount;
+
+  private byte[] feed;
+  private ByteBuffer readBuffer;
+  private AircraftStateTable table;
+  private SbsDecoder decoder;
+  private ReceiverFlightSource receiver;
+  private SbsStandIn standIn;
+  private ReceiverClient client;
+
+  @Setup
+  public void setUp() throws IOException {
+    feed = SbsStandIn.synthesize(aircraftCount, FEED_SECONDS);
+    readBuffer = ByteBuffer.allocateDirect(READ_SIZE);
+    table = new AircraftStateTable(16384);
+    decoder = new SbsDecoder(table);
+    receiver = new ReceiverFlightSource();
+    long messagesPerFeed = decodeFeed();
+    if (decoder.getMalformedCount() != 0) {
+      throw new IllegalStateException(decoder.getMalformedCount() + " malformed messages");
+    }
+    System.out.println(messagesPerFeed + " messages per feed");
+
+    standIn = new SbsStandIn(feed, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    standIn.start();
+    AircraftStateTable clientTable = new AircraftStateTable(16384);
+    client = new ReceiverClient("127.0.0.1", standIn.getPort(), clientTable,
+        new SbsDecoder(clientTable), new ReceiverFlightSource(),
+        ReceiverFlightSource.DEFAULT_MAX_AGE_MILLIS);
+    client.start();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    client.stop();
+    standIn.stop();
+  }
+
+  /**
+   * Decodes the whole feed; one operation is one feed, whose message count setup prints.
+   */
+  @Benchmark
+  public long decode() {
+    return decodeFeed();
+  }
+
+  @Benchmark
+  public int decodeAndPublish() {
+    decodeFeed();
+    return table.publish(receiver, System.currentTimeMillis(), Long.MAX_VALUE);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(STREAM_MESSAGES)
+  public long stream() throws InterruptedException {
+    long target = client.getMessageCount() + STREAM_MESSAGES;
+    long count;
+    while ((count = client.getMessageCount()) < target) {
+      Thread.sleep(1);
+    }
+    return count;
+  }
+
+  private long decodeFeed() {
+    long before = decoder.getMessageCount();
+    long nowMillis = System.currentTimeMillis();
+    readBuffer.clear();
+    for (int offset = 0; offset < feed.length;) {
+      int length = Math.min(readBuffer.remaining(), feed.length - offset);
+      readBuffer.put(feed, offset, length);
+      offset += length;
+      readBuffer.flip();
+      decoder.decode(readBuffer, nowMillis);
+      readBuffer.compact();
+    }
+    return decoder.getMessageCount() - before;
+  }
+}
@@ -0,0 +1,219 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.ReceiverClient;
+import com.google.android.glass.sample.compass.model.SyntheticTraffic;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A local stand-in for an ADS-B receiver's SBS-1 feed on port 30003, so that
+ * {@link ReceiverClient} can be tested and load-tested without a receiver. It replays a capture
+ * (e.g. from "nc receiver 30003 > capture.sbs") or traffic synthesized by {@link #synthesize}, over
+ * and over, to every client that connects, either as fast as the socket takes it or at a fixed
+ * message rate.
+ * <p>
+ * It can also run on its own, so that a device can be pointed at it through the
+ * {@code receiver_address} resource, with the arguments
+ * {@code [port [capture file or aircraft count [messages per second]]]}.
+ */
+public class SbsStandIn {
+
+  private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+  /** How often a rate-limited feed sends a batch of messages. */
+  private static final int BATCHES_PER_SECOND = 100;
+
+  private final byte[] feed;
+  /** Where each line of the feed starts, plus the feed's length. */
+  private final int[] lineStarts;
+  private final ServerSocket serverSocket;
+  private final List<Socket> clients = new ArrayList<Socket>();
+  private volatile int messagesPerSecond;
+  private volatile boolean running;
+
+  /**
+   * @param feed the lines to replay
+   * @param address the address to listen on; port 0 picks any free port
+   */
+  public SbsStandIn(byte[] feed, InetSocketAddress address) throws IOException {
+    this.feed = feed;
+    List<Integer> starts = new ArrayList<Integer>();
+    starts.add(0);
+    for (int i = 0; i < feed.length; i++) {
+      if (feed[i] == '\n') {
+        starts.add(i + 1);
+      }
+    }
+    if (starts.get(starts.size() - 1) != feed.length) {
+      starts.add(feed.length);
+    }
+    lineStarts = new int[starts.size()];
+    for (int i = 0; i < lineStarts.length; i++) {
+      lineStarts[i] = starts.get(i);
+    }
+    serverSocket = new ServerSocket();
+    serverSocket.bind(address);
+  }
+
+  /**
+   * Limits each client to the specified number of messages per second; 0, the default, sends as
+   * fast as the client reads.
+   */
+  public void setMessagesPerSecond(int rate) {
+    messagesPerSecond = rate;
+  }
+
+  /**
+   * @return the number of messages in one pass of the feed
+   */
+  public int getMessageCount() {
+    return lineStarts.length - 1;
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  public void start() {
+    running = true;
+    Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        while (running) {
+          try {
+            final Socket client = serverSocket.accept();
+            synchronized (clients) {
+              clients.add(client);
+            }
+            Thread sender = new Thread(new Runnable() {
+              @Override
+              public void run() {
+                send(client);
+              }
+            }, "SbsStandIn-client");
+            sender.setDaemon(true);
+            sender.start();
+          } catch (IOException e) {
+            // Closed by stop().
+          }
+        }
+      }
+    }, "SbsStandIn-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  public void stop() throws IOException {
+    running = false;
+    serverSocket.close();
+    synchronized (clients) {
+      for (Socket client : clients) {
+        client.close();
+      }
+      clients.clear();
+    }
+  }
+
+  private void send(Socket client) {
+    try {
+      OutputStream out = client.getOutputStream();
+      int line = 0;
+      while (running) {
+        int rate = messagesPerSecond;
+        int batch = rate == 0 ? getMessageCount() : Math.max(1, rate / BATCHES_PER_SECOND);
+        int end = Math.min(line + batch, getMessageCount());
+        out.write(feed, lineStarts[line], lineStarts[end] - lineStarts[line]);
+        line = end == getMessageCount() ? 0 : end;
+        if (rate != 0) {
+          out.flush();
+          Thread.sleep(1000 / BATCHES_PER_SECOND);
+        }
+      }
+    } catch (IOException e) {
+      // The client went away.
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        client.close();
+      } catch (IOException e) {
+        // Nothing more to do.
+      }
+    }
+  }
+
+  /**
+   * Synthesizes the SBS-1 messages a receiver would send for {@link SyntheticTraffic} around San
+   * Francisco airport: every second, a position (MSG,3) and a velocity (MSG,4) message for each
+   * airborne aircraft, and every ten seconds an identification (MSG,1).
+   */
+  static byte[] synthesize(int aircraftCount, int seconds) {
+    SyntheticTraffic traffic = new SyntheticTraffic(37.62, -122.38, aircraftCount, 42);
+    double[] everywhere = {-90, -180, 90, 180};
+    long startMillis = 1386224353000L;
+    StringBuilder builder = new StringBuilder();
+    for (int second = 0; second < seconds; second++) {
+      List<Flight> flights = traffic.getFlights(everywhere, startMillis + second * 1000L);
+      for (int i = 0; i < flights.size(); i++) {
+        Flight flight = flights.get(i);
+        String prefix = ",1,1," + flight.identification + ",1,2013/12/05,06:19:13.000,"
+            + "2013/12/05,06:19:13.000,";
+        if (second % 10 == i % 10) {
+          builder.append("MSG,1").append(prefix)
+              .append(String.format(Locale.US, "%-8s", flight.flightNumber))
+              .append(",,,,,,,,,,,\r\n");
+        }
+        builder.append("MSG,3").append(prefix).append(',')
+            .append(String.format(Locale.US, "%.0f,,,%.5f,%.5f,,,0,0,0,0\r\n",
+                flight.altitude, flight.latitude, flight.longitude));
+        builder.append("MSG,4").append(prefix).append(",,")
+            .append(String.format(Locale.US, "%.0f,%.0f,,,0,,,,,0\r\n", flight.speed,
+                flight.angle));
+      }
+    }
+    return builder.toString().getBytes(US_ASCII);
+  }
+
+  static byte[] read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : ReceiverClient.SBS_PORT;
+    String source = args.length > 1 ? args[1] : "1000";
+    int rate = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+    byte[] feed = new File(source).isFile()
+        ? read(new File(source)) : synthesize(Integer.parseInt(source), 60);
+    // All interfaces, so that a device on the same network can connect.
+    SbsStandIn standIn = new SbsStandIn(feed, new InetSocketAddress(port));
+    standIn.setMessagesPerSecond(rate);
+    standIn.start();
+    System.out.println("Replaying " + standIn.getMessageCount() + " messages on port "
+        + standIn.getPort() + (rate == 0 ? " as fast as possible" : " at " + rate + "/s"));
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,123 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightSnapshotWriter;
+import com.google.android.glass.sample.compass.model.SyntheticTraffic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of exporting flight snapshots with {@link FlightSnapshotWriter}: {@code publish} is what
+ * every refresh adds, and {@code read} is a consumer reading a whole snapshot consistently from its
+ * own read-only mapping of the file, as another app would, following the protocol in the writer's
+ * documentation. Both are in snapshots per millisecond; neither should allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SnapshotBenchmark {
+
+  private static final double USER_LAT = 37.62;
+  private static final double USER_LON = -122.38;
+  private static final long TRAFFIC_TIME_MILLIS = 1386224354000L;
+
+  /** The number of aircraft in the snapshot; beyond the writer's capacity, only that many. */
+  @Param({"100", "1000"})
+  public int aircraftCount;
+
+  private File file;
+  private List<Flight> flights;
+  private FlightSnapshotWriter writer;
+  private FileInputStream readerStream;
+  private MappedByteBuffer readerMapping;
+
+  @Setup
+  public void setUp() throws IOException {
+    flights = new SyntheticTraffic(USER_LAT, USER_LON, aircraftCount, 42)
+        .getFlights(new double[] {-90, -180, 90, 180}, TRAFFIC_TIME_MILLIS);
+    file = File.createTempFile("flights", ".snapshot");
+    writer = new FlightSnapshotWriter(file, FlightSnapshotWriter.DEFAULT_CAPACITY, null);
+    writer.publish(flights, USER_LAT, USER_LON, TRAFFIC_TIME_MILLIS);
+
+    readerStream = new FileInputStream(file);
+    FileChannel channel = readerStream.getChannel();
+    readerMapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    readerMapping.order(ByteOrder.LITTLE_ENDIAN);
+    if (readerMapping.getInt(0) != FlightSnapshotWriter.MAGIC) {
+      throw new IllegalStateException("Bad magic");
+    }
+    double total = read();
+    if (Double.isNaN(total)) {
+      throw new IllegalStateException("Inconsistent snapshot");
+    }
+    System.out.println(readerMapping.getInt(FlightSnapshotWriter.OFFSET_COUNT) + " records");
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    readerStream.close();
+    writer.close();
+    file.delete();
+  }
+
+  @Benchmark
+  public long publish() {
+    writer.publish(flights, USER_LAT, USER_LON, TRAFFIC_TIME_MILLIS);
+    return writer.getGeneration();
+  }
+
+  /**
+   * Reads every record's distance, checking the snapshot for consistency.
+   *
+   * @return the sum of the distances, or NaN if a write overlapped every attempt
+   */
+  @Benchmark
+  public double read() {
+    for (int attempt = 0; attempt < 3; attempt++) {
+      long sequence = readerMapping.getLong(FlightSnapshotWriter.OFFSET_SEQUENCE);
+      if ((sequence & 1) != 0) {
+        continue;
+      }
+      int count = readerMapping.getInt(FlightSnapshotWriter.OFFSET_COUNT);
+      int checksum = readerMapping.getInt(FlightSnapshotWriter.OFFSET_CHECKSUM);
+      double total = 0;
+      int hash = 0;
+      int end = FlightSnapshotWriter.HEADER_BYTES + count * FlightSnapshotWriter.RECORD_BYTES;
+      for (int offset = FlightSnapshotWriter.HEADER_BYTES; offset < end; offset += 4) {
+        hash = Integer.rotateLeft(hash, 1) ^ readerMapping.getInt(offset);
+      }
+      for (int record = FlightSnapshotWriter.HEADER_BYTES; record < end;
+          record += FlightSnapshotWriter.RECORD_BYTES) {
+        total += readerMapping.getFloat(record + 32);
+      }
+      if (hash == checksum
+          && readerMapping.getLong(FlightSnapshotWriter.OFFSET_SEQUENCE) == sequence) {
+        return total;
+      }
+    }
+    return Double.NaN;
+  }
+}
@@ -0,0 +1,232 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for planefinder's update.php endpoint, so that the retrieval path can be tested
+ * and load-tested offline. It serves the aircraft of a recorded or synthetic response (see
+ * {@link Payloads}), keeping only those inside the request's {@code bounds}, in the array-shaped
+ * "planes" layout.
+ * <p>
+ * Faults can be injected: a fixed delay before every response, a fraction of requests answered
+ * with HTTP 500, and a fraction whose body is cut off halfway, as if the connection dropped. Fault
+ * decisions come from a fixed seed, so runs are comparable with each other.
+ * <p>
+ * It can also run on its own, so that a device can be pointed at it (see the README), with the
+ * arguments {@code [port [payload [latencyMillis [errorRate [truncateRate]]]]]}.
+ */
+public class StandInServer {
+
+  static final String PATH = "/endpoints/update.php";
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** How many aircraft each object in the "planes" array holds, as in planefinder's responses. */
+  private static final int AIRCRAFT_PER_GROUP = 128;
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /** Each aircraft's position and its serialized {@code "id":[...]} member. */
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final String[] members;
+
+  private final Random random = new Random(42);
+  private final AtomicInteger requestCount = new AtomicInteger();
+  private volatile int latencyMillis;
+  private volatile double errorRate;
+  private volatile double truncateRate;
+
+  /**
+   * Creates a server for the aircraft in the specified response.
+   *
+   * @param address the address to listen on; port 0 picks any free port
+   */
+  public StandInServer(String response, InetSocketAddress address)
+      throws IOException, JSONException {
+    List<String> ids = new ArrayList<String>();
+    List<JSONArray> aircraft = new ArrayList<JSONArray>();
+    Payloads.collectAircraft(new JSONObject(response), ids, aircraft);
+    latitudes = new double[ids.size()];
+    longitudes = new double[ids.size()];
+    members = new String[ids.size()];
+    for (int i = 0; i < members.length; i++) {
+      latitudes[i] = aircraft.get(i).getDouble(3);
+      longitudes[i] = aircraft.get(i).getDouble(4);
+      members[i] = JSONObject.quote(ids.get(i)) + ":" + aircraft.get(i);
+    }
+
+    server = HttpServer.create(address, 0);
+    executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.createContext(PATH, new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        serve(exchange);
+      }
+    });
+  }
+
+  /**
+   * Sets the delay before every response.
+   */
+  public void setLatency(int millis) {
+    latencyMillis = millis;
+  }
+
+  /**
+   * Sets the fraction of requests, from 0 to 1, that are answered with HTTP 500.
+   */
+  public void setErrorRate(double rate) {
+    errorRate = rate;
+  }
+
+  /**
+   * Sets the fraction of requests, from 0 to 1, whose body is cut off halfway.
+   */
+  public void setTruncateRate(double rate) {
+    truncateRate = rate;
+  }
+
+  public void start() {
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the URL to pass to {@code FlightRetrieval.setEndpoint} on this machine
+   */
+  public String getUrl() {
+    return "http://localhost:" + server.getAddress().getPort() + PATH;
+  }
+
+  /**
+   * @return the number of requests served so far
+   */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    requestCount.incrementAndGet();
+    try {
+      if (latencyMillis > 0) {
+        Thread.sleep(latencyMillis);
+      }
+      double roll;
+      synchronized (random) {
+        roll = random.nextDouble();
+      }
+      if (roll < errorRate) {
+        exchange.sendResponseHeaders(500, -1);
+        return;
+      }
+
+      byte[] body = buildResponse(parseBounds(exchange.getRequestURI().getRawQuery()))
+          .getBytes(UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      if (roll < errorRate + truncateRate) {
+        out.write(body, 0, body.length / 2);
+      } else {
+        out.write(body);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // For a truncated body this drops the connection, since fewer bytes were sent than promised.
+      exchange.close();
+    }
+  }
+
+  /**
+   * Parses "bounds=minLat,minLon,maxLat,maxLon" from a query, as FlightRetrieval sends it.
+   *
+   * @return the bounds, or {@code null} if there are none
+   */
+  private static double[] parseBounds(String query) {
+    if (query == null) {
+      return null;
+    }
+    for (String parameter : query.split("&")) {
+      if (parameter.startsWith("bounds=")) {
+        String[] parts = parameter.substring("bounds=".length()).split(",");
+        if (parts.length != 4) {
+          return null;
+        }
+        double[] bounds = new double[4];
+        for (int i = 0; i < 4; i++) {
+          bounds[i] = Double.parseDouble(parts[i]);
+        }
+        return bounds;
+      }
+    }
+    return null;
+  }
+
+  private String buildResponse(double[] bounds) {
+    StringBuilder builder = new StringBuilder("{\"paths\":[],\"isPartial\":false,\"planes\":[");
+    int inGroup = 0;
+    for (int i = 0; i < members.length; i++) {
+      if (bounds != null && !contains(bounds, latitudes[i], longitudes[i])) {
+        continue;
+      }
+      if (inGroup == AIRCRAFT_PER_GROUP) {
+        builder.append("},");
+        inGroup = 0;
+      }
+      builder.append(inGroup == 0 ? "{" : ",").append(members[i]);
+      inGroup++;
+    }
+    if (inGroup > 0) {
+      builder.append('}');
+    }
+    return builder.append("]}").toString();
+  }
+
+  private static boolean contains(double[] bounds, double lat, double lon) {
+    if (lat < bounds[0] || lat > bounds[2]) {
+      return false;
+    }
+    if (bounds[1] <= bounds[3]) {
+      return lon >= bounds[1] && lon <= bounds[3];
+    }
+    // The box straddles the antimeridian.
+    return lon >= bounds[1] || lon <= bounds[3];
+  }
+
+  public static void main(String[] args) throws Exception {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+    String payload = args.length > 1 ? args[1] : "recorded";
+    // All interfaces, so that a device on the same network can reach it.
+    StandInServer server = new StandInServer(Payloads.get(payload), new InetSocketAddress(port));
+    server.setLatency(args.length > 2 ? Integer.parseInt(args[2]) : 0);
+    server.setErrorRate(args.length > 3 ? Double.parseDouble(args[3]) : 0);
+    server.setTruncateRate(args.length > 4 ? Double.parseDouble(args[4]) : 0);
+    server.start();
+    System.out.println("Serving " + payload + " at " + server.getUrl());
+  }
+}
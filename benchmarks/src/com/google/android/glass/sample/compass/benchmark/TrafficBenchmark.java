@@ -0,0 +1,93 @@
+package com.google.android.glass.sample.compass.benchmark;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightManager;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+import com.google.android.glass.sample.compass.model.SyntheticTraffic;
+import com.google.android.glass.sample.compass.util.MathUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The refresh path at hub-airport densities, with {@link SyntheticTraffic} standing in for the
+ * network: generating the flights alone, a full {@link FlightManager#refreshFlights()}, and a
+ * refresh followed by the per-flight bearing and distance that the view computes whenever the
+ * flights change. Each simulated refresh is five seconds after the previous one, so the traffic
+ * moves between invocations as it would on the device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrafficBenchmark {
+
+  private static final double USER_LAT = 37.62;
+  private static final double USER_LON = -122.38;
+
+  /** The radius FlightManager asks for flights within. */
+  private static final double RADIUS_KM = 20;
+
+  private static final long REFRESH_INTERVAL_MILLIS = 5000;
+
+  /** The number of aircraft in the simulated airspace, about a third of which are in the box. */
+  @Param({"100", "1000", "10000", "100000"})
+  public int aircraftCount;
+
+  private SyntheticTraffic traffic;
+  private FlightManager flightManager;
+  private double[] box;
+  private long timeMillis;
+
+  @Setup
+  public void setUp() {
+    traffic = new SyntheticTraffic(USER_LAT, USER_LON, aircraftCount, 42);
+    box = FlightRetrieval.getBoundingBox(USER_LAT, USER_LON, RADIUS_KM, null);
+    // A fixed start, so that the generated traffic is the same from run to run.
+    timeMillis = 1386224354000L;
+
+    flightManager = new FlightManager(null);
+    flightManager.setFlightSource(traffic);
+    flightManager.setMinRefreshInterval(0);
+    flightManager.setLocation(USER_LAT, USER_LON);
+  }
+
+  @Benchmark
+  public List<Flight> generate() {
+    timeMillis += REFRESH_INTERVAL_MILLIS;
+    return traffic.getFlights(box, timeMillis);
+  }
+
+  @Benchmark
+  public boolean refresh() {
+    return flightManager.refreshFlights();
+  }
+
+  @Benchmark
+  public void refreshAndProject(Blackhole blackhole) {
+    flightManager.refreshFlights();
+    List<Flight> flights = flightManager.getFlights();
+    for (int i = 0; i < flights.size(); i++) {
+      Flight flight = flights.get(i);
+      blackhole.consume(MathUtils.getBearing(USER_LAT, USER_LON, flight.latitude,
+          flight.longitude));
+      blackhole.consume(MathUtils.getDistance(USER_LAT, USER_LON, flight.latitude,
+          flight.longitude));
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package android.os;
+
+/**
+ * A desktop stand-in for the framework's {@code StrictMode}, which FlightRetrieval relaxes before
+ * every request. Policies are accepted and ignored.
+ */
+public final class StrictMode {
+
+  private StrictMode() {}
+
+  public static void setThreadPolicy(ThreadPolicy policy) {}
+
+  public static final class ThreadPolicy {
+
+    private ThreadPolicy() {}
+
+    public static final class Builder {
+
+      public Builder permitAll() {
+        return this;
+      }
+
+      public ThreadPolicy build() {
+        return new ThreadPolicy();
+      }
+    }
+  }
+}
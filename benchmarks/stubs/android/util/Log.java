@@ -0,0 +1,53 @@
+package android.util;
+
+/**
+ * A desktop stand-in for the framework's {@code Log}, whose android.jar version throws "Stub!".
+ * It discards everything, so benchmarks measure the cost of building log messages but not of
+ * writing them.
+ */
+public final class Log {
+  public static final int VERBOSE = 2;
+  public static final int DEBUG = 3;
+  public static final int INFO = 4;
+  public static final int WARN = 5;
+  public static final int ERROR = 6;
+  public static final int ASSERT = 7;
+
+  private Log() {}
+
+  public static boolean isLoggable(String tag, int level) {
+    return false;
+  }
+
+  public static int println(int priority, String tag, String msg) {
+    return 0;
+  }
+
+  public static int v(String tag, String msg) {
+    return 0;
+  }
+
+  public static int d(String tag, String msg) {
+    return 0;
+  }
+
+  public static int i(String tag, String msg) {
+    return 0;
+  }
+
+  public static int w(String tag, String msg) {
+    return 0;
+  }
+
+  public static int w(String tag, String msg, Throwable tr) {
+    return 0;
+  }
+
+  public static int e(String tag, String msg) {
+    return 0;
+  }
+
+  public static int e(String tag, String msg, Throwable tr) {
+    return 0;
+  }
+}
@@ -15,11 +15,15 @@
 package com.google.android.glass.sample.compass;
 
 import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightHistory;
 import com.google.android.glass.sample.compass.model.FlightManager;
+import com.google.android.glass.sample.compass.util.AllocationTracker;
 
 import android.content.Context;
 import android.graphics.Canvas;
 import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -31,6 +35,7 @@ import android.widget.TextView;
 
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The surface callback that provides the rendering logic for the compass live card. This callback
@@ -39,7 +44,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class CompassRenderer implements SurfaceHolder.Callback {
 
-  private static final int REFRESH_FLIGHTS_INTERVAL = 30;
+  /** The default time, in milliseconds, between two flight refreshes by the render thread. */
+  private static final long DEFAULT_FLIGHTS_REFRESH_INTERVAL_MILLIS = 30000;
   private static final String TAG = CompassRenderer.class.getSimpleName();
 
   /**
@@ -54,9 +60,17 @@ public class CompassRenderer implements SurfaceHolder.Callback {
   /** The duration, in milliseconds, of one frame. */
   private static final long FRAME_TIME_MILLIS = TimeUnit.SECONDS.toMillis(1) / REFRESH_RATE_FPS;
 
+  /**
+   * How long after it is drawn a frame is expected to reach the display, in nanoseconds. The
+   * heading is predicted for that moment rather than for when the frame is drawn.
+   */
+  private static final long DISPLAY_LATENCY_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(FRAME_TIME_MILLIS);
+
+  /** The number of frames over which heading error is averaged when debug logging is on. */
+  private static final int ERROR_LOG_FRAMES = 150;
+
   private SurfaceHolder mHolder;
-  private boolean mTooSteep;
-  private boolean mInterference;
   private RenderThread mRenderThread;
   private int mSurfaceWidth;
   private int mSurfaceHeight;
@@ -67,34 +81,52 @@ public class CompassRenderer implements SurfaceHolder.Callback {
   private final TextView mTipsView;
   private final OrientationManager mOrientationManager;
   private final FlightManager mFlights;
+  private final Handler mMainHandler;
+  private volatile long mFlightsRefreshIntervalMillis = DEFAULT_FLIGHTS_REFRESH_INTERVAL_MILLIS;
+
+  /**
+   * The latest state published by the sensor, location, and flight callbacks. Producers swap in a
+   * new immutable {@link RenderState}; the render thread reads it once per frame, so the frame
+   * loop never contends for a monitor.
+   */
+  private final AtomicReference<RenderState> mState =
+      new AtomicReference<RenderState>(RenderState.EMPTY);
+
+  /**
+   * The tip flags last applied by the render thread. They are only written on the render thread
+   * and only read by {@link #mUpdateTipsRunnable}, which is posted after they change.
+   */
+  private boolean mTooSteep;
+  private boolean mInterference;
+
+  private final Runnable mUpdateTipsRunnable = new Runnable() {
+    @Override
+    public void run() {
+      updateTipsView();
+    }
+  };
 
   private final OrientationManager.OnChangedListener mCompassListener =
       new OrientationManager.OnChangedListener() {
 
         @Override
         public void onOrientationChanged(OrientationManager orientationManager) {
-          mCompassView.setHeading(orientationManager.getHeading());
-
-          boolean oldTooSteep = mTooSteep;
-          mTooSteep = (Math.abs(orientationManager.getPitch()) > TOO_STEEP_PITCH_DEGREES);
-          if (mTooSteep != oldTooSteep) {
-            updateTipsView();
-          }
+          publishOrientation(orientationManager.getHeading(),
+              orientationManager.getHeadingTimeNanos(), orientationManager.getPitch());
         }
 
         @Override
         public void onLocationChanged(OrientationManager orientationManager) {
           Location location = orientationManager.getLocation();
+          publishLocation(location);
           mFlights.setLocation(location.getLatitude(), location.getLongitude());
           mFlights.refreshFlights();
-          List<Flight> places = mFlights.getFlights();
-          mCompassView.setFlights(places);
+          publishFlights(mFlights.getFlights(), mFlights.getHistory());
         }
 
         @Override
         public void onAccuracyChanged(OrientationManager orientationManager) {
-          mInterference = orientationManager.hasInterference();
-          updateTipsView();
+          publishInterference(orientationManager.hasInterference());
         }
       };
 
@@ -113,8 +145,15 @@ public class CompassRenderer implements SurfaceHolder.Callback {
 
     mOrientationManager = orientationManager;
     mFlights = landmarks;
+    mMainHandler = new Handler(Looper.getMainLooper());
+  }
 
-    mCompassView.setOrientationManager(mOrientationManager);
+  /**
+   * Sets how often the render thread refreshes the flights, e.g. more often than the default when
+   * a local receiver keeps them fresh without any network traffic.
+   */
+  public void setFlightsRefreshInterval(long millis) {
+    mFlightsRefreshIntervalMillis = millis;
   }
 
   @Override
@@ -133,10 +172,10 @@ public class CompassRenderer implements SurfaceHolder.Callback {
 
     if (mOrientationManager.hasLocation()) {
       Location location = mOrientationManager.getLocation();
+      publishLocation(location);
       mFlights.setLocation(location.getLatitude(), location.getLongitude());
       mFlights.refreshFlights();
-      List<Flight> flights = mFlights.getFlights();
-      mCompassView.setFlights(flights);
+      publishFlights(mFlights.getFlights(), mFlights.getHistory());
     }
 
     mRenderThread = new RenderThread();
@@ -167,9 +206,68 @@ public class CompassRenderer implements SurfaceHolder.Callback {
   }
 
   /**
-   * Repaints the compass.
+   * Publishes a new heading and pitch for the render thread to pick up.
+   */
+  private void publishOrientation(float heading, long headingTimeNanos, float pitch) {
+    RenderState current;
+    do {
+      current = mState.get();
+    } while (!mState.compareAndSet(current,
+        current.withOrientation(heading, headingTimeNanos, pitch)));
+  }
+
+  /**
+   * Publishes a new magnetic interference flag for the render thread to pick up.
+   */
+  private void publishInterference(boolean interference) {
+    RenderState current;
+    do {
+      current = mState.get();
+    } while (!mState.compareAndSet(current, current.withInterference(interference)));
+  }
+
+  /**
+   * Publishes a new user location for the render thread to pick up.
+   */
+  private void publishLocation(Location location) {
+    RenderState current;
+    do {
+      current = mState.get();
+    } while (!mState.compareAndSet(current, current.withLocation(location)));
+  }
+
+  /**
+   * Publishes a new flight snapshot, and the history it was recorded into, for the render thread to
+   * pick up.
+   */
+  private void publishFlights(List<Flight> flights, FlightHistory history) {
+    RenderState current;
+    do {
+      current = mState.get();
+    } while (!mState.compareAndSet(current, current.withFlights(flights, history)));
+  }
+
+  /**
+   * Applies a newly published state on the render thread. The tips view is updated on the main
+   * thread, and only when one of its flags actually changes.
+   * 
+   * @param state the state to apply
+   */
+  private void applyState(RenderState state) {
+    mCompassView.setRenderState(state);
+
+    boolean tooSteep = (Math.abs(state.pitch) > TOO_STEEP_PITCH_DEGREES);
+    if (tooSteep != mTooSteep || state.interference != mInterference) {
+      mTooSteep = tooSteep;
+      mInterference = state.interference;
+      mMainHandler.post(mUpdateTipsRunnable);
+    }
+  }
+
+  /**
+   * Repaints the compass. This is only ever called from the render thread.
    */
-  private synchronized void repaint() {
+  private void repaint() {
     Canvas canvas = null;
 
     try {
@@ -221,7 +319,7 @@ public class CompassRenderer implements SurfaceHolder.Callback {
    * Redraws the compass in the background.
    */
   private class RenderThread extends Thread {
-    private boolean mShouldRun;
+    private volatile boolean mShouldRun;
 
     /**
      * Initializes the background rendering thread.
@@ -235,27 +333,57 @@ public class CompassRenderer implements SurfaceHolder.Callback {
      * 
      * @return true if the rendering thread should continue to run
      */
-    private synchronized boolean shouldRun() {
+    private boolean shouldRun() {
       return mShouldRun;
     }
 
     /**
      * Requests that the rendering thread exit at the next opportunity.
      */
-    public synchronized void quit() {
+    public void quit() {
       mShouldRun = false;
     }
 
     @Override
     public void run() {
       long lastFlightsRefresh = SystemClock.elapsedRealtime();
+      RenderState appliedState = null;
+      boolean logErrors = Log.isLoggable(TAG, Log.DEBUG);
+      int errorFrames = 0;
       while (shouldRun()) {
         long currentTime = SystemClock.elapsedRealtime();
-        if ((currentTime - lastFlightsRefresh) / 1000.0 > REFRESH_FLIGHTS_INTERVAL) {
+        if (currentTime - lastFlightsRefresh > mFlightsRefreshIntervalMillis) {
           mFlights.refreshFlights();
+          publishFlights(mFlights.getFlights(), mFlights.getHistory());
           lastFlightsRefresh = currentTime;
         }
+
+        // Fold whatever sensor samples arrived since the last frame into one orientation
+        // update, then pick up the latest published state exactly once per frame.
+        long allocations = AllocationTracker.start();
+        mOrientationManager.updateOrientation();
+        RenderState state = mState.get();
+        if (state != appliedState) {
+          applyState(state);
+          appliedState = state;
+        }
+        long displayTimeNanos = SystemClock.elapsedRealtimeNanos() + DISPLAY_LATENCY_NANOS;
+        mCompassView.predictHeading(displayTimeNanos);
         repaint();
+        AllocationTracker.stop(AllocationTracker.FRAME, allocations);
+
+        // Compare the drawn headings with those measured at their display times, and with what
+        // drawing the newest sample would have shown, to see what the prediction gains.
+        if (logErrors && ++errorFrames == ERROR_LOG_FRAMES) {
+          HeadingFilter filter = mCompassView.getHeadingFilter();
+          if (filter.getErrorCount() > 0) {
+            Log.d(TAG, String.format("Mean heading error at display over %d frames: "
+                + "%.2f degrees predicted, %.2f degrees unpredicted", filter.getErrorCount(),
+                filter.getMeanPredictionError(), filter.getMeanHeldError()));
+          }
+          filter.resetErrors();
+          errorFrames = 0;
+        }
         long frameLength = SystemClock.elapsedRealtime() - currentTime;
 
         long sleepTime = FRAME_TIME_MILLIS - frameLength;
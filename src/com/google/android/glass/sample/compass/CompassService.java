@@ -23,12 +23,34 @@ import android.hardware.SensorManager;
 import android.location.LocationManager;
 import android.os.Binder;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
+import android.util.Log;
 
+import com.google.android.glass.sample.compass.model.AircraftStateTable;
+import com.google.android.glass.sample.compass.model.FanOutFlightSource;
+import com.google.android.glass.sample.compass.model.FlightFilter;
 import com.google.android.glass.sample.compass.model.FlightManager;
+import com.google.android.glass.sample.compass.model.FlightRetrieval;
+import com.google.android.glass.sample.compass.model.FlightSnapshotWriter;
+import com.google.android.glass.sample.compass.model.FlightSource;
+import com.google.android.glass.sample.compass.model.ModeSDecoder;
+import com.google.android.glass.sample.compass.model.ReceiverClient;
+import com.google.android.glass.sample.compass.model.ReceiverDecoder;
+import com.google.android.glass.sample.compass.model.ReceiverFlightSource;
+import com.google.android.glass.sample.compass.model.SbsDecoder;
+import com.google.android.glass.sample.compass.model.TieredFlightSource;
+import com.google.android.glass.sample.compass.util.AllocationTracker;
+import com.google.android.glass.sample.compass.util.EventLog;
 import com.google.android.glass.sample.compass.util.MathUtils;
 import com.google.android.glass.timeline.LiveCard;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 /**
  * The main application service that manages the lifetime of the compass live card and the objects
  * that help out with orientation tracking and landmarks.
@@ -36,6 +58,33 @@ import com.google.android.glass.timeline.LiveCard;
 public class CompassService extends Service {
 
   private static final String LIVE_CARD_ID = "aircraft_detector";
+  private static final String TAG = CompassService.class.getSimpleName();
+
+  /**
+   * Allocation tracking starts with the service when this tag is loggable at debug level, e.g.
+   * after "adb shell setprop log.tag.CompassAllocations DEBUG". The statistics are in
+   * "adb shell dumpsys activity service CompassService", and in the log when the service stops.
+   */
+  private static final String ALLOCATIONS_TAG = "CompassAllocations";
+
+  /**
+   * How often flights are refreshed while a local receiver is configured. Refreshes then mostly
+   * read the receiver's in-memory state; planefinder is still polled at its usual interval.
+   */
+  private static final long RECEIVER_REFRESH_INTERVAL_MILLIS = 500;
+
+  /**
+   * How often flights are refreshed while planefinder is polled in tiers. The tiers are polled in
+   * the background at their own periods, and a refresh only merges their last results, so a new
+   * result is shown within this long of arriving.
+   */
+  private static final long TIERS_REFRESH_INTERVAL_MILLIS = 1000;
+
+  /** How long a query of the receiver's flights may take before it is logged as late. */
+  private static final long RECEIVER_TIMEOUT_MILLIS = 100;
+
+  /** How long a planefinder query may take before it is logged as late. */
+  private static final long REMOTE_TIMEOUT_MILLIS = 10000;
 
   /**
    * A binder that gives other components access to the speech capabilities provided by the service.
@@ -66,6 +115,67 @@ public class CompassService extends Service {
     public void refreshFlights() {
       mFlightManager.refreshFlights();
     }
+
+    /**
+     * Gets the generation of the last flight snapshot exported through
+     * {@link FlightSnapshotProvider}, which increases with every refresh.
+     *
+     * @return the generation, or -1 if snapshots are not being exported
+     */
+    public long getFlightSnapshotGeneration() {
+      FlightSnapshotWriter writer = mSnapshotWriter;
+      return writer != null ? writer.getGeneration() : -1;
+    }
+
+    /**
+     * Starts recording sensor and location input to a new trace file in the app's files
+     * directory, replacing any recording in progress.
+     *
+     * @return the trace file, or {@code null} if it could not be created
+     */
+    public File startTraceRecording() {
+      stopTraceRecording();
+      File file = new File(getFilesDir(), "trace-" + System.currentTimeMillis() + ".bin");
+      try {
+        mTraceRecorder = new TraceRecorder(file, SystemClock.elapsedRealtimeNanos());
+      } catch (IOException e) {
+        Log.e(TAG, "Could not start trace recording", e);
+        return null;
+      }
+      mOrientationManager.setTraceRecorder(mTraceRecorder);
+      return file;
+    }
+
+    /**
+     * Turns allocation tracking on or off; see {@link AllocationTracker}.
+     */
+    public void setAllocationTracking(boolean enabled) {
+      AllocationTracker.setEnabled(enabled);
+    }
+
+    /**
+     * Gets the allocation statistics of each stage, as also shown by dumpsys.
+     */
+    public String getAllocationReport() {
+      StringWriter report = new StringWriter();
+      AllocationTracker.dump(new PrintWriter(report));
+      return report.toString();
+    }
+
+    /**
+     * Stops the trace recording in progress, if any.
+     */
+    public void stopTraceRecording() {
+      if (mTraceRecorder != null) {
+        mOrientationManager.setTraceRecorder(null);
+        try {
+          mTraceRecorder.close();
+        } catch (IOException e) {
+          Log.e(TAG, "Could not finish trace recording", e);
+        }
+        mTraceRecorder = null;
+      }
+    }
   }
 
   private final CompassBinder mBinder = new CompassBinder();
@@ -73,6 +183,13 @@ public class CompassService extends Service {
   private OrientationManager mOrientationManager;
   private FlightManager mFlightManager;
   private TextToSpeech mSpeech;
+  private TraceRecorder mTraceRecorder;
+  private FlightSnapshotWriter mSnapshotWriter;
+  private ReceiverClient mReceiverClient;
+  private FanOutFlightSource mFlightSources;
+
+  /** How often the renderer refreshes flights, or 0 for its default. */
+  private long mFlightsRefreshIntervalMillis;
 
   private LiveCard mLiveCard;
   private CompassRenderer mRenderer;
@@ -85,6 +202,10 @@ public class CompassService extends Service {
   public void onCreate() {
     super.onCreate();
 
+    if (Log.isLoggable(ALLOCATIONS_TAG, Log.DEBUG)) {
+      AllocationTracker.setEnabled(true);
+    }
+
     // Even though the text-to-speech engine is only used in response to a menu action, we
     // initialize it when the application starts so that we avoid delays that could occur
     // if we waited until it was needed to start it up.
@@ -99,7 +220,122 @@ public class CompassService extends Service {
     LocationManager locationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
 
     mOrientationManager = new OrientationManager(sensorManager, locationManager);
+    FlightRetrieval.setEndpoint(getString(R.string.flight_endpoint));
+    try {
+      FlightRetrieval.setFilter(FlightFilter.parse(getString(R.string.flight_filter)));
+    } catch (IllegalArgumentException e) {
+      Log.e(TAG, "Ignoring the flight filter", e);
+    }
     mFlightManager = new FlightManager(this);
+    startSnapshotExport();
+    FlightSource remote = startPollingTiers(getString(R.string.polling_tiers));
+    startReceiverFeed(remote, getString(R.string.receiver_address),
+        getString(R.string.receiver_format));
+  }
+
+  /**
+   * Polls planefinder in concentric tiers, if any are configured, on a background thread, and
+   * requests flights as far out as the outermost tier. Refreshes only pick up the tiers' merged
+   * result, so the render thread never waits for planefinder.
+   *
+   * @param spec the tiers, as parsed by {@link TieredFlightSource#parse}, or empty for none
+   * @return the source that polls planefinder
+   */
+  private FlightSource startPollingTiers(String spec) {
+    TieredFlightSource tiers;
+    try {
+      tiers = TieredFlightSource.parse(FlightRetrieval.PLANEFINDER, spec);
+    } catch (IllegalArgumentException e) {
+      Log.e(TAG, "Ignoring the polling tiers", e);
+      tiers = null;
+    }
+    if (tiers == null) {
+      return FlightRetrieval.PLANEFINDER;
+    }
+    // The tiers decide themselves which of them are due, so hand them every refresh.
+    mFlightSources = new FanOutFlightSource();
+    mFlightSources.addSource(tiers, REMOTE_TIMEOUT_MILLIS);
+    mFlightManager.setFlightSource(mFlightSources);
+    mFlightManager.setMinRefreshInterval(TIERS_REFRESH_INTERVAL_MILLIS);
+    mFlightManager.setMaxDistance(tiers.getMaxRadiusKm());
+    mFlightsRefreshIntervalMillis = TIERS_REFRESH_INTERVAL_MILLIS;
+    return tiers;
+  }
+
+  /**
+   * Exports every flight snapshot to other apps through {@link FlightSnapshotProvider}, notifying
+   * its observers after each one.
+   */
+  private void startSnapshotExport() {
+    try {
+      mSnapshotWriter = new FlightSnapshotWriter(FlightSnapshotProvider.getSnapshotFile(this),
+          FlightSnapshotWriter.DEFAULT_CAPACITY, new Runnable() {
+            @Override
+            public void run() {
+              getContentResolver().notifyChange(FlightSnapshotProvider.CONTENT_URI, null);
+            }
+          });
+    } catch (IOException e) {
+      Log.e(TAG, "Could not export flight snapshots", e);
+      return;
+    }
+    mFlightManager.setSnapshotWriter(mSnapshotWriter);
+  }
+
+  /**
+   * Streams flights from a local ADS-B receiver alongside planefinder, if one is configured.
+   *
+   * @param remote the source that polls planefinder, merged in unless the polling tiers already are
+   * @param address "host" or "host:port" of the receiver, or empty for none
+   * @param format the receiver's feed format: "sbs", "beast", or "avr"
+   */
+  private void startReceiverFeed(FlightSource remote, String address, String format) {
+    if (address.length() == 0) {
+      return;
+    }
+    AircraftStateTable table = new AircraftStateTable();
+    ReceiverDecoder decoder;
+    int port;
+    if (format.equals("sbs")) {
+      decoder = new SbsDecoder(table);
+      port = ReceiverClient.SBS_PORT;
+    } else if (format.equals("beast")) {
+      decoder = new ModeSDecoder(table, ModeSDecoder.FORMAT_BEAST);
+      port = ReceiverClient.BEAST_PORT;
+    } else if (format.equals("avr")) {
+      decoder = new ModeSDecoder(table, ModeSDecoder.FORMAT_AVR);
+      port = ReceiverClient.AVR_PORT;
+    } else {
+      Log.e(TAG, "Ignoring the receiver, whose format " + format + " is unknown");
+      return;
+    }
+    int colon = address.lastIndexOf(':');
+    String host = colon < 0 ? address : address.substring(0, colon);
+    if (colon >= 0) {
+      try {
+        port = Integer.parseInt(address.substring(colon + 1));
+      } catch (NumberFormatException e) {
+        Log.e(TAG, "Ignoring the receiver address " + address, e);
+        return;
+      }
+    }
+
+    ReceiverFlightSource receiver = new ReceiverFlightSource();
+    mReceiverClient = new ReceiverClient(host, port, table, decoder, receiver,
+        ReceiverFlightSource.DEFAULT_MAX_AGE_MILLIS);
+    mReceiverClient.start();
+
+    // Refreshes never wait for either source: planefinder's flights are merged in whenever they
+    // arrive, so a slow response doesn't hold up the receiver's. Polling tiers are already there.
+    if (mFlightSources == null) {
+      mFlightSources = new FanOutFlightSource();
+      mFlightSources.addSource(remote, REMOTE_TIMEOUT_MILLIS,
+          FlightManager.DEFAULT_MIN_REFRESH_INTERVAL_MILLIS);
+    }
+    mFlightSources.addSource(receiver, RECEIVER_TIMEOUT_MILLIS);
+    mFlightManager.setFlightSource(mFlightSources);
+    mFlightManager.setMinRefreshInterval(RECEIVER_REFRESH_INTERVAL_MILLIS);
+    mFlightsRefreshIntervalMillis = RECEIVER_REFRESH_INTERVAL_MILLIS;
   }
 
   @Override
@@ -112,6 +348,9 @@ public class CompassService extends Service {
     if (mLiveCard == null) {
       mLiveCard = new LiveCard(this, LIVE_CARD_ID);
       mRenderer = new CompassRenderer(this, mOrientationManager, mFlightManager);
+      if (mFlightsRefreshIntervalMillis > 0) {
+        mRenderer.setFlightsRefreshInterval(mFlightsRefreshIntervalMillis);
+      }
       mLiveCard.setDirectRenderingEnabled(true).getSurfaceHolder().addCallback(mRenderer);
 
       // Display the options menu when the live card is tapped.
@@ -125,6 +364,13 @@ public class CompassService extends Service {
     return START_STICKY;
   }
 
+  @Override
+  protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+    AllocationTracker.dump(writer);
+    writer.println();
+    EventLog.dump(writer);
+  }
+
   @Override
   public void onDestroy() {
     if (mLiveCard != null && mLiveCard.isPublished()) {
@@ -133,7 +379,29 @@ public class CompassService extends Service {
       mLiveCard = null;
     }
 
+    mBinder.stopTraceRecording();
+    if (AllocationTracker.isEnabled()) {
+      Log.d(ALLOCATIONS_TAG, mBinder.getAllocationReport());
+      AllocationTracker.setEnabled(false);
+    }
     mSpeech.shutdown();
+    if (mReceiverClient != null) {
+      mReceiverClient.stop();
+      mReceiverClient = null;
+    }
+    if (mFlightSources != null) {
+      mFlightSources.shutdown();
+      mFlightSources = null;
+    }
+    if (mSnapshotWriter != null) {
+      mFlightManager.setSnapshotWriter(null);
+      try {
+        mSnapshotWriter.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Could not close the flight snapshot", e);
+      }
+      mSnapshotWriter = null;
+    }
 
     mSpeech = null;
     mOrientationManager = null;
@@ -16,12 +16,9 @@ package com.google.android.glass.sample.compass;
 
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
-import android.animation.Animator;
-import android.animation.AnimatorListenerAdapter;
-import android.animation.ValueAnimator;
-import android.animation.ValueAnimator.AnimatorUpdateListener;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -35,9 +32,10 @@ import android.location.Location;
 import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.view.View;
-import android.view.animation.LinearInterpolator;
 
 import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightHistory;
+import com.google.android.glass.sample.compass.util.AllocationTracker;
 import com.google.android.glass.sample.compass.util.MathUtils;
 
 /**
@@ -58,6 +56,12 @@ public class CompassView extends View {
   private static final float PLACE_TEXT_LEADING = 4.0f;
   private static final float PLACE_TEXT_MARGIN = 8.0f;
 
+  /**
+   * The climb or descent rate, in feet per minute, beyond which a flight's label shows an arrow
+   * for it; slower changes are taken as level flight.
+   */
+  private static final float TREND_FEET_PER_MINUTE = 300;
+
   /**
    * The maximum number of places names to allow to stack vertically underneath the compass
    * direction labels.
@@ -65,35 +69,91 @@ public class CompassView extends View {
   private static final int MAX_OVERLAPPING_PLACE_NAMES = 4;
 
   /**
-   * If the difference between two consecutive headings is less than this value, the canvas will be
-   * redrawn immediately rather than animated.
+   * With level of detail on, flights farther than this are drawn as markers even if they were
+   * selected for a label.
    */
-  private static final float MIN_DISTANCE_TO_ANIMATE = 15.0f;
+  private static final float DETAIL_DISTANCE_KM = 25.0f;
+
+  /** The radius of the marker drawn for a flight without a label, and of a cluster glyph. */
+  private static final float MARKER_RADIUS = 3.0f;
+  private static final float CLUSTER_RADIUS = FLIGHT_ICON_WIDTH / 2 - TICK_WIDTH;
+
+  /** The number of measured flight labels to keep cached. */
+  private static final int MAX_CACHED_PLACE_LABELS = 256;
 
   /** The actual heading that represents the direction that the user is facing. */
   private float mHeading;
 
+  /** The time of the last heading sample that was fed to {@link #mHeadingFilter}. */
+  private long mHeadingTimeNanos;
+
   /**
-   * Represents the heading that is currently being displayed when the view is drawn. This is used
-   * during animations, to keep track of the heading that should be drawn on the current frame,
-   * which may be different than the desired end point.
+   * Represents the heading that is currently being displayed when the view is drawn. This is the
+   * heading predicted for the moment the current frame reaches the display, which may be different
+   * than the last measured heading.
    */
   private float mAnimatedHeading;
 
-  private OrientationManager mOrientation;
+  private final HeadingFilter mHeadingFilter;
+
+  /**
+   * The user's location, the flights to draw, and their recent positions, taken from the current
+   * {@link RenderState}.
+   */
+  private Location mLocation;
   private List<Flight> mFlights;
+  private FlightHistory mHistory;
+
+  /**
+   * The flights chosen from {@link #mFlights} by {@link #mSelector}, most relevant first, and the
+   * bearing to and label text of each. These only change when the flights or the user's location
+   * do, so they are computed then rather than every frame.
+   */
+  private final FlightSelector mSelector;
+  private Flight[] mSelectedFlights;
+  private int mSelectedCount;
+  private float[] mFlightBearings;
+  private String[] mFlightLabels;
+
+  /** The bearing to and distance of every flight, reused from one selection to the next. */
+  private float[] mAllBearings;
+  private float[] mAllDistancesKm;
+
+  /**
+   * Whether to draw at the level of detail that dense traffic allows: flights packed into a narrow
+   * range of bearings as one cluster glyph with a count, and distant or unselected flights as
+   * small markers without text, rather than leaving them out.
+   */
+  private boolean mLevelOfDetail;
+  private final FlightClusters mClusters;
+  private int mClusterCount;
+  private String[] mClusterLabels;
+
+  /**
+   * The number of markers to draw in each whole degree of bearing; markers in the same degree are
+   * drawn as one, so drawing them takes the same time however many flights there are.
+   */
+  private final int[] mMarkerCounts = new int[360];
+
+  /** Whether each flight in {@link #mFlights} got a label or cluster, reused between updates. */
+  private boolean[] mDrawnInDetail;
+
+  /** How many flight labels the last frame drew, and how many it dropped for lack of room. */
+  private int mLabelsPlaced;
+  private int mLabelsDropped;
 
   private final Paint mPaint;
   private final Paint mTickPaint;
+  private final Paint mMarkerPaint;
   private final Path mPath;
   private final TextPaint mPlacePaint;
   private final Bitmap mBitmapCessna;
   private final Bitmap mBitmapAirbus320;
-  private final Rect mTextBounds;
+  private final TextMetricsCache mDirectionMetrics;
+  private final TextMetricsCache mPlaceMetrics;
   private final List<Rect> mAllBounds;
   private final NumberFormat mDistanceFormat;
   private final String[] mDirections;
-  private final ValueAnimator mAnimator;
   private Bitmap mBitmapAirbus380;
   private Bitmap mBitmapAirbus340;
   private Bitmap mBitmapAirbus330;
@@ -132,6 +192,12 @@ public class CompassView extends View {
     mTickPaint.setAntiAlias(true);
     mTickPaint.setColor(Color.WHITE);
 
+    mMarkerPaint = new Paint();
+    mMarkerPaint.setStyle(Paint.Style.FILL);
+    mMarkerPaint.setAntiAlias(true);
+    mMarkerPaint.setColor(Color.WHITE);
+    mMarkerPaint.setAlpha(160);
+
     mPlacePaint = new TextPaint();
     mPlacePaint.setStyle(Paint.Style.FILL);
     mPlacePaint.setAntiAlias(true);
@@ -140,7 +206,6 @@ public class CompassView extends View {
     mPlacePaint.setTypeface(Typeface.create("sans-serif-light", Typeface.NORMAL));
     
     mPath = new Path();
-    mTextBounds = new Rect();
     mAllBounds = new ArrayList<Rect>();
 
     mDistanceFormat = NumberFormat.getNumberInstance();
@@ -164,54 +229,202 @@ public class CompassView extends View {
     mBitmapE195= BitmapFactory.decodeResource(context.getResources(), R.drawable.e195);
     mBitmapERJ = BitmapFactory.decodeResource(context.getResources(), R.drawable.erj);
     
-    // We use NaN to indicate that the compass is being drawn for the first
-    // time, so that we can jump directly to the starting orientation
-    // instead of spinning from a default value of 0.
+    // We use NaN to indicate that no heading has been measured yet.
     mAnimatedHeading = Float.NaN;
+    mHeadingFilter = new HeadingFilter();
 
     mDirections = context.getResources().getStringArray(R.array.direction_abbreviations);
-
-    mAnimator = new ValueAnimator();
-    setupAnimator();
+    mDirectionMetrics = new TextMetricsCache(mPaint, mDirections.length);
+    mPlaceMetrics = new TextMetricsCache(mPlacePaint, MAX_CACHED_PLACE_LABELS);
+    mSelector = new FlightSelector(context.getResources().getInteger(
+        R.integer.max_flights_per_sector));
+    mSelectedFlights = new Flight[0];
+    mFlightBearings = new float[0];
+    mFlightLabels = new String[0];
+    mAllBearings = new float[0];
+    mAllDistancesKm = new float[0];
+    mLevelOfDetail = context.getResources().getBoolean(R.bool.level_of_detail);
+    mClusters = new FlightClusters();
+    mClusterLabels = new String[0];
+    mDrawnInDetail = new boolean[0];
   }
 
   /**
-   * Sets the instance of {@link OrientationManager} that this view will use to get the current
-   * heading and location.
+   * Gets the current heading in degrees.
    * 
-   * @param orientationManager the instance of {@code OrientationManager} that this view will use
+   * @return the current heading.
    */
-  public void setOrientationManager(OrientationManager orientationManager) {
-    mOrientation = orientationManager;
+  public float getHeading() {
+    return mHeading;
   }
 
   /**
-   * Gets the current heading in degrees.
+   * Sets the number of flights to lay out and draw per {@link FlightSelector#SECTOR_DEGREES} of
+   * bearing, the most relevant ones, or 0 to draw every flight. This must be called on the thread
+   * that draws the view.
+   */
+  void setMaxFlightsPerSector(int maxFlights) {
+    mSelector.setMaxPerSector(maxFlights);
+    updateFlightLabels();
+  }
+
+  /**
+   * Turns level of detail on or off: with it on, clusters and markers stand in for the flights
+   * that would not get a label of their own. This must be called on the thread that draws the
+   * view.
+   */
+  void setLevelOfDetail(boolean enabled) {
+    mLevelOfDetail = enabled;
+    updateFlightLabels();
+  }
+
+  /**
+   * Sets the heading, location, and flights to draw from the specified state. This must be called
+   * on the thread that draws the view.
    * 
-   * @return the current heading.
+   * @param state the render state picked up for the current frame
    */
-  public float getHeading() {
-    return mHeading;
+  void setRenderState(RenderState state) {
+    if (state.headingTimeNanos != mHeadingTimeNanos) {
+      mHeading = MathUtils.mod(state.heading, 360.0f);
+      mHeadingTimeNanos = state.headingTimeNanos;
+      mHeadingFilter.addSample(mHeading, mHeadingTimeNanos);
+    }
+    if (state.location != mLocation || state.flights != mFlights || state.history != mHistory) {
+      mLocation = state.location;
+      mFlights = state.flights;
+      mHistory = state.history;
+      updateFlightLabels();
+    }
+  }
+
+  /**
+   * Reselects the flights to draw, and recomputes their bearings and label text, after the flights
+   * or the user's location change. Only the selected flights get a label, which shows whether the
+   * flight is climbing or descending if its history says so; with level of detail on, the clusters
+   * and markers that stand in for the rest are recomputed too.
+   */
+  private void updateFlightLabels() {
+    if (mLocation == null || mFlights == null) {
+      return;
+    }
+
+    long allocations = AllocationTracker.start();
+    double userLat = mLocation.getLatitude();
+    double userLon = mLocation.getLongitude();
+    int count = mFlights.size();
+    if (mAllBearings.length < count) {
+      mAllBearings = new float[count];
+      mAllDistancesKm = new float[count];
+    }
+    for (int i = 0; i < count; i++) {
+      Flight flight = mFlights.get(i);
+      mAllBearings[i] = MathUtils.getBearing(userLat, userLon, flight.latitude, flight.longitude);
+      mAllDistancesKm[i] =
+          (float) MathUtils.getDistance(userLat, userLon, flight.latitude, flight.longitude);
+    }
+
+    mClusterCount = mLevelOfDetail ? mClusters.cluster(mAllBearings, count) : 0;
+    mClusterLabels = new String[mClusterCount];
+    for (int i = 0; i < mClusterCount; i++) {
+      mClusterLabels[i] = getContext().getResources().getString(R.string.cluster_text_format,
+          mClusters.getSize(i));
+    }
+    if (mDrawnInDetail.length < count) {
+      mDrawnInDetail = new boolean[count];
+    }
+    for (int i = 0; i < count; i++) {
+      mDrawnInDetail[i] = mClusterCount > 0 && mClusters.isClustered(i);
+    }
+
+    int selected = mSelector.select(mFlights, mAllBearings, mAllDistancesKm);
+    int[] selection = mSelector.getSelection();
+    mSelectedFlights = new Flight[selected];
+    mFlightBearings = new float[selected];
+    mFlightLabels = new String[selected];
+    mSelectedCount = 0;
+    for (int i = 0; i < selected; i++) {
+      int index = selection[i];
+      if (mDrawnInDetail[index]
+          || (mLevelOfDetail && mAllDistancesKm[index] > DETAIL_DISTANCE_KM)) {
+        continue;
+      }
+      mDrawnInDetail[index] = true;
+      Flight flight = mFlights.get(index);
+      mSelectedFlights[mSelectedCount] = flight;
+      mFlightBearings[mSelectedCount] = mAllBearings[index];
+      mFlightLabels[mSelectedCount] = getContext().getResources().getString(
+          getLabelFormat(flight), flight.flightNumber,
+          mDistanceFormat.format(mAllDistancesKm[index]));
+      mSelectedCount++;
+    }
+
+    Arrays.fill(mMarkerCounts, 0);
+    if (mLevelOfDetail) {
+      for (int i = 0; i < count; i++) {
+        if (!mDrawnInDetail[i]) {
+          mMarkerCounts[Math.min((int) mAllBearings[i], 359)]++;
+        }
+      }
+    }
+    AllocationTracker.stop(AllocationTracker.FRAME_LABELS, allocations);
+  }
+
+  /**
+   * Gets the label format for a flight, with an arrow if its history shows it climbing or
+   * descending.
+   */
+  private int getLabelFormat(Flight flight) {
+    float rate = mHistory != null ? mHistory.getVerticalRate(flight.identification) : Float.NaN;
+    if (rate > TREND_FEET_PER_MINUTE) {
+      return R.string.place_climbing_text_format;
+    } else if (rate < -TREND_FEET_PER_MINUTE) {
+      return R.string.place_descending_text_format;
+    }
+    return R.string.place_text_format;
   }
 
   /**
-   * Sets the current heading in degrees and redraws the compass. If the angle is not between 0 and
-   * 360, it is shifted to be in that range.
+   * Updates the heading that will be drawn to the one predicted for the specified display time.
+   * This must be called on the thread that draws the view, before each frame.
    * 
-   * @param degrees the current heading
+   * @param displayTimeNanos the {@link android.os.SystemClock#elapsedRealtimeNanos()} time at
+   *        which the next frame is expected to reach the display
+   */
+  void predictHeading(long displayTimeNanos) {
+    mAnimatedHeading = mHeadingFilter.predict(displayTimeNanos);
+  }
+
+  /**
+   * @return the filter behind {@link #predictHeading}, for reporting how well it predicts; only
+   *         for use on the thread that draws the view
+   */
+  HeadingFilter getHeadingFilter() {
+    return mHeadingFilter;
+  }
+
+  /**
+   * @return the number of flight and cluster labels drawn in the last frame, counting each of the
+   *         three wraparound passes separately
    */
-  public void setHeading(float degrees) {
-    mHeading = MathUtils.mod(degrees, 360.0f);
-    animateTo(mHeading);
+  int getLabelsPlaced() {
+    return mLabelsPlaced;
   }
 
-  public void setFlights(List<Flight> flights) {
-    mFlights = flights;
+  /**
+   * @return the number of flight and cluster labels left out of the last frame because they would
+   *         have overlapped too many others
+   */
+  int getLabelsDropped() {
+    return mLabelsDropped;
   }
 
   @Override
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
+    long allocations = AllocationTracker.start();
+    mLabelsPlaced = 0;
+    mLabelsDropped = 0;
 
     // The view displays 90 degrees across its width so that one 90 degree head rotation is
     // equal to one full view cycle.
@@ -236,6 +449,7 @@ public class CompassView extends View {
     mPaint.setColor(NEEDLE_COLOR);
     drawNeedle(canvas, false);
     drawNeedle(canvas, true);
+    AllocationTracker.stop(AllocationTracker.FRAME_DRAW, allocations);
   }
 
   /**
@@ -255,10 +469,10 @@ public class CompassView extends View {
       if (MathUtils.mod(i, 2) == 0) {
         // Draw a text label for the even indices.
         String direction = mDirections[MathUtils.mod(i, mDirections.length)];
-        mPaint.getTextBounds(direction, 0, direction.length(), mTextBounds);
+        Rect textBounds = mDirectionMetrics.get(direction).bounds;
 
-        canvas.drawText(direction, i * degreesPerTick * pixelsPerDegree - mTextBounds.width() / 2,
-            mTextBounds.height() / 2, mPaint);
+        canvas.drawText(direction, i * degreesPerTick * pixelsPerDegree - textBounds.width() / 2,
+            textBounds.height() / 2, mPaint);
       } else {
         // Draw a tick mark for the odd indices.
         canvas.drawLine(i * degreesPerTick * pixelsPerDegree, -TICK_HEIGHT / 2, i * degreesPerTick
@@ -268,7 +482,8 @@ public class CompassView extends View {
   }
 
   /**
-   * Draws the pins and text labels for the nearby list of places.
+   * Draws the pins and text labels for the nearby list of places, and with level of detail on, the
+   * clusters and markers that stand in for the flights without a label.
    * 
    * @param canvas the {@link Canvas} upon which to draw
    * @param pixelsPerDegree the size, in pixels, of one degree step
@@ -276,112 +491,150 @@ public class CompassView extends View {
    *        direction; used because place names are drawn three times to get proper wraparound
    */
   private void drawFlights(Canvas canvas, float pixelsPerDegree, float offset) {
-    if (mOrientation.hasLocation() && mFlights != null) {
-      synchronized (mFlights) {
-        Location userLocation = mOrientation.getLocation();
-        double userLat = userLocation.getLatitude();
-        double userLon = userLocation.getLongitude();
-
-        mAllBounds.clear();
-
-        // Loop over the list of nearby places (those within 10 km of the user's current
-        // location), and compute the relative bearing from the user's location to the
-        // place's location. This determines the position on the compass view where the
-        // pin will be drawn.
-        for (Flight flight : mFlights) {
-          double flightLat = flight.latitude;
-          double flightLon = flight.longitude;
-          float bearing = MathUtils.getBearing(userLat, userLon, flightLat, flightLon);
-
-          String name = flight.flightNumber;
-          double distanceKm = MathUtils.getDistance(userLat, userLon, flightLat, flightLon);
-          String text =
-              getContext().getResources().getString(R.string.place_text_format, name,
-                  mDistanceFormat.format(distanceKm));
-
-          // Measure the text and offset the text bounds to the location where the text
-          // will finally be drawn.
-          Rect textBounds = new Rect();
-          mPlacePaint.getTextBounds(text, 0, text.length(), textBounds);
-          textBounds.offsetTo(
-              (int) (offset + bearing * pixelsPerDegree + FLIGHT_ICON_WIDTH / 2 + PLACE_TEXT_MARGIN),
-              canvas.getHeight() / 2 - (int) PLACE_TEXT_HEIGHT);
-
-          // Extend the bounds rectangle to include the pin icon and a small margin
-          // to the right of the text, for the overlap calculations below.
-          textBounds.left -= FLIGHT_ICON_WIDTH + PLACE_TEXT_MARGIN;
-          textBounds.right += PLACE_TEXT_MARGIN;
-
-          // This loop attempts to find the best vertical position for the string by
-          // starting at the bottom of the display and checking to see if it overlaps
-          // with any other labels that were already drawn. If there is an overlap, we
-          // move up and check again, repeating this process until we find a vertical
-          // position where there is no overlap, or when we reach the limit on
-          // overlapping place names.
-          boolean intersects;
-          int numberOfTries = 0;
-          do {
-            intersects = false;
-            numberOfTries++;
-            textBounds.offset(0, (int) -(PLACE_TEXT_HEIGHT + PLACE_TEXT_LEADING));
-
-            for (Rect existing : mAllBounds) {
-              if (Rect.intersects(existing, textBounds)) {
-                intersects = true;
-                break;
-              }
-            }
-          } while (intersects && numberOfTries <= MAX_OVERLAPPING_PLACE_NAMES);
-
-          // Only draw the string if it would not go high enough to overlap the compass
-          // directions. This means some places may not be drawn, even if they're nearby.
-          if (numberOfTries <= MAX_OVERLAPPING_PLACE_NAMES) {
-            mAllBounds.add(textBounds);
-            Bitmap planeIcon;
-            String type = flight.type;
-            if (type.startsWith("A32") || type.startsWith("A31")) {
-              planeIcon = mBitmapAirbus320;
-            } else if (type.startsWith("A33") || type.startsWith("A30") || type.startsWith("B75")) {
-              planeIcon = mBitmapAirbus330;
-            } else if (type.startsWith("B73")) {
-              planeIcon = mBitmapBoeing737;
-            } else if (type.startsWith("A34")) {
-              planeIcon = mBitmapAirbus340;
-            } else if (type.startsWith("A38")) {
-              planeIcon = mBitmapAirbus380;
-            } else if (type.startsWith("B74")) {
-              planeIcon = mBitmapBoeing747;
-            } else if (type.startsWith("B76")) {
-              planeIcon = mBitmapBoeing767;
-            } else if (type.startsWith("B77")) {
-              planeIcon = mBitmapBoeing777;
-            } else if (type.startsWith("B78")) {
-              planeIcon = mBitmapBoeing787;
-            } else if (type.startsWith("MD") || type.startsWith("DC")) {
-              planeIcon = mBitmapMD11;
-            } else if (type.startsWith("BE")) {
-              planeIcon = mBitmapBE200C;
-            } else if (type.startsWith("CRJ")) {
-              planeIcon = mBitmapCRJ1000;
-            } else if (type.startsWith("E1")) {
-              planeIcon = mBitmapE195;
-            } else if (type.startsWith("ERJ")) {
-              planeIcon = mBitmapERJ;
-            } else if (type.startsWith("U")) {
-              planeIcon = mBitmapBE200C;
-            } else if (type.startsWith("FA") || type.startsWith("F2") || type.startsWith("GL") || 
-                type.startsWith("LJ") || type.startsWith("C56") || type.startsWith("E5")) {
-              planeIcon = mBitmapBizjet;
-            } else {
-              planeIcon = mBitmapCessna;
-            }
-            canvas.drawBitmap(planeIcon, offset + bearing * pixelsPerDegree - FLIGHT_ICON_WIDTH
-                / 2, textBounds.top + 2, mPaint);
-            canvas.drawText(text, offset + bearing * pixelsPerDegree + FLIGHT_ICON_WIDTH / 2
-                + PLACE_TEXT_MARGIN, textBounds.top + PLACE_TEXT_HEIGHT, mPlacePaint);
+    if (mLocation != null && mFlights != null) {
+      mAllBounds.clear();
+
+      // Clusters are laid out first, so that a whole crowd of flights is not dropped for the sake
+      // of one label nearby.
+      for (int index = 0; index < mClusterCount; index++) {
+        float x = offset + mClusters.getBearing(index) * pixelsPerDegree;
+        String text = mClusterLabels[index];
+        Rect textBounds = placeLabel(canvas, x, text);
+        if (textBounds != null) {
+          canvas.drawCircle(x, textBounds.top + 2 + FLIGHT_ICON_WIDTH / 2, CLUSTER_RADIUS,
+              mTickPaint);
+          canvas.drawText(text, x + FLIGHT_ICON_WIDTH / 2 + PLACE_TEXT_MARGIN,
+              textBounds.top + PLACE_TEXT_HEIGHT, mPlacePaint);
+        }
+      }
+
+      // Loop over the selected flights, most relevant first. The relative bearing from the user's
+      // location to each flight's location, computed when the flights last changed, determines
+      // the position on the compass view where the pin will be drawn.
+      for (int index = 0; index < mSelectedCount; index++) {
+        Flight flight = mSelectedFlights[index];
+        float bearing = mFlightBearings[index];
+        String text = mFlightLabels[index];
+        Rect textBounds = placeLabel(canvas, offset + bearing * pixelsPerDegree, text);
+        if (textBounds != null) {
+          Bitmap planeIcon;
+          String type = flight.type;
+          if (type.startsWith("A32") || type.startsWith("A31")) {
+            planeIcon = mBitmapAirbus320;
+          } else if (type.startsWith("A33") || type.startsWith("A30") || type.startsWith("B75")) {
+            planeIcon = mBitmapAirbus330;
+          } else if (type.startsWith("B73")) {
+            planeIcon = mBitmapBoeing737;
+          } else if (type.startsWith("A34")) {
+            planeIcon = mBitmapAirbus340;
+          } else if (type.startsWith("A38")) {
+            planeIcon = mBitmapAirbus380;
+          } else if (type.startsWith("B74")) {
+            planeIcon = mBitmapBoeing747;
+          } else if (type.startsWith("B76")) {
+            planeIcon = mBitmapBoeing767;
+          } else if (type.startsWith("B77")) {
+            planeIcon = mBitmapBoeing777;
+          } else if (type.startsWith("B78")) {
+            planeIcon = mBitmapBoeing787;
+          } else if (type.startsWith("MD") || type.startsWith("DC")) {
+            planeIcon = mBitmapMD11;
+          } else if (type.startsWith("BE")) {
+            planeIcon = mBitmapBE200C;
+          } else if (type.startsWith("CRJ")) {
+            planeIcon = mBitmapCRJ1000;
+          } else if (type.startsWith("E1")) {
+            planeIcon = mBitmapE195;
+          } else if (type.startsWith("ERJ")) {
+            planeIcon = mBitmapERJ;
+          } else if (type.startsWith("U")) {
+            planeIcon = mBitmapBE200C;
+          } else if (type.startsWith("FA") || type.startsWith("F2") || type.startsWith("GL") || 
+              type.startsWith("LJ") || type.startsWith("C56") || type.startsWith("E5")) {
+            planeIcon = mBitmapBizjet;
+          } else {
+            planeIcon = mBitmapCessna;
           }
+          canvas.drawBitmap(planeIcon, offset + bearing * pixelsPerDegree - FLIGHT_ICON_WIDTH
+              / 2, textBounds.top + 2, mPaint);
+          canvas.drawText(text, offset + bearing * pixelsPerDegree + FLIGHT_ICON_WIDTH / 2
+              + PLACE_TEXT_MARGIN, textBounds.top + PLACE_TEXT_HEIGHT, mPlacePaint);
+        }
+      }
+
+      if (mLevelOfDetail) {
+        drawMarkers(canvas, pixelsPerDegree, offset);
+      }
+    }
+  }
+
+  /**
+   * Finds room for a label with an icon at the specified position, above the labels already
+   * placed in this pass.
+   *
+   * @param x the horizontal position of the icon's center
+   * @return the bounds of the placed label and icon, or {@code null} if there was no room for it
+   */
+  private Rect placeLabel(Canvas canvas, float x, String text) {
+    // Look up the measured text and offset the text bounds to the location where the text
+    // will finally be drawn.
+    Rect textBounds = new Rect(mPlaceMetrics.get(text).bounds);
+    textBounds.offsetTo((int) (x + FLIGHT_ICON_WIDTH / 2 + PLACE_TEXT_MARGIN),
+        canvas.getHeight() / 2 - (int) PLACE_TEXT_HEIGHT);
+
+    // Extend the bounds rectangle to include the pin icon and a small margin
+    // to the right of the text, for the overlap calculations below.
+    textBounds.left -= FLIGHT_ICON_WIDTH + PLACE_TEXT_MARGIN;
+    textBounds.right += PLACE_TEXT_MARGIN;
+
+    // This loop attempts to find the best vertical position for the string by
+    // starting at the bottom of the display and checking to see if it overlaps
+    // with any other labels that were already drawn. If there is an overlap, we
+    // move up and check again, repeating this process until we find a vertical
+    // position where there is no overlap, or when we reach the limit on
+    // overlapping place names.
+    boolean intersects;
+    int numberOfTries = 0;
+    do {
+      intersects = false;
+      numberOfTries++;
+      textBounds.offset(0, (int) -(PLACE_TEXT_HEIGHT + PLACE_TEXT_LEADING));
+
+      for (Rect existing : mAllBounds) {
+        if (Rect.intersects(existing, textBounds)) {
+          intersects = true;
+          break;
         }
       }
+    } while (intersects && numberOfTries <= MAX_OVERLAPPING_PLACE_NAMES);
+
+    // Only draw the string if it would not go high enough to overlap the compass
+    // directions. This means some places may not be drawn, even if they're nearby.
+    if (numberOfTries > MAX_OVERLAPPING_PLACE_NAMES) {
+      mLabelsDropped++;
+      return null;
+    }
+    mLabelsPlaced++;
+    mAllBounds.add(textBounds);
+    return textBounds;
+  }
+
+  /**
+   * Draws a marker without text for each whole degree of bearing that has flights without a label
+   * or cluster, in a row below the labels; more flights make a larger marker. Only the degrees on
+   * screen are visited.
+   */
+  private void drawMarkers(Canvas canvas, float pixelsPerDegree, float offset) {
+    float y = canvas.getHeight() / 2 - PLACE_TEXT_LEADING - MARKER_RADIUS * 2;
+    float left = (mAnimatedHeading * pixelsPerDegree - getWidth() / 2 - offset) / pixelsPerDegree;
+    int first = Math.max(0, (int) Math.floor(left) - 1);
+    int last = Math.min(359, (int) Math.ceil(left + getWidth() / pixelsPerDegree) + 1);
+    for (int degree = first; degree <= last; degree++) {
+      int count = mMarkerCounts[degree];
+      if (count > 0) {
+        float radius = MARKER_RADIUS * Math.min(2.0f, (float) Math.sqrt(count));
+        canvas.drawCircle(offset + (degree + 0.5f) * pixelsPerDegree, y, radius, mMarkerPaint);
+      }
     }
   }
 
@@ -417,80 +670,4 @@ public class CompassView extends View {
 
     canvas.drawPath(mPath, mPaint);
   }
-
-  /**
-   * Sets up a {@link ValueAnimator} that will be used to animate the compass when the distance
-   * between two sensor events is large.
-   */
-  private void setupAnimator() {
-    mAnimator.setInterpolator(new LinearInterpolator());
-    mAnimator.setDuration(250);
-
-    // Notifies us at each frame of the animation so we can redraw the view.
-    mAnimator.addUpdateListener(new AnimatorUpdateListener() {
-
-      @Override
-      public void onAnimationUpdate(ValueAnimator animator) {
-        mAnimatedHeading = MathUtils.mod((Float) mAnimator.getAnimatedValue(), 360.0f);
-        invalidate();
-      }
-    });
-
-    // Notifies us when the animation is over. During an animation, the user's head may have
-    // continued to move to a different orientation than the original destination angle of the
-    // animation. Since we can't easily change the animation goal while it is running, we call
-    // animateTo() again, which will either redraw at the new orientation (if the difference is
-    // small enough), or start another animation to the new heading. This seems to produce
-    // fluid results.
-    mAnimator.addListener(new AnimatorListenerAdapter() {
-
-      @Override
-      public void onAnimationEnd(Animator animator) {
-        animateTo(mHeading);
-      }
-    });
-  }
-
-  /**
-   * Animates the view to the specified heading, or simply redraws it immediately if the difference
-   * between the current heading and new heading are small enough that it wouldn't be noticeable.
-   * 
-   * @param end the desired heading
-   */
-  private void animateTo(float end) {
-    // Only act if the animator is not currently running. If the user's orientation changes
-    // while the animator is running, we wait until the end of the animation to update the
-    // display again, to prevent jerkiness.
-    if (!mAnimator.isRunning()) {
-      float start = mAnimatedHeading;
-      float distance = Math.abs(end - start);
-      float reverseDistance = 360.0f - distance;
-      float shortest = Math.min(distance, reverseDistance);
-
-      if (Float.isNaN(mAnimatedHeading) || shortest < MIN_DISTANCE_TO_ANIMATE) {
-        // If the distance to the destination angle is small enough (or if this is the
-        // first time the compass is being displayed), it will be more fluid to just redraw
-        // immediately instead of doing an animation.
-        mAnimatedHeading = end;
-        invalidate();
-      } else {
-        // For larger distances (i.e., if the compass "jumps" because of sensor calibration
-        // issues), we animate the effect to provide a more fluid user experience. The
-        // calculation below finds the shortest distance between the two angles, which may
-        // involve crossing 0/360 degrees.
-        float goal;
-
-        if (distance < reverseDistance) {
-          goal = end;
-        } else if (end < start) {
-          goal = end + 360.0f;
-        } else {
-          goal = end - 360.0f;
-        }
-
-        mAnimator.setFloatValues(start, goal);
-        mAnimator.start();
-      }
-    }
-  }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import com.google.android.glass.sample.compass.util.MathUtils;
+
+import android.hardware.GeomagneticField;
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the magnetic declination at the user's location without evaluating the geomagnetic
+ * model on every location fix. Declination is evaluated at the corners of a coarse latitude,
+ * longitude, and date grid, cached, and bilinearly interpolated in between; since it changes by
+ * only a fraction of a degree across a grid cell, nearby fixes reuse the same corners. All model
+ * evaluation happens on a background thread, and {@link #getDeclination()} just reads the latest
+ * result.
+ * <p>
+ * At high latitudes, where declination changes quickly near the magnetic poles, the grid is
+ * bypassed and the model is evaluated directly (still in the background). With debug logging
+ * enabled, every interpolated value is checked against the direct computation and a warning is
+ * logged if they differ by more than {@link #MAX_ERROR_DEGREES}; {@code DeclinationCacheCheck} in
+ * {@code benchmarks/render} checks the same bound offline, over a sweep of locations and dates.
+ */
+final class DeclinationCache {
+
+  private static final String TAG = DeclinationCache.class.getSimpleName();
+
+  /** The size, in degrees of latitude and longitude, of one grid cell. */
+  private static final double CELL_DEGREES = 0.25;
+
+  /** The length of time, in milliseconds, that one set of grid values is used for. */
+  private static final long EPOCH_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+  /** Beyond this (absolute) latitude, the model is evaluated directly instead of interpolated. */
+  static final double MAX_GRID_LATITUDE = 60.0;
+
+  /** The interpolation error, in degrees, above which a warning is logged in debug builds. */
+  static final float MAX_ERROR_DEGREES = 0.1f;
+
+  /** The number of grid corners to keep; four corners per cell, so this covers several cells. */
+  private static final int MAX_CACHED_CORNERS = 64;
+
+  private final Map<Long, Float> mCorners =
+      new LinkedHashMap<Long, Float>(MAX_CACHED_CORNERS, 0.75f, true /* accessOrder */) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Float> eldest) {
+          return size() > MAX_CACHED_CORNERS;
+        }
+      };
+
+  private final Runnable mUpdateRunnable = new Runnable() {
+    @Override
+    public void run() {
+      Location location = mPendingLocation;
+      if (location != null) {
+        mDeclination = computeDeclination(location.getLatitude(), location.getLongitude(),
+            location.getAltitude(), location.getTime());
+      }
+    }
+  };
+
+  private HandlerThread mThread;
+  private Handler mHandler;
+
+  /** True if declination is computed on the thread that requests it; see startSynchronous(). */
+  private boolean mSynchronous;
+
+  /** The most recent location passed to {@link #update}, read by the background thread. */
+  private volatile Location mPendingLocation;
+  private volatile float mDeclination = Float.NaN;
+
+  /**
+   * Starts the background thread that evaluates the geomagnetic model.
+   */
+  void start() {
+    if (mThread == null) {
+      mThread = new HandlerThread(TAG);
+      mThread.start();
+      mHandler = new Handler(mThread.getLooper());
+    }
+  }
+
+  /**
+   * Starts computing declination on the thread that calls {@link #update}, without the background
+   * thread, so that the declination follows the locations deterministically, as trace replays
+   * need.
+   */
+  void startSynchronous() {
+    mSynchronous = true;
+  }
+
+  /**
+   * Stops the background thread. Cached grid values are kept for the next {@link #start()}.
+   */
+  void stop() {
+    mSynchronous = false;
+    if (mThread != null) {
+      mThread.quitSafely();
+      mThread = null;
+      mHandler = null;
+    }
+  }
+
+  /**
+   * Requests that the declination be updated for the specified location. If several updates are
+   * requested before the background thread gets to them, only the latest is computed.
+   *
+   * @param location the user's location
+   */
+  void update(Location location) {
+    mPendingLocation = location;
+    if (mSynchronous) {
+      mUpdateRunnable.run();
+    } else if (mHandler != null) {
+      mHandler.removeCallbacks(mUpdateRunnable);
+      mHandler.post(mUpdateRunnable);
+    }
+  }
+
+  /**
+   * Gets the declination at the last location passed to {@link #update}.
+   *
+   * @return the declination in degrees (positive east of true north), or {@code NaN} if it has not
+   *         been computed yet
+   */
+  float getDeclination() {
+    return mDeclination;
+  }
+
+  /**
+   * Computes the declination at the specified location and time from the grid, without the
+   * background thread; only called on that thread, or by an offline check.
+   *
+   * @param time the time, in milliseconds since the epoch
+   * @return the declination in degrees (positive east of true north)
+   */
+  float computeDeclination(double latitude, double longitude, double altitude, long time) {
+    if (Math.abs(latitude) > MAX_GRID_LATITUDE) {
+      return directDeclination(latitude, longitude, altitude, time);
+    }
+
+    double latCell = latitude / CELL_DEGREES;
+    double lonCell = longitude / CELL_DEGREES;
+    int latIndex = (int) Math.floor(latCell);
+    int lonIndex = (int) Math.floor(lonCell);
+    int epoch = (int) (time / EPOCH_MILLIS);
+    float latFraction = (float) (latCell - latIndex);
+    float lonFraction = (float) (lonCell - lonIndex);
+
+    // Interpolate each corner's declination relative to the first corner, so that cells which
+    // straddle the +/-180 degree wraparound of declination (near the poles) stay continuous.
+    float d00 = corner(latIndex, lonIndex, epoch);
+    float d01 = d00 + wrap(corner(latIndex, lonIndex + 1, epoch) - d00);
+    float d10 = d00 + wrap(corner(latIndex + 1, lonIndex, epoch) - d00);
+    float d11 = d00 + wrap(corner(latIndex + 1, lonIndex + 1, epoch) - d00);
+    float south = d00 + (d01 - d00) * lonFraction;
+    float north = d10 + (d11 - d10) * lonFraction;
+    float declination = wrap(south + (north - south) * latFraction);
+
+    if (Log.isLoggable(TAG, Log.DEBUG)) {
+      float direct = directDeclination(latitude, longitude, altitude, time);
+      float error = Math.abs(wrap(declination - direct));
+      if (error > MAX_ERROR_DEGREES) {
+        Log.w(TAG, "Interpolated declination off by " + error + " degrees at " + latitude + ","
+            + longitude);
+      } else {
+        Log.d(TAG, "Interpolated declination within " + error + " degrees of direct");
+      }
+    }
+    return declination;
+  }
+
+  /**
+   * Gets the declination at one grid corner, evaluating the model if it is not cached.
+   */
+  private float corner(int latIndex, int lonIndex, int epoch) {
+    Long key = ((long) (latIndex & 0xFFFF) << 48) | ((long) (lonIndex & 0xFFFF) << 32)
+        | (epoch & 0xFFFFFFFFL);
+    Float declination = mCorners.get(key);
+    if (declination == null) {
+      long cornerTime = epoch * EPOCH_MILLIS + EPOCH_MILLIS / 2;
+      declination =
+          directDeclination(latIndex * CELL_DEGREES, lonIndex * CELL_DEGREES, 0, cornerTime);
+      mCorners.put(key, declination);
+    }
+    return declination;
+  }
+
+  /**
+   * Evaluates the geomagnetic model at the specified location and time.
+   */
+  static float directDeclination(double latitude, double longitude, double altitude, long time) {
+    return new GeomagneticField((float) latitude, (float) longitude, (float) altitude, time)
+        .getDeclination();
+  }
+
+  /**
+   * Wraps an angle, in degrees, into the range [-180, 180).
+   */
+  static float wrap(float degrees) {
+    return MathUtils.mod(degrees + 180.0f, 360.0f) - 180.0f;
+  }
+}
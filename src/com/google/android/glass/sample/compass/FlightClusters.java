@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import java.util.Arrays;
+
+/**
+ * Groups flights that are packed into a narrow range of bearings, where their labels could not all
+ * be drawn anyway, so that each group can be drawn as one glyph with a count. Bearings are sorted
+ * and swept once, around the circle from its widest empty gap so that no group is split at north:
+ * a group continues while each flight is within {@link #GAP_DEGREES} of the previous one and
+ * within {@link #MAX_WIDTH_DEGREES} of the group's first, and becomes a cluster if it has at least
+ * {@link #MIN_FLIGHTS}.
+ * <p>
+ * Clustering takes O(n log n) time when the flights change, after which the number of glyphs to
+ * draw is bounded by the width of the circle rather than by the amount of traffic. The arrays are
+ * reused between refreshes, and the clusters are only used from the render thread.
+ */
+final class FlightClusters {
+
+  /** The widest gap in bearing between neighbors in a cluster, about a label's height. */
+  static final float GAP_DEGREES = 1.0f;
+
+  /** The widest a cluster may be, so that a dense ring of traffic doesn't become one cluster. */
+  static final float MAX_WIDTH_DEGREES = 5.0f;
+
+  /** The fewest flights that form a cluster: one more than fit stacked in a narrow range. */
+  static final int MIN_FLIGHTS = 5;
+
+  /** Each flight's bearing bits and index, sorted by bearing. */
+  private long[] mSortKeys = new long[0];
+
+  /** Which cluster each flight belongs to, or -1. */
+  private int[] mClusterOf = new int[0];
+
+  private float[] mBearings = new float[0];
+  private int[] mSizes = new int[0];
+  private int mCount;
+
+  /**
+   * Clusters the flights by bearing.
+   *
+   * @param bearings the bearing from the user to each flight, in degrees in [0, 360)
+   * @param flightCount the number of flights
+   * @return the number of clusters
+   */
+  int cluster(float[] bearings, int flightCount) {
+    if (mSortKeys.length < flightCount) {
+      mSortKeys = new long[flightCount];
+      mClusterOf = new int[flightCount];
+      // Every cluster has at least MIN_FLIGHTS members.
+      mBearings = new float[flightCount / MIN_FLIGHTS + 1];
+      mSizes = new int[flightCount / MIN_FLIGHTS + 1];
+    }
+    mCount = 0;
+    Arrays.fill(mClusterOf, 0, flightCount, -1);
+    if (flightCount < MIN_FLIGHTS) {
+      return 0;
+    }
+
+    // Non-negative floats sort the same as their bits, so this orders the flights by bearing.
+    for (int i = 0; i < flightCount; i++) {
+      mSortKeys[i] = ((long) Float.floatToIntBits(bearings[i]) << 32) | i;
+    }
+    Arrays.sort(mSortKeys, 0, flightCount);
+
+    // Start just after the widest gap, counting the one across north.
+    int start = 0;
+    float widestGap = bearingAt(0) + 360 - bearingAt(flightCount - 1);
+    for (int k = 1; k < flightCount; k++) {
+      float gap = bearingAt(k) - bearingAt(k - 1);
+      if (gap > widestGap) {
+        widestGap = gap;
+        start = k;
+      }
+    }
+
+    int groupStart = 0;
+    float groupStartBearing = unwrappedBearingAt(start, 0, flightCount);
+    float previous = groupStartBearing;
+    float sum = groupStartBearing;
+    for (int k = 1; k <= flightCount; k++) {
+      float bearing = k < flightCount ? unwrappedBearingAt(start, k, flightCount) : Float.NaN;
+      if (k < flightCount && bearing - previous <= GAP_DEGREES
+          && bearing - groupStartBearing <= MAX_WIDTH_DEGREES) {
+        previous = bearing;
+        sum += bearing;
+        continue;
+      }
+      int size = k - groupStart;
+      if (size >= MIN_FLIGHTS) {
+        float mean = sum / size;
+        mBearings[mCount] = mean >= 360 ? mean - 360 : mean;
+        mSizes[mCount] = size;
+        for (int j = groupStart; j < k; j++) {
+          mClusterOf[(int) mSortKeys[(start + j) % flightCount]] = mCount;
+        }
+        mCount++;
+      }
+      groupStart = k;
+      groupStartBearing = previous = sum = bearing;
+    }
+    return mCount;
+  }
+
+  /**
+   * @return the mean bearing of the specified cluster, in degrees in [0, 360)
+   */
+  float getBearing(int cluster) {
+    return mBearings[cluster];
+  }
+
+  /**
+   * @return the number of flights in the specified cluster
+   */
+  int getSize(int cluster) {
+    return mSizes[cluster];
+  }
+
+  /**
+   * @return true if the flight at the specified index was put in a cluster by the last
+   *         {@link #cluster}
+   */
+  boolean isClustered(int flight) {
+    return mClusterOf[flight] >= 0;
+  }
+
+  private float bearingAt(int k) {
+    return Float.intBitsToFloat((int) (mSortKeys[k] >>> 32));
+  }
+
+  /**
+   * Gets the bearing of the k-th flight counting from {@code start}, plus 360 once past north.
+   */
+  private float unwrappedBearingAt(int start, int k, int flightCount) {
+    int position = start + k;
+    return position < flightCount ? bearingAt(position) : bearingAt(position - flightCount) + 360;
+  }
+}
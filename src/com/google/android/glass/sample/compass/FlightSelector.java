@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import com.google.android.glass.sample.compass.model.Flight;
+
+import java.util.List;
+
+/**
+ * Picks the flights worth labeling: at most a fixed number per {@link #SECTOR_DEGREES} sector of
+ * bearing, those the user is most likely to be looking for. Only a handful of labels fit one above
+ * the other in a sector anyway, so laying out the rest would only be thrown away.
+ * <p>
+ * A flight's relevance is how far away it will be a minute from now, counting its altitude, so
+ * that close, low, and approaching aircraft win over distant, high, or departing ones. Each sector
+ * keeps its best flights in a bounded max-heap, whose root is the least relevant flight kept and is
+ * replaced whenever a better one comes along, so selecting from n flights takes O(n log k) time.
+ * The selector reuses its arrays between refreshes, and is only used from the render thread.
+ */
+final class FlightSelector {
+
+  /** The width of a sector, about that of a flight label on the display. */
+  static final float SECTOR_DEGREES = 10.0f;
+
+  private static final int SECTORS = (int) (360 / SECTOR_DEGREES);
+
+  /** How far ahead a flight's position is projected when judging its relevance. */
+  private static final double LOOKAHEAD_HOURS = 1.0 / 60;
+
+  private static final double KM_PER_NAUTICAL_MILE = 1.852;
+  private static final double KM_PER_FOOT = 0.0003048;
+
+  private int mMaxPerSector;
+
+  /** The heaps of all sectors, {@link #mMaxPerSector} entries each, as indices into the flights. */
+  private int[] mHeaps;
+  private final int[] mHeapSizes = new int[SECTORS];
+
+  /** The relevance cost of each flight in the last selection; lower is more relevant. */
+  private float[] mCosts = new float[0];
+
+  private int[] mSelection = new int[0];
+  private int mSelectionSize;
+
+  /**
+   * @param maxPerSector the number of flights to select per sector, or 0 to select them all
+   */
+  FlightSelector(int maxPerSector) {
+    setMaxPerSector(maxPerSector);
+  }
+
+  /**
+   * Sets the number of flights to select per sector, or 0 to select them all; it takes effect on
+   * the next {@link #select}.
+   */
+  void setMaxPerSector(int maxPerSector) {
+    mMaxPerSector = Math.max(0, maxPerSector);
+    mHeaps = new int[SECTORS * mMaxPerSector];
+  }
+
+  /**
+   * Selects the most relevant flights in each sector.
+   *
+   * @param flights the flights to choose from
+   * @param bearings the bearing from the user to each flight, in degrees in [0, 360)
+   * @param distancesKm the distance from the user to each flight
+   * @return the number of flights selected, whose indices {@link #getSelection} returns
+   */
+  int select(List<Flight> flights, float[] bearings, float[] distancesKm) {
+    int count = flights.size();
+    if (mSelection.length < count) {
+      mSelection = new int[count];
+    }
+    if (mMaxPerSector == 0) {
+      // Everything, in the order given.
+      for (int i = 0; i < count; i++) {
+        mSelection[i] = i;
+      }
+      mSelectionSize = count;
+      return count;
+    }
+
+    if (mCosts.length < count) {
+      mCosts = new float[count];
+    }
+    for (int sector = 0; sector < SECTORS; sector++) {
+      mHeapSizes[sector] = 0;
+    }
+    for (int i = 0; i < count; i++) {
+      mCosts[i] = cost(flights.get(i), bearings[i], distancesKm[i]);
+      int sector = Math.min((int) (bearings[i] / SECTOR_DEGREES), SECTORS - 1);
+      offer(sector * mMaxPerSector, sector, i);
+    }
+
+    // Gather the survivors and order them most relevant first, so that they are laid out first
+    // and get the lowest label positions. There are at most SECTORS * mMaxPerSector of them.
+    mSelectionSize = 0;
+    for (int sector = 0; sector < SECTORS; sector++) {
+      int base = sector * mMaxPerSector;
+      for (int j = 0; j < mHeapSizes[sector]; j++) {
+        int flight = mHeaps[base + j];
+        int k = mSelectionSize++;
+        while (k > 0 && mCosts[mSelection[k - 1]] > mCosts[flight]) {
+          mSelection[k] = mSelection[k - 1];
+          k--;
+        }
+        mSelection[k] = flight;
+      }
+    }
+    return mSelectionSize;
+  }
+
+  /**
+   * @return the indices of the flights selected by the last {@link #select}, most relevant first;
+   *         only as many entries as it returned are valid
+   */
+  int[] getSelection() {
+    return mSelection;
+  }
+
+  /**
+   * Adds a flight to a sector's heap if there is room, or else if it beats the least relevant one.
+   */
+  private void offer(int base, int sector, int flight) {
+    int size = mHeapSizes[sector];
+    if (size < mMaxPerSector) {
+      // Sift up.
+      int k = size;
+      while (k > 0) {
+        int parent = (k - 1) / 2;
+        if (mCosts[mHeaps[base + parent]] >= mCosts[flight]) {
+          break;
+        }
+        mHeaps[base + k] = mHeaps[base + parent];
+        k = parent;
+      }
+      mHeaps[base + k] = flight;
+      mHeapSizes[sector] = size + 1;
+      return;
+    }
+    if (mCosts[flight] >= mCosts[mHeaps[base]]) {
+      return;
+    }
+    // Replace the root and sift down.
+    int k = 0;
+    while (true) {
+      int child = 2 * k + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && mCosts[mHeaps[base + child + 1]] > mCosts[mHeaps[base + child]]) {
+        child++;
+      }
+      if (mCosts[mHeaps[base + child]] <= mCosts[flight]) {
+        break;
+      }
+      mHeaps[base + k] = mHeaps[base + child];
+      k = child;
+    }
+    mHeaps[base + k] = flight;
+  }
+
+  /**
+   * Computes how far the flight will be from the user, in kilometers, after
+   * {@link #LOOKAHEAD_HOURS} at its current ground speed, as the crow flies including altitude.
+   */
+  static float cost(Flight flight, float bearing, float distanceKm) {
+    // The component of the flight's velocity towards the user, whose bearing from the flight is
+    // opposite the flight's from the user.
+    double closingKnots = -flight.speed * Math.cos(Math.toRadians(flight.angle - bearing));
+    double horizontalKm = Math.max(0,
+        distanceKm - closingKnots * KM_PER_NAUTICAL_MILE * LOOKAHEAD_HOURS);
+    double altitudeKm = Math.max(0, flight.altitude) * KM_PER_FOOT;
+    return (float) Math.sqrt(horizontalKm * horizontalKm + altitudeKm * altitudeKm);
+  }
+}
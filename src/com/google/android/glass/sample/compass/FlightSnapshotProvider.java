@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import com.google.android.glass.sample.compass.model.FlightSnapshotWriter;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Gives other apps on the device the flight snapshots that {@link CompassService} exports, so they
+ * need not fetch the flights themselves. Opening {@link #CONTENT_URI} for reading returns a
+ * read-only descriptor of the snapshot file, which the caller maps once, e.g. with
+ * {@code new FileInputStream(fd).getChannel().map(READ_ONLY, 0, size)}, and reads every later
+ * snapshot from in place; see {@link FlightSnapshotWriter} for the layout and for how to read it
+ * consistently. Observers of {@link #CONTENT_URI} are notified after every snapshot.
+ * <p>
+ * Access requires the {@code READ_FLIGHTS} permission declared in the manifest. A snapshot holds
+ * the user's position and each aircraft's bearing and distance from it, which together give away
+ * the user's fine location, so the permission is granted only to apps signed with the same key as
+ * this one. The provider serves nothing else: queries and modifications are not supported.
+ */
+public class FlightSnapshotProvider extends ContentProvider {
+
+  public static final String AUTHORITY = "com.google.android.glass.sample.compass.flights";
+
+  public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/snapshot");
+
+  /** The MIME type of the snapshot file. */
+  public static final String SNAPSHOT_TYPE =
+      "application/vnd.com.google.android.glass.sample.compass.flight-snapshot";
+
+  private static final String FILE_NAME = "flights.snapshot";
+
+  /**
+   * Gets the file the snapshots are written to and served from.
+   */
+  static File getSnapshotFile(Context context) {
+    return new File(context.getFilesDir(), FILE_NAME);
+  }
+
+  @Override
+  public boolean onCreate() {
+    return true;
+  }
+
+  @Override
+  public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+    if (!CONTENT_URI.equals(uri)) {
+      throw new FileNotFoundException("No such snapshot: " + uri);
+    }
+    if (!"r".equals(mode)) {
+      throw new SecurityException("Snapshots are read-only");
+    }
+    // Throws if the service has not exported a snapshot yet.
+    return ParcelFileDescriptor.open(getSnapshotFile(getContext()),
+        ParcelFileDescriptor.MODE_READ_ONLY);
+  }
+
+  @Override
+  public String getType(Uri uri) {
+    return CONTENT_URI.equals(uri) ? SNAPSHOT_TYPE : null;
+  }
+
+  @Override
+  public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+      String sortOrder) {
+    return null;
+  }
+
+  @Override
+  public Uri insert(Uri uri, ContentValues values) {
+    throw new UnsupportedOperationException("Snapshots are read-only");
+  }
+
+  @Override
+  public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    throw new UnsupportedOperationException("Snapshots are read-only");
+  }
+
+  @Override
+  public int delete(Uri uri, String selection, String[] selectionArgs) {
+    throw new UnsupportedOperationException("Snapshots are read-only");
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import com.google.android.glass.sample.compass.util.MathUtils;
+
+/**
+ * Estimates the heading to draw at the moment a frame reaches the display. Sensor samples feed an
+ * alpha-beta filter that tracks heading and angular velocity; each frame then extrapolates that
+ * estimate to its display time, so steady head turns are drawn where the head is rather than where
+ * it was when the last sample arrived.
+ * <p>
+ * Large jumps (for example after a sensor recalibration) are eased in over a few frames instead of
+ * being drawn immediately, but unlike an animation the easing keeps following new samples while it
+ * runs. The filter holds only primitive state and never allocates, and it is only used from the
+ * render thread.
+ * <p>
+ * The filter also scores itself: once the samples on either side of a frame's display time have
+ * arrived, the heading drawn for that frame is compared with the heading interpolated between
+ * them, and so is the newest sample at the time the frame was drawn, which is what a renderer
+ * without prediction would have shown. The difference between the two mean errors is what the
+ * prediction gains.
+ */
+final class HeadingFilter {
+
+  /** How strongly a new sample corrects the estimated heading and angular velocity. */
+  private static final float ALPHA = 0.6f;
+  private static final float BETA = 0.2f;
+
+  /** The fastest believable head rotation, in degrees per second. */
+  private static final float MAX_VELOCITY = 720.0f;
+
+  /** The furthest ahead of the last sample that the filter will extrapolate, in seconds. */
+  private static final float MAX_PREDICTION_SECONDS = 0.1f;
+
+  /**
+   * If the drawn heading is further than this from the prediction, it eases toward it instead of
+   * jumping straight there.
+   */
+  private static final float MIN_DISTANCE_TO_EASE = 15.0f;
+
+  /** The time constant, in seconds, of the easing applied to large jumps. */
+  private static final float EASE_TIME_CONSTANT = 0.06f;
+
+  private static final float NANOS_PER_SECOND = 1e9f;
+
+  /** The filtered heading at {@link #mSampleTimeNanos}, unwrapped (not reduced to 0-360). */
+  private float mHeading;
+  private float mVelocity;
+  private long mSampleTimeNanos;
+
+  /** The heading returned by the last call to {@link #predict}, unwrapped. */
+  private float mDrawnHeading;
+  private long mDrawnTimeNanos;
+
+  private boolean mHasSample;
+
+  /** The last sample as measured, for scoring predictions. */
+  private float mRawHeading;
+  private long mRawTimeNanos;
+
+  /** The frame being scored, if {@link #mScoredTimeNanos} is not 0. */
+  private long mScoredTimeNanos;
+  private float mScoredPrediction;
+  private float mScoredHeld;
+
+  private float mPredictionErrorSum;
+  private float mHeldErrorSum;
+  private int mErrorCount;
+
+  /**
+   * Adds a heading sample.
+   *
+   * @param heading the measured heading, in degrees
+   * @param timeNanos the {@link android.os.SystemClock#elapsedRealtimeNanos()} time of the sample
+   */
+  void addSample(float heading, long timeNanos) {
+    if (mScoredTimeNanos != 0 && timeNanos >= mScoredTimeNanos && timeNanos > mRawTimeNanos) {
+      float fraction = (float) (mScoredTimeNanos - mRawTimeNanos) / (timeNanos - mRawTimeNanos);
+      float actual = mRawHeading + shortestDelta(mRawHeading, heading) * fraction;
+      mPredictionErrorSum += Math.abs(shortestDelta(mScoredPrediction, actual));
+      mHeldErrorSum += Math.abs(shortestDelta(mScoredHeld, actual));
+      mErrorCount++;
+      mScoredTimeNanos = 0;
+    }
+    if (timeNanos > mRawTimeNanos) {
+      mRawHeading = heading;
+      mRawTimeNanos = timeNanos;
+    }
+
+    if (!mHasSample) {
+      mHeading = heading;
+      mVelocity = 0;
+      mSampleTimeNanos = timeNanos;
+      mDrawnHeading = heading;
+      mDrawnTimeNanos = timeNanos;
+      mHasSample = true;
+      return;
+    }
+
+    float dt = (timeNanos - mSampleTimeNanos) / NANOS_PER_SECOND;
+    if (dt <= 0) {
+      return;
+    }
+
+    float predicted = mHeading + mVelocity * dt;
+    float residual = shortestDelta(predicted, heading);
+    mHeading = predicted + ALPHA * residual;
+    mVelocity = clamp(mVelocity + BETA * residual / dt, MAX_VELOCITY);
+    mSampleTimeNanos = timeNanos;
+  }
+
+  /**
+   * Gets the heading to draw for a frame that will be displayed at the specified time.
+   *
+   * @param displayTimeNanos the {@link android.os.SystemClock#elapsedRealtimeNanos()} time at
+   *        which the frame is expected to reach the display
+   * @return the heading to draw, in degrees between 0 and 360, or {@code NaN} if no sample has
+   *         been added yet
+   */
+  float predict(long displayTimeNanos) {
+    if (!mHasSample) {
+      return Float.NaN;
+    }
+
+    float lead = Math.min((displayTimeNanos - mSampleTimeNanos) / NANOS_PER_SECOND,
+        MAX_PREDICTION_SECONDS);
+    float target = mHeading + mVelocity * Math.max(lead, 0);
+    float delta = shortestDelta(mDrawnHeading, target);
+
+    if (Math.abs(delta) < MIN_DISTANCE_TO_EASE) {
+      mDrawnHeading += delta;
+    } else {
+      float dt = Math.max((displayTimeNanos - mDrawnTimeNanos) / NANOS_PER_SECOND, 0);
+      mDrawnHeading += delta * (dt / (dt + EASE_TIME_CONSTANT));
+    }
+    mDrawnTimeNanos = displayTimeNanos;
+
+    // Keep the unwrapped values from growing without bound on long sessions.
+    mDrawnHeading = MathUtils.mod(mDrawnHeading, 360.0f);
+    mHeading = mDrawnHeading + shortestDelta(mDrawnHeading, mHeading);
+
+    // Score one frame at a time, one whose display time the samples have not reached yet.
+    if (mScoredTimeNanos == 0 && displayTimeNanos > mRawTimeNanos) {
+      mScoredTimeNanos = displayTimeNanos;
+      mScoredPrediction = mDrawnHeading;
+      mScoredHeld = mRawHeading;
+    }
+    return mDrawnHeading;
+  }
+
+  /**
+   * @return the number of frames scored since the last {@link #resetErrors}
+   */
+  int getErrorCount() {
+    return mErrorCount;
+  }
+
+  /**
+   * @return the mean absolute difference, in degrees, between the heading drawn for a scored frame
+   *         and the heading measured at its display time
+   */
+  float getMeanPredictionError() {
+    return mErrorCount > 0 ? mPredictionErrorSum / mErrorCount : Float.NaN;
+  }
+
+  /**
+   * @return the mean absolute difference, in degrees, between the newest sample when a scored
+   *         frame was drawn and the heading measured at its display time
+   */
+  float getMeanHeldError() {
+    return mErrorCount > 0 ? mHeldErrorSum / mErrorCount : Float.NaN;
+  }
+
+  void resetErrors() {
+    mPredictionErrorSum = 0;
+    mHeldErrorSum = 0;
+    mErrorCount = 0;
+  }
+
+  /**
+   * Gets the signed shortest angular distance from one heading to another, in the range
+   * [-180, 180).
+   */
+  private static float shortestDelta(float from, float to) {
+    return MathUtils.mod(to - from + 180.0f, 360.0f) - 180.0f;
+  }
+
+  private static float clamp(float value, float limit) {
+    return Math.max(-limit, Math.min(limit, value));
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free, allocation-free slot that hands the most recent sensor sample from one producer
+ * thread to one consumer thread. Samples the consumer doesn't get to in time are simply
+ * overwritten, so a fast sensor never makes a slower consumer do more work.
+ * <p>
+ * Internally this is a triple buffer: the producer fills a buffer it owns and swaps it with the
+ * shared middle buffer, and the consumer swaps its own (already read) buffer with the middle one
+ * when the middle one holds a sample it hasn't seen.
+ */
+final class LatestValueSlot {
+
+  /** One buffered sample. */
+  static final class Sample {
+    final float[] values;
+
+    /** The number of values the producer supplied; the rest of {@link #values} is stale. */
+    int length;
+    long timestampNanos;
+
+    /** True if this sample was written by the producer and not yet taken by the consumer. */
+    private boolean mFresh;
+
+    private Sample(int size) {
+      values = new float[size];
+    }
+  }
+
+  private final AtomicReference<Sample> mMiddle;
+  private Sample mWriteBuffer;
+  private Sample mReadBuffer;
+
+  /**
+   * Creates a slot for samples of up to {@code size} values.
+   */
+  LatestValueSlot(int size) {
+    mMiddle = new AtomicReference<Sample>(new Sample(size));
+    mWriteBuffer = new Sample(size);
+    mReadBuffer = new Sample(size);
+  }
+
+  /**
+   * Publishes a sample, replacing any sample that hasn't been taken yet. This must only be called
+   * from the producer thread.
+   *
+   * @param values the sample values; extra values beyond the slot's size are ignored
+   * @param timestampNanos the time of the sample
+   */
+  void put(float[] values, long timestampNanos) {
+    Sample sample = mWriteBuffer;
+    sample.length = Math.min(values.length, sample.values.length);
+    System.arraycopy(values, 0, sample.values, 0, sample.length);
+    sample.timestampNanos = timestampNanos;
+    sample.mFresh = true;
+    mWriteBuffer = mMiddle.getAndSet(sample);
+  }
+
+  /**
+   * Takes the latest sample, if there is one that hasn't been taken yet. This must only be called
+   * from the consumer thread. The returned sample belongs to the consumer until the next call.
+   *
+   * @return the latest sample, or {@code null} if nothing new has been published
+   */
+  Sample take() {
+    if (!mMiddle.get().mFresh) {
+      return null;
+    }
+    mReadBuffer.mFresh = false;
+    mReadBuffer = mMiddle.getAndSet(mReadBuffer);
+    return mReadBuffer;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import android.os.Handler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers {@link OrientationManager} change notifications to its listeners. Registrations are
+ * kept in a copy-on-write array, so listeners can be added or removed from any thread, even while
+ * a notification is being delivered on another, and delivering a notification allocates nothing.
+ * <p>
+ * Each listener chooses how it is notified. A listener registered without a {@link Handler} is
+ * called directly on the thread that detected the change. A listener registered with a handler is
+ * called on that handler's thread instead; changes that arrive before it gets to run are coalesced
+ * into one call per kind of change.
+ */
+final class OnChangedDispatcher {
+
+  /** The kinds of change, usable as bit flags. */
+  static final int ORIENTATION_CHANGED = 1;
+  static final int LOCATION_CHANGED = 1 << 1;
+  static final int ACCURACY_CHANGED = 1 << 2;
+
+  private static final Registration[] NO_REGISTRATIONS = new Registration[0];
+
+  private final OrientationManager mOrientationManager;
+  private final Object mLock = new Object();
+
+  /** The current registrations; replaced, never modified, when a listener is added or removed. */
+  private volatile Registration[] mRegistrations = NO_REGISTRATIONS;
+
+  OnChangedDispatcher(OrientationManager orientationManager) {
+    mOrientationManager = orientationManager;
+  }
+
+  /**
+   * Adds a listener. Adding a listener that is already registered has no effect.
+   *
+   * @param listener the listener to add
+   * @param handler the handler on whose thread the listener is called, or {@code null} to call it
+   *        on the thread that detected the change
+   */
+  void add(OrientationManager.OnChangedListener listener, Handler handler) {
+    synchronized (mLock) {
+      Registration[] current = mRegistrations;
+      if (indexOf(current, listener) >= 0) {
+        return;
+      }
+      Registration[] updated = new Registration[current.length + 1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      updated[current.length] = new Registration(listener, handler);
+      mRegistrations = updated;
+    }
+  }
+
+  /**
+   * Removes a listener. Once this returns, the listener will not be called again, except by a
+   * notification that is already being delivered on another thread.
+   *
+   * @param listener the listener to remove
+   */
+  void remove(OrientationManager.OnChangedListener listener) {
+    synchronized (mLock) {
+      Registration[] current = mRegistrations;
+      int index = indexOf(current, listener);
+      if (index < 0) {
+        return;
+      }
+      Registration removed = current[index];
+      removed.mRemoved = true;
+      if (removed.mHandler != null) {
+        removed.mHandler.removeCallbacks(removed);
+      }
+
+      if (current.length == 1) {
+        mRegistrations = NO_REGISTRATIONS;
+      } else {
+        Registration[] updated = new Registration[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        mRegistrations = updated;
+      }
+    }
+  }
+
+  /**
+   * Notifies every listener of a change.
+   *
+   * @param change one of {@link #ORIENTATION_CHANGED}, {@link #LOCATION_CHANGED}, or
+   *        {@link #ACCURACY_CHANGED}
+   */
+  void dispatch(int change) {
+    for (Registration registration : mRegistrations) {
+      registration.dispatch(change);
+    }
+  }
+
+  private static int indexOf(Registration[] registrations,
+      OrientationManager.OnChangedListener listener) {
+    for (int i = 0; i < registrations.length; i++) {
+      if (registrations[i].mListener == listener) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * One registered listener. When the listener is called through a handler, the registration is
+   * itself the runnable that gets posted, and it accumulates pending changes as bit flags.
+   */
+  private final class Registration implements Runnable {
+    private final OrientationManager.OnChangedListener mListener;
+    private final Handler mHandler;
+    private final AtomicInteger mPendingChanges = new AtomicInteger();
+    private volatile boolean mRemoved;
+
+    Registration(OrientationManager.OnChangedListener listener, Handler handler) {
+      mListener = listener;
+      mHandler = handler;
+    }
+
+    void dispatch(int change) {
+      if (mHandler == null) {
+        deliver(change);
+        return;
+      }
+
+      int pending;
+      do {
+        pending = mPendingChanges.get();
+      } while (!mPendingChanges.compareAndSet(pending, pending | change));
+
+      // Only the change that finds nothing pending posts; later ones ride along with it.
+      if (pending == 0) {
+        mHandler.post(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      deliver(mPendingChanges.getAndSet(0));
+    }
+
+    private void deliver(int changes) {
+      if (mRemoved) {
+        return;
+      }
+      if ((changes & ORIENTATION_CHANGED) != 0) {
+        mListener.onOrientationChanged(mOrientationManager);
+      }
+      if ((changes & LOCATION_CHANGED) != 0) {
+        mListener.onLocationChanged(mOrientationManager);
+      }
+      if ((changes & ACCURACY_CHANGED) != 0) {
+        mListener.onAccuracyChanged(mOrientationManager);
+      }
+    }
+  }
+}
@@ -14,9 +14,9 @@
 
 package com.google.android.glass.sample.compass;
 
+import com.google.android.glass.sample.compass.util.AllocationTracker;
 import com.google.android.glass.sample.compass.util.MathUtils;
 
-import android.hardware.GeomagneticField;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -26,10 +26,12 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
 
-import java.util.LinkedHashSet;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -37,6 +39,8 @@ import java.util.concurrent.TimeUnit;
  */
 public class OrientationManager {
 
+  private static final String TAG = OrientationManager.class.getSimpleName();
+
   /**
    * The minimum distance desired between location notifications.
    */
@@ -60,13 +64,25 @@ public class OrientationManager {
    */
   private static final int ARM_DISPLACEMENT_DEGREES = 6;
 
+  /** The number of values in a rotation vector sample (x, y, z, cos, accuracy). */
+  private static final int ROTATION_VECTOR_SIZE = 5;
+
+  /** The rotation vector sampling rate while the head is moving, and while it is still. */
+  private static final int ACTIVE_SENSOR_DELAY = SensorManager.SENSOR_DELAY_UI;
+  private static final int IDLE_SENSOR_DELAY = SensorManager.SENSOR_DELAY_NORMAL;
+
+  /** The nominal time between rotation vector samples at {@link #IDLE_SENSOR_DELAY}. */
+  static final long IDLE_SAMPLE_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
   /**
    * Classes should implement this interface if they want to be notified of changes in the user's
-   * location, orientation, or the accuracy of the compass.
+   * location, orientation, or the accuracy of the compass. Unless the listener was added with a
+   * {@link Handler}, each method is called on the thread that detected the change.
    */
   public interface OnChangedListener {
     /**
-     * Called when the user's orientation changes.
+     * Called when the user's orientation changes, on the thread that calls
+     * {@link OrientationManager#updateOrientation()}.
      * 
      * @param orientationManager the orientation manager that detected the change
      */
@@ -90,17 +106,49 @@ public class OrientationManager {
   private final SensorManager mSensorManager;
   private final LocationManager mLocationManager;
   private final String mLocationProvider;
-  private final Set<OnChangedListener> mListeners;
+  private final OnChangedDispatcher mListeners;
   private final float[] mRotationMatrix;
   private final float[] mOrientation;
 
+  /**
+   * The latest rotation vector sample, written by the sensor thread and taken by
+   * {@link #updateOrientation()}.
+   */
+  private final LatestValueSlot mRotationSlot;
+  private final DeclinationCache mDeclinationCache;
+
+  /**
+   * Slows the sensors down while the head is still. It is fed from {@link #updateOrientation()};
+   * sensor registrations are changed under {@link #mSensorLock}, since {@link #start()} and
+   * {@link #stop()} may run on another thread.
+   */
+  private final SensorRateGovernor mRateGovernor;
+  private final Object mSensorLock = new Object();
+  private boolean mRateGovernorEnabled = true;
+
   private boolean mTracking;
-  private float mHeading;
-  private float mPitch;
+  private int mMaxReportLatencyMicros;
+  private volatile float mHeading;
+  private volatile float mPitch;
+  private volatile long mHeadingTimeNanos;
+
+  /**
+   * The number of rotation vector events received, and of orientation computations done, since
+   * tracking started, and the thread CPU time spent on each while debug logging is on. They are
+   * only used to log how much work coalescing saved.
+   */
+  private int mSensorEventCount;
+  private int mOrientationUpdateCount;
+  private boolean mMeasureCpu;
+  private long mSensorEventCpuNanos;
+  private long mOrientationUpdateCpuNanos;
+
   private Location mLocation;
-  private GeomagneticField mGeomagneticField;
   private boolean mHasInterference;
 
+  /** Records sensor and location input while non-null; see {@link #setTraceRecorder}. */
+  private volatile TraceRecorder mTraceRecorder;
+
   /**
    * The sensor listener used by the orientation manager.
    */
@@ -109,32 +157,16 @@ public class OrientationManager {
     @Override
     public void onAccuracyChanged(Sensor sensor, int accuracy) {
       if (sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-        mHasInterference = (accuracy < SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
-        notifyAccuracyChanged();
+        onMagneticAccuracy(accuracy, SystemClock.elapsedRealtimeNanos());
       }
     }
 
     @Override
     public void onSensorChanged(SensorEvent event) {
       if (event.sensor.getType() == Sensor.TYPE_ROTATION_VECTOR) {
-        // Get the current heading from the sensor, then notify the listeners of the
-        // change.
-        SensorManager.getRotationMatrixFromVector(mRotationMatrix, event.values);
-        SensorManager.remapCoordinateSystem(mRotationMatrix, SensorManager.AXIS_X,
-            SensorManager.AXIS_Z, mRotationMatrix);
-        SensorManager.getOrientation(mRotationMatrix, mOrientation);
-
-        // Store the pitch (used to display a message indicating that the user's head
-        // angle is too steep to produce reliable results.
-        mPitch = (float) Math.toDegrees(mOrientation[1]);
-
-        // Convert the heading (which is relative to magnetic north) to one that is
-        // relative to true north, using the user's current location to compute this.
-        float magneticHeading = (float) Math.toDegrees(mOrientation[0]);
-        mHeading =
-            MathUtils.mod(computeTrueNorth(magneticHeading), 360.0f) - ARM_DISPLACEMENT_DEGREES;
-
-        notifyOrientationChanged();
+        // On Glass (API 19) sensor timestamps are on the elapsedRealtimeNanos() clock, and unlike
+        // the delivery time they stay accurate when events are delivered in batches.
+        onRotationVector(event.values, event.timestamp);
       }
     }
   };
@@ -145,9 +177,7 @@ public class OrientationManager {
   private LocationListener mLocationListener = new LocationListener() {
     @Override
     public void onLocationChanged(Location location) {
-      mLocation = location;
-      updateGeomagneticField();
-      notifyLocationChanged();
+      onLocation(location, SystemClock.elapsedRealtimeNanos());
     }
 
     @Override
@@ -173,9 +203,12 @@ public class OrientationManager {
   public OrientationManager(SensorManager sensorManager, LocationManager locationManager) {
     mRotationMatrix = new float[16];
     mOrientation = new float[9];
+    mRotationSlot = new LatestValueSlot(ROTATION_VECTOR_SIZE);
+    mDeclinationCache = new DeclinationCache();
+    mRateGovernor = new SensorRateGovernor();
     mSensorManager = sensorManager;
     mLocationManager = locationManager;
-    mListeners = new LinkedHashSet<OnChangedListener>();
+    mListeners = new OnChangedDispatcher(this);
 
     Criteria criteria = new Criteria();
     criteria.setAccuracy(Criteria.ACCURACY_FINE);
@@ -186,35 +219,58 @@ public class OrientationManager {
   }
 
   /**
-   * Adds a listener that will be notified when the user's location or orientation changes.
+   * Adds a listener that will be notified when the user's location or orientation changes. The
+   * listener is called on the thread that detected the change. This may be called from any thread.
    */
   public void addOnChangedListener(OnChangedListener listener) {
-    mListeners.add(listener);
+    mListeners.add(listener, null);
+  }
+
+  /**
+   * Adds a listener that will be notified, on the specified handler's thread, when the user's
+   * location or orientation changes. Changes that happen before the handler gets to run are
+   * coalesced into a single call per kind of change. This may be called from any thread.
+   */
+  public void addOnChangedListener(OnChangedListener listener, Handler handler) {
+    mListeners.add(listener, handler);
   }
 
   /**
    * Removes a listener from the list of those that will be notified when the user's location or
-   * orientation changes.
+   * orientation changes. This may be called from any thread.
    */
   public void removeOnChangedListener(OnChangedListener listener) {
     mListeners.remove(listener);
   }
 
+  /**
+   * Sets the maximum time, in microseconds, that sensor events may be held in the hardware FIFO
+   * before they are delivered. Batching lets the application processor sleep between deliveries,
+   * at the cost of up to this much heading latency. The default of 0 disables batching. Takes
+   * effect the next time tracking is started.
+   *
+   * @param maxReportLatencyMicros the maximum report latency, or 0 to deliver events as they occur
+   */
+  public void setMaxReportLatency(int maxReportLatencyMicros) {
+    mMaxReportLatencyMicros = maxReportLatencyMicros;
+  }
+
   /**
    * Starts tracking the user's location and orientation. After calling this method, any
-   * {@link OnChangedListener}s added to this object will be notified of these events.
+   * {@link OnChangedListener}s added to this object will be notified of these events; orientation
+   * changes are only computed and notified when {@link #updateOrientation()} is called.
    */
   public void start() {
     if (!mTracking) {
-      mSensorManager.registerListener(mSensorListener,
-          mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR),
-          SensorManager.SENSOR_DELAY_UI);
-
-      // The rotation vector sensor doesn't give us accuracy updates, so we observe the
-      // magnetic field sensor solely for those.
-      mSensorManager.registerListener(mSensorListener,
-          mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD),
-          SensorManager.SENSOR_DELAY_UI);
+      resetStatistics();
+      mDeclinationCache.start();
+
+      synchronized (mSensorLock) {
+        mRateGovernor.reset(SystemClock.elapsedRealtimeNanos());
+        registerRotationVector(ACTIVE_SENSOR_DELAY);
+        registerMagneticField();
+        mTracking = true;
+      }
 
       Location lastLocation =
           mLocationManager.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER);
@@ -230,8 +286,6 @@ public class OrientationManager {
         mLocationManager.requestLocationUpdates(mLocationProvider, MILLIS_BETWEEN_LOCATIONS,
             METERS_BETWEEN_LOCATIONS, mLocationListener, Looper.getMainLooper());
       }
-
-      mTracking = true;
     }
   }
 
@@ -241,12 +295,259 @@ public class OrientationManager {
    */
   public void stop() {
     if (mTracking) {
-      mSensorManager.unregisterListener(mSensorListener);
+      synchronized (mSensorLock) {
+        mSensorManager.unregisterListener(mSensorListener);
+        mTracking = false;
+      }
       mLocationManager.removeUpdates(mLocationListener);
-      mTracking = false;
+      mDeclinationCache.stop();
+      logStatistics(SystemClock.elapsedRealtimeNanos());
+    }
+  }
+
+  /**
+   * Prepares for a {@link TraceReplayer} to feed this orientation manager in place of the live
+   * sensors and location provider: resets the statistics and the rate governor, and evaluates
+   * declination synchronously so that replays are deterministic. It must not be tracking.
+   *
+   * @param timeNanos the replayed time at which the replay starts
+   */
+  void startReplay(long timeNanos) {
+    resetStatistics();
+    mRateGovernor.reset(timeNanos);
+    mDeclinationCache.startSynchronous();
+  }
+
+  /**
+   * Ends a replay started with {@link #startReplay}.
+   *
+   * @param timeNanos the replayed time at which the replay ends
+   */
+  void stopReplay(long timeNanos) {
+    mDeclinationCache.stop();
+    logStatistics(timeNanos);
+  }
+
+  private void resetStatistics() {
+    mSensorEventCount = 0;
+    mOrientationUpdateCount = 0;
+    mMeasureCpu = Log.isLoggable(TAG, Log.DEBUG);
+    mSensorEventCpuNanos = 0;
+    mOrientationUpdateCpuNanos = 0;
+  }
+
+  /**
+   * Logs how much work the orientation updates took, when debug logging is on.
+   */
+  private void logStatistics(long now) {
+    if (Log.isLoggable(TAG, Log.DEBUG) && mSensorEventCount > 0) {
+      Log.d(TAG, "Rotation vector events: " + mSensorEventCount + ", orientation updates: "
+          + mOrientationUpdateCount + " (" + (100 * mOrientationUpdateCount / mSensorEventCount)
+          + "% of the events needed the orientation math)");
+      if (mOrientationUpdateCount > 0) {
+        // Doing the math for every event would have cost one update per event instead.
+        long updateNanos = mOrientationUpdateCpuNanos / mOrientationUpdateCount;
+        Log.d(TAG, "CPU time: " + mSensorEventCpuNanos / 1000 + " us handling events ("
+            + mSensorEventCpuNanos / mSensorEventCount + " ns each), "
+            + mOrientationUpdateCpuNanos / 1000 + " us computing orientation (" + updateNanos
+            + " ns each); about " + updateNanos * (mSensorEventCount - mOrientationUpdateCount)
+            / 1000 + " us saved by coalescing");
+      }
+      Log.d(TAG, "Sensors idle " + Math.round(100 * mRateGovernor.getIdleFraction(now))
+          + "% of the time, " + mRateGovernor.getTransitions() + " rate changes");
+    }
+  }
+
+  /**
+   * Registers for rotation vector events at the specified rate, replacing any earlier
+   * registration.
+   */
+  private void registerRotationVector(int sensorDelay) {
+    Sensor sensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+    mSensorManager.unregisterListener(mSensorListener, sensor);
+    mSensorManager.registerListener(mSensorListener, sensor, sensorDelay,
+        mMaxReportLatencyMicros);
+  }
+
+  /**
+   * Registers for magnetic field events. The rotation vector sensor doesn't give us accuracy
+   * updates, so we observe the magnetic field sensor solely for those.
+   */
+  private void registerMagneticField() {
+    mSensorManager.registerListener(mSensorListener,
+        mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), ACTIVE_SENSOR_DELAY,
+        mMaxReportLatencyMicros);
+  }
+
+  /**
+   * Switches the sensors between the active and idle rates after the governor changes state.
+   * While idle, the rotation vector runs slowly and the magnetic field sensor, which is only used
+   * for accuracy updates, is turned off.
+   */
+  private void applySensorRate() {
+    synchronized (mSensorLock) {
+      if (!mTracking) {
+        return;
+      }
+      if (mRateGovernor.isIdle()) {
+        registerRotationVector(IDLE_SENSOR_DELAY);
+        mSensorManager.unregisterListener(mSensorListener,
+            mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD));
+      } else {
+        registerRotationVector(ACTIVE_SENSOR_DELAY);
+        registerMagneticField();
+      }
     }
   }
 
+  /**
+   * Turns the rate governor on or off, e.g. to measure what it saves; it is on by default. Takes
+   * effect the next time tracking or a replay is started.
+   */
+  void setRateGovernorEnabled(boolean enabled) {
+    mRateGovernorEnabled = enabled;
+  }
+
+  /**
+   * @return true if the sensors run at the low rate because the head is still
+   */
+  boolean isSensorIdle() {
+    return mRateGovernor.isIdle();
+  }
+
+  /**
+   * @return the governor behind {@link #isSensorIdle()}, for its statistics
+   */
+  SensorRateGovernor getRateGovernor() {
+    return mRateGovernor;
+  }
+
+  /**
+   * @return the number of rotation vector samples handled since tracking or a replay started
+   */
+  int getSensorEventCount() {
+    return mSensorEventCount;
+  }
+
+  /**
+   * Starts or stops recording the sensor and location input of this orientation manager. The
+   * recorder is not closed when it is replaced.
+   *
+   * @param recorder the recorder to write to, or {@code null} to stop recording
+   */
+  public void setTraceRecorder(TraceRecorder recorder) {
+    mTraceRecorder = recorder;
+  }
+
+  /**
+   * Handles a rotation vector sample from the sensor or from a {@link TraceReplayer}.
+   *
+   * @param values the rotation vector, with as many values as the sensor supplied
+   * @param timeNanos the {@link SystemClock#elapsedRealtimeNanos()} time the sample was measured
+   */
+  void onRotationVector(float[] values, long timeNanos) {
+    // Only stash the sample here; the orientation math runs once per consumed frame in
+    // updateOrientation(), however many events arrive in between.
+    long cpuNanos = mMeasureCpu ? Debug.threadCpuTimeNanos() : 0;
+    long allocations = AllocationTracker.start();
+    mRotationSlot.put(values, timeNanos);
+    mSensorEventCount++;
+
+    TraceRecorder recorder = mTraceRecorder;
+    if (recorder != null) {
+      recorder.recordRotationVector(timeNanos, values);
+    }
+    AllocationTracker.stop(AllocationTracker.SENSOR_EVENT, allocations);
+    if (mMeasureCpu) {
+      mSensorEventCpuNanos += Debug.threadCpuTimeNanos() - cpuNanos;
+    }
+  }
+
+  /**
+   * Handles a change in the accuracy of the magnetic field sensor, from the sensor or from a
+   * {@link TraceReplayer}.
+   *
+   * @param accuracy the new accuracy, one of the {@code SensorManager.SENSOR_STATUS_*} values
+   * @param timeNanos the {@link SystemClock#elapsedRealtimeNanos()} time of the change
+   */
+  void onMagneticAccuracy(int accuracy, long timeNanos) {
+    TraceRecorder recorder = mTraceRecorder;
+    if (recorder != null) {
+      recorder.recordAccuracy(timeNanos, accuracy);
+    }
+
+    mHasInterference = (accuracy < SensorManager.SENSOR_STATUS_ACCURACY_HIGH);
+    notifyAccuracyChanged();
+  }
+
+  /**
+   * Handles a location fix from the location provider or from a {@link TraceReplayer}.
+   *
+   * @param location the new location
+   * @param timeNanos the {@link SystemClock#elapsedRealtimeNanos()} time the fix arrived
+   */
+  void onLocation(Location location, long timeNanos) {
+    TraceRecorder recorder = mTraceRecorder;
+    if (recorder != null) {
+      recorder.recordLocation(timeNanos, location);
+    }
+
+    mLocation = location;
+    updateGeomagneticField();
+    notifyLocationChanged();
+  }
+
+  /**
+   * Computes the orientation from the latest rotation vector sample, if one has arrived since the
+   * last call, and notifies the listeners of the change. This is meant to be called once per
+   * rendered frame, from a single thread, so that orientation work tracks the display rate rather
+   * than the sensor rate.
+   *
+   * @return true if the orientation changed
+   */
+  public boolean updateOrientation() {
+    LatestValueSlot.Sample sample = mRotationSlot.take();
+    if (sample == null) {
+      return false;
+    }
+
+    long cpuNanos = mMeasureCpu ? Debug.threadCpuTimeNanos() : 0;
+    long allocations = AllocationTracker.start();
+    if (sample.length < 4) {
+      // Older rotation vector sensors leave out the scalar component; it follows from the others,
+      // since the quaternion is a unit one. Left at 0, it would skew the rotation.
+      float[] v = sample.values;
+      v[3] = (float) Math.sqrt(Math.max(0, 1 - v[0] * v[0] - v[1] * v[1] - v[2] * v[2]));
+    }
+    SensorManager.getRotationMatrixFromVector(mRotationMatrix, sample.values);
+    SensorManager.remapCoordinateSystem(mRotationMatrix, SensorManager.AXIS_X,
+        SensorManager.AXIS_Z, mRotationMatrix);
+    SensorManager.getOrientation(mRotationMatrix, mOrientation);
+
+    // Store the pitch (used to display a message indicating that the user's head
+    // angle is too steep to produce reliable results.
+    mPitch = (float) Math.toDegrees(mOrientation[1]);
+
+    // Convert the heading (which is relative to magnetic north) to one that is
+    // relative to true north, using the user's current location to compute this.
+    float magneticHeading = (float) Math.toDegrees(mOrientation[0]);
+    mHeading =
+        MathUtils.mod(computeTrueNorth(magneticHeading), 360.0f) - ARM_DISPLACEMENT_DEGREES;
+    mHeadingTimeNanos = sample.timestampNanos;
+    mOrientationUpdateCount++;
+
+    if (mRateGovernorEnabled && mRateGovernor.update(mHeading, mPitch, sample.timestampNanos)) {
+      applySensorRate();
+    }
+
+    notifyOrientationChanged();
+    AllocationTracker.stop(AllocationTracker.SENSOR_ORIENTATION, allocations);
+    if (mMeasureCpu) {
+      mOrientationUpdateCpuNanos += Debug.threadCpuTimeNanos() - cpuNanos;
+    }
+    return true;
+  }
+
   /**
    * Gets a value indicating whether there is too much magnetic field interference for the compass
    * to be reliable.
@@ -275,6 +576,16 @@ public class OrientationManager {
     return mHeading;
   }
 
+  /**
+   * Gets the time at which the sensor sample behind the current heading was measured.
+   * 
+   * @return the {@link SystemClock#elapsedRealtimeNanos()} time of the current heading, or 0 if no
+   *         heading has been computed yet
+   */
+  public long getHeadingTimeNanos() {
+    return mHeadingTimeNanos;
+  }
+
   /**
    * Gets the user's current pitch (head tilt angle), in degrees. The result is guaranteed to be
    * between -90 and 90.
@@ -298,36 +609,29 @@ public class OrientationManager {
    * Notifies all listeners that the user's orientation has changed.
    */
   private void notifyOrientationChanged() {
-    for (OnChangedListener listener : mListeners) {
-      listener.onOrientationChanged(this);
-    }
+    mListeners.dispatch(OnChangedDispatcher.ORIENTATION_CHANGED);
   }
 
   /**
    * Notifies all listeners that the user's location has changed.
    */
   private void notifyLocationChanged() {
-    for (OnChangedListener listener : mListeners) {
-      listener.onLocationChanged(this);
-    }
+    mListeners.dispatch(OnChangedDispatcher.LOCATION_CHANGED);
   }
 
   /**
    * Notifies all listeners that the compass's accuracy has changed.
    */
   private void notifyAccuracyChanged() {
-    for (OnChangedListener listener : mListeners) {
-      listener.onAccuracyChanged(this);
-    }
+    mListeners.dispatch(OnChangedDispatcher.ACCURACY_CHANGED);
   }
 
   /**
-   * Updates the cached instance of the geomagnetic field after a location change.
+   * Requests an update of the magnetic declination after a location change. The declination is
+   * computed in the background and is usually served from a cached grid.
    */
   private void updateGeomagneticField() {
-    mGeomagneticField =
-        new GeomagneticField((float) mLocation.getLatitude(), (float) mLocation.getLongitude(),
-            (float) mLocation.getAltitude(), mLocation.getTime());
+    mDeclinationCache.update(mLocation);
   }
 
   /**
@@ -338,8 +642,9 @@ public class OrientationManager {
    * @return the heading (in degrees) relative to true north
    */
   private float computeTrueNorth(float heading) {
-    if (mGeomagneticField != null) {
-      return heading + mGeomagneticField.getDeclination();
+    float declination = mDeclinationCache.getDeclination();
+    if (!Float.isNaN(declination)) {
+      return heading + declination;
     } else {
       return heading;
     }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import com.google.android.glass.sample.compass.model.Flight;
+import com.google.android.glass.sample.compass.model.FlightHistory;
+
+import android.location.Location;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of everything the render thread needs to draw one frame of the compass.
+ * Producers never modify an instance; they publish a modified copy (see the {@code with*} methods)
+ * with an atomic swap, and the render thread picks up whichever copy is current at the start of
+ * each frame.
+ */
+final class RenderState {
+
+  /** The state used before any sensor, location, or flight data has arrived. */
+  static final RenderState EMPTY =
+      new RenderState(Float.NaN, 0L, 0.0f, false, null, Collections.<Flight>emptyList(), null);
+
+  /** The user's heading, in degrees, or {@code NaN} if no orientation has been received yet. */
+  final float heading;
+
+  /** The {@link android.os.SystemClock#elapsedRealtimeNanos()} time the heading was measured. */
+  final long headingTimeNanos;
+
+  /** The user's pitch (head tilt angle), in degrees. */
+  final float pitch;
+
+  /** True if there is too much magnetic interference for the compass to be reliable. */
+  final boolean interference;
+
+  /** The user's location, or {@code null} if it is not known yet. */
+  final Location location;
+
+  /** An unmodifiable snapshot of the flights to draw; never {@code null}. */
+  final List<Flight> flights;
+
+  /**
+   * The recent positions of the flights, or {@code null} if there are none. The render thread
+   * only reads from it.
+   */
+  final FlightHistory history;
+
+  private RenderState(float heading, long headingTimeNanos, float pitch, boolean interference,
+      Location location, List<Flight> flights, FlightHistory history) {
+    this.heading = heading;
+    this.headingTimeNanos = headingTimeNanos;
+    this.pitch = pitch;
+    this.interference = interference;
+    this.location = location;
+    this.flights = flights;
+    this.history = history;
+  }
+
+  /**
+   * Returns a copy of this state with the specified orientation.
+   */
+  RenderState withOrientation(float heading, long headingTimeNanos, float pitch) {
+    return new RenderState(heading, headingTimeNanos, pitch, interference, location, flights,
+        history);
+  }
+
+  /**
+   * Returns a copy of this state with the specified magnetic interference flag.
+   */
+  RenderState withInterference(boolean interference) {
+    return new RenderState(heading, headingTimeNanos, pitch, interference, location, flights,
+        history);
+  }
+
+  /**
+   * Returns a copy of this state with the specified user location.
+   */
+  RenderState withLocation(Location location) {
+    return new RenderState(heading, headingTimeNanos, pitch, interference, location, flights,
+        history);
+  }
+
+  /**
+   * Returns a copy of this state with the specified flights and their history. The list must not be
+   * modified after it is published.
+   */
+  RenderState withFlights(List<Flight> flights, FlightHistory history) {
+    return new RenderState(heading, headingTimeNanos, pitch, interference, location, flights,
+        history);
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import com.google.android.glass.sample.compass.util.MathUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides whether the orientation sensors can run at a low rate because the user's head is still.
+ * The governor is fed every computed orientation and estimates angular speed from consecutive
+ * samples. Once the head has stayed below {@link #STILL_DEGREES_PER_SECOND} for
+ * {@link #STILL_NANOS}, it switches to idle; as soon as a sample shows motion above
+ * {@link #MOVING_DEGREES_PER_SECOND}, it switches back to active. The gap between the two
+ * thresholds keeps sensor noise from toggling the rate.
+ * <p>
+ * The governor only makes decisions and keeps statistics; {@link OrientationManager} applies them
+ * to the sensor registrations. It has no Android dependencies, so recorded traces can be replayed
+ * through it directly. It is not thread-safe.
+ */
+final class SensorRateGovernor {
+
+  /** The angular speed, in degrees per second, below which the head is considered still. */
+  private static final float STILL_DEGREES_PER_SECOND = 3.0f;
+
+  /** The angular speed, in degrees per second, above which the head is considered moving. */
+  private static final float MOVING_DEGREES_PER_SECOND = 10.0f;
+
+  /** How long the head has to stay still before the sensors are slowed down. */
+  private static final long STILL_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+  private boolean mIdle;
+  private boolean mHasSample;
+  private float mLastHeading;
+  private float mLastPitch;
+  private long mLastTimeNanos;
+  private long mStillSinceNanos;
+
+  /** Statistics since the last {@link #reset}. */
+  private long mStartNanos;
+  private long mIdleNanos;
+  private long mIdleSinceNanos;
+  private int mTransitions;
+
+  /**
+   * Resets the governor to the active state, clearing its statistics.
+   *
+   * @param timeNanos the current time
+   */
+  void reset(long timeNanos) {
+    mIdle = false;
+    mHasSample = false;
+    mStartNanos = timeNanos;
+    mIdleNanos = 0;
+    mTransitions = 0;
+  }
+
+  /**
+   * Feeds the governor a newly computed orientation.
+   *
+   * @param heading the heading, in degrees
+   * @param pitch the pitch, in degrees
+   * @param timeNanos the time of the sample
+   * @return true if the governor switched between active and idle, in which case the caller should
+   *         change the sensor rate to match {@link #isIdle()}
+   */
+  boolean update(float heading, float pitch, long timeNanos) {
+    if (!mHasSample) {
+      mLastHeading = heading;
+      mLastPitch = pitch;
+      mLastTimeNanos = timeNanos;
+      mStillSinceNanos = timeNanos;
+      mHasSample = true;
+      return false;
+    }
+
+    long elapsedNanos = timeNanos - mLastTimeNanos;
+    if (elapsedNanos <= 0) {
+      return false;
+    }
+
+    float headingChange =
+        Math.abs(MathUtils.mod(heading - mLastHeading + 180.0f, 360.0f) - 180.0f);
+    float pitchChange = Math.abs(pitch - mLastPitch);
+    float degreesPerSecond =
+        (headingChange + pitchChange) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    mLastHeading = heading;
+    mLastPitch = pitch;
+    mLastTimeNanos = timeNanos;
+
+    if (mIdle) {
+      if (degreesPerSecond > MOVING_DEGREES_PER_SECOND) {
+        mIdle = false;
+        mIdleNanos += timeNanos - mIdleSinceNanos;
+        mStillSinceNanos = timeNanos;
+        mTransitions++;
+        return true;
+      }
+    } else if (degreesPerSecond > STILL_DEGREES_PER_SECOND) {
+      mStillSinceNanos = timeNanos;
+    } else if (timeNanos - mStillSinceNanos >= STILL_NANOS) {
+      mIdle = true;
+      mIdleSinceNanos = timeNanos;
+      mTransitions++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the sensors should run at the low rate
+   */
+  boolean isIdle() {
+    return mIdle;
+  }
+
+  /**
+   * Gets the fraction of the time since the last {@link #reset} that was spent idle.
+   *
+   * @param timeNanos the current time
+   */
+  float getIdleFraction(long timeNanos) {
+    long total = timeNanos - mStartNanos;
+    if (total <= 0) {
+      return 0;
+    }
+    long idle = mIdleNanos + (mIdle ? timeNanos - mIdleSinceNanos : 0);
+    return (float) idle / total;
+  }
+
+  /**
+   * @return the number of switches between active and idle since the last {@link #reset}
+   */
+  int getTransitions() {
+    return mTransitions;
+  }
+}
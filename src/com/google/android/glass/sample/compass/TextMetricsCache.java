@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of text measurements made with a single {@link Paint}.
+ * Since each cache is bound to one paint, entries are effectively keyed by (string, paint). The
+ * cache notices when any paint attribute that affects measurement (text size, typeface, scale,
+ * skew, or flags) has changed and drops every entry when it does; changing only the color does not
+ * invalidate it.
+ * <p>
+ * Looking up a string that is already cached does not allocate. The cache is not thread-safe and
+ * should only be used from the thread that draws.
+ */
+final class TextMetricsCache {
+
+  /**
+   * The measurements of one string. The bounds are relative to the drawing origin, exactly as
+   * returned by {@link Paint#getTextBounds}, and must not be modified.
+   */
+  static final class Metrics {
+    final Rect bounds;
+    final float advance;
+
+    private Metrics(Rect bounds, float advance) {
+      this.bounds = bounds;
+      this.advance = advance;
+    }
+  }
+
+  private final Paint mPaint;
+  private final LinkedHashMap<String, Metrics> mEntries;
+
+  /** The measurement-related attributes of the paint when the current entries were measured. */
+  private float mTextSize;
+  private Typeface mTypeface;
+  private float mTextScaleX;
+  private float mTextSkewX;
+  private int mFlags;
+
+  /**
+   * Creates a cache of measurements made with the specified paint.
+   *
+   * @param paint the paint used to measure (and draw) the text
+   * @param maxEntries the number of strings to keep before the least recently used is evicted
+   */
+  TextMetricsCache(Paint paint, final int maxEntries) {
+    mPaint = paint;
+    mEntries = new LinkedHashMap<String, Metrics>(maxEntries, 0.75f, true /* accessOrder */) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Metrics> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    rememberPaint();
+  }
+
+  /**
+   * Gets the measurements of the specified string, measuring it only if it is not cached or the
+   * paint has changed since it was measured.
+   *
+   * @param text the string to measure
+   * @return the measurements of the string
+   */
+  Metrics get(String text) {
+    if (paintChanged()) {
+      mEntries.clear();
+      rememberPaint();
+    }
+
+    Metrics metrics = mEntries.get(text);
+    if (metrics == null) {
+      Rect bounds = new Rect();
+      mPaint.getTextBounds(text, 0, text.length(), bounds);
+      metrics = new Metrics(bounds, mPaint.measureText(text));
+      mEntries.put(text, metrics);
+    }
+    return metrics;
+  }
+
+  /**
+   * Drops every cached measurement.
+   */
+  void invalidate() {
+    mEntries.clear();
+  }
+
+  private boolean paintChanged() {
+    return mPaint.getTextSize() != mTextSize || mPaint.getTypeface() != mTypeface
+        || mPaint.getTextScaleX() != mTextScaleX || mPaint.getTextSkewX() != mTextSkewX
+        || mPaint.getFlags() != mFlags;
+  }
+
+  private void rememberPaint() {
+    mTextSize = mPaint.getTextSize();
+    mTypeface = mPaint.getTypeface();
+    mTextScaleX = mPaint.getTextScaleX();
+    mTextSkewX = mPaint.getTextSkewX();
+    mFlags = mPaint.getFlags();
+  }
+}
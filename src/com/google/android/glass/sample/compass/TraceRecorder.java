@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import android.location.Location;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records the sensor and location input of an {@link OrientationManager} to a compact binary trace
+ * file, so that it can later be fed back through the same code paths with {@link TraceReplayer}.
+ * <p>
+ * A trace starts with a header ({@link #MAGIC}, then {@link #VERSION} as a short). Each record is a
+ * type byte, the time since the previous record in microseconds, and a payload. The time is a
+ * variable-length integer, seven bits per byte with the low bits first and the top bit set on all
+ * but the last byte, of the zigzag-encoded delta ({@code (delta << 1) ^ (delta >> 63)}), so it
+ * takes three bytes at sensor rates, never overflows, and may be negative when a batched sensor
+ * sample is older than the record before it.
+ * <ul>
+ * <li>{@link #TYPE_ROTATION_VECTOR}: a value count byte, then that many floats
+ * <li>{@link #TYPE_ACCURACY}: the magnetic field sensor accuracy as a byte
+ * <li>{@link #TYPE_LOCATION}: latitude, longitude, and altitude as doubles, accuracy as a float,
+ * and the fix's wall-clock time as a long
+ * </ul>
+ * Record times come from {@link android.os.SystemClock#elapsedRealtimeNanos()}; a rotation vector
+ * record is usually 25 bytes. Recording is meant for debugging and benchmarking, and write errors
+ * stop the recording rather than disturb the compass.
+ */
+public class TraceRecorder implements Closeable {
+
+  private static final String TAG = TraceRecorder.class.getSimpleName();
+
+  static final int MAGIC = 0x43545243; // "CTRC"
+  static final short VERSION = 2;
+
+  static final byte TYPE_ROTATION_VECTOR = 1;
+  static final byte TYPE_ACCURACY = 2;
+  static final byte TYPE_LOCATION = 3;
+
+  private final DataOutputStream mOut;
+  private long mLastTimeNanos;
+  private boolean mFailed;
+
+  /**
+   * Creates a recorder that writes a new trace to the specified file, replacing any existing one.
+   *
+   * @param file the trace file
+   * @param startTimeNanos the {@link android.os.SystemClock#elapsedRealtimeNanos()} time that the
+   *        first record's time is relative to
+   * @throws IOException if the file cannot be created
+   */
+  public TraceRecorder(File file, long startTimeNanos) throws IOException {
+    mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    mOut.writeInt(MAGIC);
+    mOut.writeShort(VERSION);
+    mLastTimeNanos = startTimeNanos;
+  }
+
+  /**
+   * Records a rotation vector sample.
+   */
+  synchronized void recordRotationVector(long timeNanos, float[] values) {
+    if (startRecord(TYPE_ROTATION_VECTOR, timeNanos)) {
+      try {
+        mOut.writeByte(values.length);
+        for (float value : values) {
+          mOut.writeFloat(value);
+        }
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  /**
+   * Records a change in the accuracy of the magnetic field sensor.
+   */
+  synchronized void recordAccuracy(long timeNanos, int accuracy) {
+    if (startRecord(TYPE_ACCURACY, timeNanos)) {
+      try {
+        mOut.writeByte(accuracy);
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  /**
+   * Records a location fix.
+   */
+  synchronized void recordLocation(long timeNanos, Location location) {
+    if (startRecord(TYPE_LOCATION, timeNanos)) {
+      try {
+        mOut.writeDouble(location.getLatitude());
+        mOut.writeDouble(location.getLongitude());
+        mOut.writeDouble(location.getAltitude());
+        mOut.writeFloat(location.getAccuracy());
+        mOut.writeLong(location.getTime());
+      } catch (IOException e) {
+        fail(e);
+      }
+    }
+  }
+
+  /**
+   * Flushes and closes the trace file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    mFailed = true;
+    mOut.close();
+  }
+
+  /**
+   * Writes the type and relative time of a record.
+   *
+   * @return true if the payload should be written, or false if recording has stopped
+   */
+  private boolean startRecord(byte type, long timeNanos) {
+    if (mFailed) {
+      return false;
+    }
+    try {
+      long deltaMicros = (timeNanos - mLastTimeNanos) / 1000;
+      mOut.writeByte(type);
+      writeVarLong(mOut, (deltaMicros << 1) ^ (deltaMicros >> 63));
+      // Advance by the rounded delta so that rounding errors don't accumulate.
+      mLastTimeNanos += deltaMicros * 1000;
+      return true;
+    } catch (IOException e) {
+      fail(e);
+      return false;
+    }
+  }
+
+  /**
+   * Writes an unsigned variable-length integer, seven bits at a time.
+   */
+  private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) (value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /**
+   * Reads a variable-length integer written by {@link #writeVarLong}.
+   */
+  static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length integer");
+  }
+
+  private void fail(IOException e) {
+    Log.w(TAG, "Trace recording stopped", e);
+    mFailed = true;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Feeds a trace written by {@link TraceRecorder} through an {@link OrientationManager}, using the
+ * same entry points as the live sensor and location callbacks. A trace can be replayed in real
+ * time or as fast as possible. Either way, an optional {@link FrameCallback} is called at the frame
+ * times a renderer would have drawn, so that heading latency and per-frame cost can be measured
+ * without a display or sensors; {@code TraceReplayBenchmark} in {@code benchmarks/render} does
+ * that on a desktop JVM.
+ * <p>
+ * During a replay, the orientation manager evaluates magnetic declination as live tracking does,
+ * but synchronously, so that replayed headings match live ones and every replay of a trace gives
+ * the same headings.
+ */
+public class TraceReplayer {
+
+  /**
+   * Called at each frame boundary during a replay, interleaved with the trace's records in trace
+   * time order.
+   */
+  public interface FrameCallback {
+    /**
+     * Called when a frame would be drawn. A typical callback calls
+     * {@link OrientationManager#updateOrientation()} and then draws or measures the frame.
+     *
+     * @param frameTimeNanos the replayed {@link SystemClock#elapsedRealtimeNanos()} time of the
+     *        frame
+     */
+    void onFrame(long frameTimeNanos);
+  }
+
+  /** The largest rotation vector the orientation manager uses (x, y, z, cos, accuracy). */
+  private static final int MAX_ROTATION_VECTOR_SIZE = 5;
+
+  private final File mFile;
+  private boolean mSimulateSensorRate;
+
+  /**
+   * Creates a replayer for the specified trace file.
+   */
+  public TraceReplayer(File file) {
+    mFile = file;
+  }
+
+  /**
+   * Sets whether to deliver only the samples the sensors would have delivered at the rate the
+   * orientation manager's rate governor chose. While it is idle, rotation vector samples closer
+   * than {@link OrientationManager#IDLE_SAMPLE_PERIOD_NANOS} to the last one delivered are
+   * dropped, and so are accuracy changes, since the magnetic field sensor is off. Off by default,
+   * which replays every record; traces are assumed to be recorded at the active rate.
+   */
+  public void setSimulateSensorRate(boolean simulate) {
+    mSimulateSensorRate = simulate;
+  }
+
+  /**
+   * Replays the trace into the specified orientation manager.
+   *
+   * @param orientationManager the orientation manager to feed; it must not be tracking live
+   *        sensors at the same time, since sensor samples are handed over from a single producer
+   * @param realTime true to replay at the speed the trace was recorded, with record times rebased
+   *        onto the current clock, or false to replay as fast as possible using the trace's own
+   *        (zero-based) times
+   * @param frameIntervalNanos the time between frame callbacks
+   * @param callback the callback to call at each frame boundary, or {@code null} for none
+   * @return the number of records read
+   * @throws IOException if the trace cannot be read or is not a trace file
+   */
+  public int replay(OrientationManager orientationManager, boolean realTime,
+      long frameIntervalNanos, FrameCallback callback) throws IOException {
+    DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+    try {
+      if (in.readInt() != TraceRecorder.MAGIC) {
+        throw new IOException("Not a trace file: " + mFile);
+      }
+      short version = in.readShort();
+      if (version != TraceRecorder.VERSION) {
+        throw new IOException("Unsupported trace version " + version + ": " + mFile);
+      }
+
+      long baseNanos = realTime ? SystemClock.elapsedRealtimeNanos() : 0;
+      long traceNanos = 0;
+      long nextFrameNanos = frameIntervalNanos;
+      // One array per length, so the orientation manager sees as many values as were recorded.
+      float[][] valuesByCount = new float[MAX_ROTATION_VECTOR_SIZE + 1][];
+      for (int i = 0; i < valuesByCount.length; i++) {
+        valuesByCount[i] = new float[i];
+      }
+      int records = 0;
+      long lastRotationNanos = baseNanos - OrientationManager.IDLE_SAMPLE_PERIOD_NANOS;
+      orientationManager.startReplay(baseNanos);
+
+      int type;
+      while ((type = in.read()) >= 0) {
+        long zigzag = TraceRecorder.readVarLong(in);
+        traceNanos += ((zigzag >>> 1) ^ -(zigzag & 1)) * 1000;
+
+        while (callback != null && nextFrameNanos <= traceNanos) {
+          waitUntil(realTime, baseNanos + nextFrameNanos);
+          callback.onFrame(baseNanos + nextFrameNanos);
+          nextFrameNanos += frameIntervalNanos;
+        }
+        waitUntil(realTime, baseNanos + traceNanos);
+
+        long timeNanos = baseNanos + traceNanos;
+        boolean idle = mSimulateSensorRate && orientationManager.isSensorIdle();
+        switch (type) {
+          case TraceRecorder.TYPE_ROTATION_VECTOR:
+            int count = in.readUnsignedByte();
+            float[] values = valuesByCount[Math.min(count, MAX_ROTATION_VECTOR_SIZE)];
+            for (int i = 0; i < count; i++) {
+              float value = in.readFloat();
+              if (i < values.length) {
+                values[i] = value;
+              }
+            }
+            if (!idle
+                || timeNanos - lastRotationNanos >= OrientationManager.IDLE_SAMPLE_PERIOD_NANOS) {
+              orientationManager.onRotationVector(values, timeNanos);
+              lastRotationNanos = timeNanos;
+            }
+            break;
+          case TraceRecorder.TYPE_ACCURACY:
+            int accuracy = in.readUnsignedByte();
+            if (!idle) {
+              orientationManager.onMagneticAccuracy(accuracy, timeNanos);
+            }
+            break;
+          case TraceRecorder.TYPE_LOCATION:
+            Location location = new Location(TraceReplayer.class.getSimpleName());
+            location.setLatitude(in.readDouble());
+            location.setLongitude(in.readDouble());
+            location.setAltitude(in.readDouble());
+            location.setAccuracy(in.readFloat());
+            location.setTime(in.readLong());
+            orientationManager.onLocation(location, timeNanos);
+            break;
+          default:
+            throw new IOException("Unknown record type " + type + " in " + mFile);
+        }
+        records++;
+      }
+
+      if (callback != null) {
+        callback.onFrame(baseNanos + nextFrameNanos);
+      }
+      orientationManager.stopReplay(baseNanos + Math.max(traceNanos, nextFrameNanos));
+      return records;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void waitUntil(boolean realTime, long timeNanos) {
+    if (realTime) {
+      long delayMillis = (timeNanos - SystemClock.elapsedRealtimeNanos()) / 1000000;
+      if (delayMillis > 0) {
+        SystemClock.sleep(delayMillis);
+      }
+    }
+  }
+}
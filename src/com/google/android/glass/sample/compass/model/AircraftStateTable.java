@@ -0,0 +1,342 @@
+package com.google.android.glass.sample.compass.model;
+
+/**
+ * The latest state of each aircraft heard by a local receiver, keyed by address: the 24-bit ICAO
+ * address, with {@link #NON_ICAO} set for the other kinds of address that Mode-S can carry. A
+ * receiver reports each aircraft's fields in separate messages (callsign in one, position in
+ * another, velocity in a third), so decoders merge them here one field at a time, and
+ * {@link #publish} turns the aircraft that changed into {@link Flight}s every so often. For raw
+ * Mode-S, the table also keeps each aircraft's last even and odd CPR position halves, which
+ * {@link Cpr} combines into a position.
+ * <p>
+ * The table is an open-addressing hash table with linear probing over parallel primitive arrays,
+ * so updating a field allocates nothing; the only objects are an aircraft's identification
+ * string, made once when it is first heard, and its callsign, made when it changes. It is not
+ * thread-safe: one decoder thread owns it.
+ */
+public class AircraftStateTable {
+
+  /** default number of slots; at most three quarters of them are used */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /** set in an address that is not an ICAO aircraft address, e.g. from a TIS-B ground station */
+  public static final long NON_ICAO = 1L << 24;
+
+  private static final long EMPTY = -1;
+
+  private static final int HAS_POSITION = 1;
+  private static final int ON_GROUND = 2;
+  private static final int CHANGED = 4;
+  private static final int PUBLISHED = 8;
+
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+  private final int mask;
+  private final int shift;
+  private final int maxSize;
+  private final long[] addresses;
+  private final String[] identifications;
+  private final String[] callsigns;
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final float[] altitudes;
+  private final float[] speeds;
+  private final float[] tracks;
+  private final long[] seenMillis;
+  private final long[] positionMillis;
+  private final int[] flags;
+
+  /** the CPR halves as (latitude << 17) | longitude, and when each was heard, for raw Mode-S */
+  private final long[] evenCpr;
+  private final long[] oddCpr;
+  private final long[] evenCprMillis;
+  private final long[] oddCprMillis;
+  private int size;
+  private int rejectedCount;
+
+  public AircraftStateTable() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity the number of slots, a power of two
+   */
+  public AircraftStateTable(int capacity) {
+    if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+    mask = capacity - 1;
+    shift = 64 - Integer.numberOfTrailingZeros(capacity);
+    maxSize = capacity / 4 * 3;
+    addresses = new long[capacity];
+    identifications = new String[capacity];
+    callsigns = new String[capacity];
+    latitudes = new double[capacity];
+    longitudes = new double[capacity];
+    altitudes = new float[capacity];
+    speeds = new float[capacity];
+    tracks = new float[capacity];
+    seenMillis = new long[capacity];
+    positionMillis = new long[capacity];
+    flags = new int[capacity];
+    evenCpr = new long[capacity];
+    oddCpr = new long[capacity];
+    evenCprMillis = new long[capacity];
+    oddCprMillis = new long[capacity];
+    for (int i = 0; i < capacity; i++) {
+      addresses[i] = EMPTY;
+    }
+  }
+
+  /**
+   * Finds an aircraft's slot, adding the aircraft if it is new, and marks it as heard now.
+   *
+   * @param address the 24-bit ICAO address, or another address with {@link #NON_ICAO} set
+   * @return the slot, or -1 if the table is full
+   */
+  public int slotFor(long address, long nowMillis) {
+    int slot = hash(address);
+    while (addresses[slot] != EMPTY) {
+      if (addresses[slot] == address) {
+        seenMillis[slot] = nowMillis;
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == maxSize) {
+      rejectedCount++;
+      return -1;
+    }
+    size++;
+    addresses[slot] = address;
+    identifications[slot] = toHex(address);
+    callsigns[slot] = "";
+    altitudes[slot] = 0;
+    speeds[slot] = 0;
+    tracks[slot] = 0;
+    flags[slot] = 0;
+    seenMillis[slot] = nowMillis;
+    positionMillis[slot] = 0;
+    evenCprMillis[slot] = 0;
+    oddCprMillis[slot] = 0;
+    return slot;
+  }
+
+  public void setPosition(int slot, double latitude, double longitude, long nowMillis) {
+    latitudes[slot] = latitude;
+    longitudes[slot] = longitude;
+    positionMillis[slot] = nowMillis;
+    flags[slot] |= HAS_POSITION | CHANGED;
+  }
+
+  /**
+   * @return when the aircraft's position was last set, or 0 if it has none
+   */
+  public long getPositionMillis(int slot) {
+    return positionMillis[slot];
+  }
+
+  public double getLatitude(int slot) {
+    return latitudes[slot];
+  }
+
+  public double getLongitude(int slot) {
+    return longitudes[slot];
+  }
+
+  /**
+   * Keeps one half of a CPR-encoded position.
+   *
+   * @param odd true for an odd-format half, false for an even one
+   * @param latitude the 17-bit encoded latitude
+   * @param longitude the 17-bit encoded longitude
+   */
+  public void setCprHalf(int slot, boolean odd, int latitude, int longitude, long nowMillis) {
+    long packed = ((long) latitude << 17) | longitude;
+    if (odd) {
+      oddCpr[slot] = packed;
+      oddCprMillis[slot] = nowMillis;
+    } else {
+      evenCpr[slot] = packed;
+      evenCprMillis[slot] = nowMillis;
+    }
+  }
+
+  /**
+   * @return the 17-bit encoded latitude of the last half of the specified format
+   */
+  public int getCprLatitude(int slot, boolean odd) {
+    return (int) ((odd ? oddCpr[slot] : evenCpr[slot]) >>> 17);
+  }
+
+  /**
+   * @return the 17-bit encoded longitude of the last half of the specified format
+   */
+  public int getCprLongitude(int slot, boolean odd) {
+    return (int) ((odd ? oddCpr[slot] : evenCpr[slot]) & 0x1ffff);
+  }
+
+  /**
+   * @return when the last half of the specified format was heard, or 0 if none was
+   */
+  public long getCprMillis(int slot, boolean odd) {
+    return odd ? oddCprMillis[slot] : evenCprMillis[slot];
+  }
+
+  /**
+   * @param altitude the altitude in feet
+   */
+  public void setAltitude(int slot, float altitude) {
+    altitudes[slot] = altitude;
+    flags[slot] |= CHANGED;
+  }
+
+  /**
+   * @param speed the ground speed in knots
+   * @param track the track in degrees clockwise from north
+   */
+  public void setVelocity(int slot, float speed, float track) {
+    speeds[slot] = speed;
+    tracks[slot] = track;
+    flags[slot] |= CHANGED;
+  }
+
+  public void setOnGround(int slot, boolean onGround) {
+    flags[slot] = onGround ? flags[slot] | ON_GROUND : flags[slot] & ~ON_GROUND;
+  }
+
+  /**
+   * @return the callsign, or "" if none has been heard yet
+   */
+  public String getCallsign(int slot) {
+    return callsigns[slot];
+  }
+
+  public void setCallsign(int slot, String callsign) {
+    if (!callsign.equals(callsigns[slot])) {
+      callsigns[slot] = callsign;
+      flags[slot] |= CHANGED;
+    }
+  }
+
+  /**
+   * @return the number of aircraft in the table
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of times a new aircraft was turned away because the table was full
+   */
+  public int getRejectedCount() {
+    return rejectedCount;
+  }
+
+  /**
+   * Hands every aircraft that has a position and changed since the last call to the target, and
+   * removes the aircraft that have not been heard for {@code maxAgeMillis}, from the table and
+   * from the target. A flight is stamped with the time its position was heard, not the time of the
+   * call, so that other fields changing don't make an old position look new; an aircraft whose
+   * position is older than {@code maxAgeMillis} is removed from the target until a new one is
+   * heard, even if the aircraft is still heard otherwise.
+   *
+   * @return the number of aircraft handed over
+   */
+  public int publish(ReceiverFlightSource target, long nowMillis, long maxAgeMillis) {
+    int published = 0;
+    int slot = 0;
+    while (slot <= mask) {
+      if (addresses[slot] == EMPTY) {
+        slot++;
+      } else if (nowMillis - seenMillis[slot] > maxAgeMillis) {
+        target.remove(identifications[slot]);
+        // Another aircraft may move into this slot, so look at it again.
+        removeAt(slot);
+      } else {
+        boolean stale = nowMillis - positionMillis[slot] > maxAgeMillis;
+        if (stale && (flags[slot] & PUBLISHED) != 0) {
+          target.remove(identifications[slot]);
+          flags[slot] &= ~PUBLISHED;
+        }
+        if (!stale && (flags[slot] & (HAS_POSITION | CHANGED)) == (HAS_POSITION | CHANGED)) {
+          // A flight on the ground is published at altitude 0, which the default filter drops.
+          float altitude = (flags[slot] & ON_GROUND) != 0 ? 0 : altitudes[slot];
+          String callsign = callsigns[slot];
+          target.update(new Flight(identifications[slot], "", "",
+              callsign.length() > 0 ? callsign : identifications[slot], latitudes[slot],
+              longitudes[slot], altitude, tracks[slot], speeds[slot], positionMillis[slot] / 1000,
+              "", null, ""));
+          flags[slot] = (flags[slot] & ~CHANGED) | PUBLISHED;
+          published++;
+        }
+        slot++;
+      }
+    }
+    return published;
+  }
+
+  private int hash(long address) {
+    return (int) ((address * 0x9E3779B97F4A7C15L) >>> shift);
+  }
+
+  /**
+   * Empties a slot, moving later aircraft of the same probe sequence back so they stay findable.
+   */
+  private void removeAt(int slot) {
+    size--;
+    int empty = slot;
+    int next = slot;
+    while (true) {
+      next = (next + 1) & mask;
+      if (addresses[next] == EMPTY) {
+        break;
+      }
+      int home = hash(addresses[next]);
+      // Leave the aircraft where it is if its home slot lies cyclically in (empty, next].
+      boolean stays = empty <= next ? empty < home && home <= next : empty < home || home <= next;
+      if (!stays) {
+        move(next, empty);
+        empty = next;
+      }
+    }
+    addresses[empty] = EMPTY;
+    identifications[empty] = null;
+    callsigns[empty] = null;
+  }
+
+  private void move(int from, int to) {
+    addresses[to] = addresses[from];
+    identifications[to] = identifications[from];
+    callsigns[to] = callsigns[from];
+    latitudes[to] = latitudes[from];
+    longitudes[to] = longitudes[from];
+    altitudes[to] = altitudes[from];
+    speeds[to] = speeds[from];
+    tracks[to] = tracks[from];
+    seenMillis[to] = seenMillis[from];
+    positionMillis[to] = positionMillis[from];
+    flags[to] = flags[from];
+    evenCpr[to] = evenCpr[from];
+    oddCpr[to] = oddCpr[from];
+    evenCprMillis[to] = evenCprMillis[from];
+    oddCprMillis[to] = oddCprMillis[from];
+  }
+
+  /**
+   * @return the address as six hex digits, prefixed with "~" if it is not an ICAO address
+   */
+  private static String toHex(long address) {
+    boolean icao = (address & NON_ICAO) == 0;
+    char[] digits = new char[icao ? 6 : 7];
+    int value = (int) address;
+    for (int i = digits.length - 1; i >= digits.length - 6; i--) {
+      digits[i] = HEX_DIGITS[value & 0xf];
+      value >>>= 4;
+    }
+    if (!icao) {
+      digits[0] = '~';
+    }
+    return new String(digits);
+  }
+}
@@ -0,0 +1,126 @@
+package com.google.android.glass.sample.compass.model;
+
+/**
+ * Compact Position Reporting, the encoding of airborne positions in ADS-B messages. Each message
+ * carries 17 bits of latitude and 17 of longitude within a zone, in one of two formats, even and
+ * odd, whose zones differ in size. An even and an odd message heard within a few seconds of each
+ * other fix the zones and so the position anywhere on earth (global decoding); a single message
+ * fixes it near a known position, such as the aircraft's last one (local decoding).
+ * <p>
+ * All methods take and fill caller-provided values, and allocate nothing.
+ */
+public final class Cpr {
+
+  /** the number of encoded steps within a zone, 2^17 */
+  private static final double STEPS = 131072;
+
+  /** the number of latitude zones */
+  private static final int NZ = 15;
+
+  /**
+   * The latitude below which each number of longitude zones applies: below
+   * {@code TRANSITIONS[nl]} degrees there are at least {@code nl} zones.
+   */
+  private static final double[] TRANSITIONS = new double[60];
+
+  static {
+    for (int nl = 2; nl < 60; nl++) {
+      TRANSITIONS[nl] = Math.toDegrees(Math.acos(Math.sqrt(
+          (1 - Math.cos(Math.PI / (2 * NZ))) / (1 - Math.cos(2 * Math.PI / nl)))));
+    }
+  }
+
+  private Cpr() {
+  }
+
+  /**
+   * @return the number of longitude zones at a latitude, from 59 at the equator to 1 at the poles
+   */
+  public static int longitudeZones(double latitude) {
+    double abs = Math.abs(latitude);
+    for (int nl = 59; nl >= 2; nl--) {
+      if (abs < TRANSITIONS[nl]) {
+        return nl;
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Decodes a position from an even and an odd half, which must be at most ten seconds apart.
+   *
+   * @param latestIsOdd whether the odd half is the newer one, whose position is the one returned
+   * @param out receives the latitude and longitude
+   * @return false if the halves straddle a zone boundary and must wait for newer ones
+   */
+  public static boolean decodeGlobal(int evenLat, int evenLon, int oddLat, int oddLon,
+      boolean latestIsOdd, double[] out) {
+    double latEven = evenLat / STEPS;
+    double latOdd = oddLat / STEPS;
+    double j = Math.floor(59 * latEven - 60 * latOdd + 0.5);
+    double rlatEven = 360.0 / 60 * (mod(j, 60) + latEven);
+    double rlatOdd = 360.0 / 59 * (mod(j, 59) + latOdd);
+    if (rlatEven >= 270) {
+      rlatEven -= 360;
+    }
+    if (rlatOdd >= 270) {
+      rlatOdd -= 360;
+    }
+    int nl = longitudeZones(rlatEven);
+    if (nl != longitudeZones(rlatOdd)) {
+      return false;
+    }
+
+    double lonEven = evenLon / STEPS;
+    double lonOdd = oddLon / STEPS;
+    double m = Math.floor(lonEven * (nl - 1) - lonOdd * nl + 0.5);
+    int zones = Math.max(latestIsOdd ? nl - 1 : nl, 1);
+    double lon = 360.0 / zones * (mod(m, zones) + (latestIsOdd ? lonOdd : lonEven));
+    out[0] = latestIsOdd ? rlatOdd : rlatEven;
+    out[1] = lon >= 180 ? lon - 360 : lon;
+    return true;
+  }
+
+  /**
+   * Decodes a position from one half, near a reference position; the result is only right if the
+   * aircraft is within about 300 km of it.
+   *
+   * @param out receives the latitude and longitude
+   */
+  public static void decodeLocal(boolean odd, int cprLat, int cprLon, double referenceLat,
+      double referenceLon, double[] out) {
+    double dLat = 360.0 / (odd ? 59 : 60);
+    double lat = cprLat / STEPS;
+    double j = Math.floor(referenceLat / dLat)
+        + Math.floor(0.5 + mod(referenceLat, dLat) / dLat - lat);
+    double rlat = dLat * (j + lat);
+
+    double dLon = 360.0 / Math.max(longitudeZones(rlat) - (odd ? 1 : 0), 1);
+    double lon = cprLon / STEPS;
+    double m = Math.floor(referenceLon / dLon)
+        + Math.floor(0.5 + mod(referenceLon, dLon) / dLon - lon);
+    double rlon = dLon * (m + lon);
+    out[0] = rlat;
+    out[1] = rlon >= 180 ? rlon - 360 : (rlon < -180 ? rlon + 360 : rlon);
+  }
+
+  /**
+   * Encodes a position, as a transponder does.
+   *
+   * @param out receives the 17-bit latitude and longitude
+   */
+  public static void encode(double latitude, double longitude, boolean odd, int[] out) {
+    double dLat = 360.0 / (odd ? 59 : 60);
+    double yz = Math.floor(STEPS * mod(latitude, dLat) / dLat + 0.5);
+    double rlat = dLat * (yz / STEPS + Math.floor(latitude / dLat));
+    double dLon = 360.0 / Math.max(longitudeZones(rlat) - (odd ? 1 : 0), 1);
+    double xz = Math.floor(STEPS * mod(longitude, dLon) / dLon + 0.5);
+    out[0] = (int) yz & 0x1ffff;
+    out[1] = (int) xz & 0x1ffff;
+  }
+
+  private static double mod(double a, double b) {
+    double result = a % b;
+    return result < 0 ? result + b : result;
+  }
+}
@@ -0,0 +1,177 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import android.util.Log;
+
+import com.google.android.glass.sample.compass.util.EventLog;
+
+/**
+ * Queries several flight sources at once, e.g. planefinder together with a local receiver (see
+ * {@link ReceiverFlightSource}), and merges what they return. An aircraft reported by more than
+ * one source is kept once, with the position that has the newest timestamp; sources are expected
+ * to identify aircraft the same way.
+ * <p>
+ * Every source runs on a background thread, and a refresh never waits for one: it starts a query
+ * of each source that is due and not still busy, and merges the last result each source
+ * completed, as long as it is at most {@link #MAX_RESULT_AGE_MILLIS} old. A new result is picked
+ * up by the first refresh after it arrives, so refreshes should come more often than the sources
+ * are polled; they cost only the merge. A slow source therefore never holds back the fast
+ * sources' flights, or the thread that refreshes. A query that runs longer than its source's
+ * timeout is logged as late.
+ * <p>
+ * Call {@link #shutdown} when done, to stop the threads.
+ */
+public class FanOutFlightSource implements FlightSource {
+
+  /** how long a source's last result may stand in for it while it is late or failing */
+  public static final long MAX_RESULT_AGE_MILLIS = 30000;
+
+  private static final String TAG = FanOutFlightSource.class.getSimpleName();
+
+  private final List<Member> members = new ArrayList<Member>();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+    private int count;
+
+    @Override
+    public synchronized Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "FlightSource-" + ++count);
+      // Never keep the process alive for a query that is still hanging.
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * A source, its timeout, and its last result.
+   */
+  private static class Member {
+    final FlightSource source;
+    final long timeoutMillis;
+    final long periodMillis;
+    long lastQueryMillis;
+    boolean reportedLate;
+    Future<?> pending;
+    volatile List<Flight> result;
+    volatile long resultTimeMillis;
+
+    Member(FlightSource source, long timeoutMillis, long periodMillis) {
+      this.source = source;
+      this.timeoutMillis = timeoutMillis;
+      this.periodMillis = periodMillis;
+    }
+
+    void fetch(double[] box) {
+      try {
+        List<Flight> flights = source.getFlights(box);
+        resultTimeMillis = System.currentTimeMillis();
+        result = flights;
+      } catch (Exception e) {
+        Log.w(TAG, "Flight source failed: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  /**
+   * Adds a source to query on every refresh.
+   *
+   * @param timeoutMillis how long a query of the source may run before it is logged as late
+   */
+  public synchronized void addSource(FlightSource source, long timeoutMillis) {
+    addSource(source, timeoutMillis, 0);
+  }
+
+  /**
+   * Adds a source to query at most once per period, e.g. a web endpoint that should be polled less
+   * often than a local receiver; in between, its last result is used.
+   *
+   * @param timeoutMillis how long a query of the source may run before it is logged as late
+   * @param periodMillis the least time between two queries of the source
+   */
+  public synchronized void addSource(FlightSource source, long timeoutMillis, long periodMillis) {
+    if (periodMillis >= MAX_RESULT_AGE_MILLIS) {
+      throw new IllegalArgumentException("Results would expire before the source is queried again");
+    }
+    members.add(new Member(source, timeoutMillis, periodMillis));
+  }
+
+  /**
+   * Starts a query of every source that is due and not still busy with an earlier one, and merges
+   * the sources' last results without waiting for the queries.
+   *
+   * @return the merged flights, empty while the first queries are still running
+   * @throws IOException if no source has a result to give and none is still being queried
+   */
+  @Override
+  public synchronized List<Flight> getFlights(double[] box) throws IOException {
+    long nowMillis = System.currentTimeMillis();
+    boolean busy = false;
+    for (int i = 0; i < members.size(); i++) {
+      final Member member = members.get(i);
+      if (member.pending != null && !member.pending.isDone()) {
+        busy = true;
+        if (!member.reportedLate && nowMillis - member.lastQueryMillis > member.timeoutMillis) {
+          member.reportedLate = true;
+          EventLog.event(EventLog.SOURCE_LATE, i, member.timeoutMillis, null);
+        }
+      } else if (nowMillis - member.lastQueryMillis >= member.periodMillis) {
+        busy = true;
+        member.lastQueryMillis = nowMillis;
+        member.reportedLate = false;
+        final double[] query = box.clone();
+        member.pending = executor.submit(new Runnable() {
+          @Override
+          public void run() {
+            member.fetch(query);
+          }
+        });
+      }
+    }
+    return merge(box, nowMillis, busy);
+  }
+
+  /**
+   * Stops querying the sources, interrupting queries that are still running. Later refreshes
+   * fail.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private List<Flight> merge(double[] box, long nowMillis, boolean busy) throws IOException {
+    Map<String, Flight> merged = new HashMap<String, Flight>();
+    boolean answered = false;
+    for (int i = 0; i < members.size(); i++) {
+      Member member = members.get(i);
+      List<Flight> result = member.result;
+      if (result == null || nowMillis - member.resultTimeMillis > MAX_RESULT_AGE_MILLIS) {
+        continue;
+      }
+      answered = true;
+      for (int j = 0; j < result.size(); j++) {
+        Flight flight = result.get(j);
+        // A stand-in result may be from before the user moved.
+        if (!FlightRetrieval.isInside(box, flight)) {
+          continue;
+        }
+        Flight existing = merged.get(flight.identification);
+        if (existing == null || flight.timestamp > existing.timestamp) {
+          merged.put(flight.identification, flight);
+        }
+      }
+    }
+    if (!answered && !busy) {
+      throw new IOException("No flight source answered");
+    }
+    return new ArrayList<Flight>(merged.values());
+  }
+}
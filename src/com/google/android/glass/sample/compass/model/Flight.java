@@ -1,6 +1,7 @@
 package com.google.android.glass.sample.compass.model;
-import java.lang.reflect.Array;
-import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -10,104 +11,160 @@ import org.json.JSONException;
  */
 public class Flight {
 
+  /**
+   * the most type and airline codes to intern; real feeds have a few hundred, so this only guards
+   * against a feed that puts something unique in them
+   */
+  private static final int MAX_INTERNED_CODES = 4096;
+
+  private static final Map<String, String> internedCodes = new HashMap<String, String>();
+
   public final String identification;
-  public final String type;
-  public final String registration;
+  public final String type; // interned
   public final String flightNumber;
   public final double latitude;
   public final double longitude;
-  public final double altitude;
-  public final double angle; // heading
-  public final double speed; // ground speed
-  public final String timestamp; // zulu probably
-  public final String airline;
-  public final String flightNumber2; // not sure
-  public final String[] path;
+  public final float altitude; // feet
+  public final float angle; // heading
+  public final float speed; // ground speed
+  public final long timestamp; // seconds since the epoch, 0 if unknown
+  public final String airline; // interned
 
+  /**
+   * Rarely used fields, read from the feed like the others; only {@link #getPath} is lazy, and
+   * splits the route into airports on first access.
+   */
+  private final String registration;
+  private final String flightNumber2; // not sure
+  private final String route;
+  private volatile String[] path;
+
+  /**
+   * @param identification the aircraft's hex address, which planefinder sends in lowercase; it is
+   *        upper-cased to match the receiver sources, so both identify an aircraft the same way
+   */
   public Flight(String identification, JSONArray input) throws JSONException {
     if (input.length() != 12 && input.length() != 11) {
       throw new IllegalArgumentException("Bad flight json. Input len: " + input.length());
     }
-    this.identification = identification;
-    type = input.getString(0);
+    this.identification = identification.toUpperCase(Locale.US);
+    type = intern(input.getString(0));
     registration = input.getString(1);
     flightNumber = input.getString(2);
     latitude = input.getDouble(3);
     longitude = input.getDouble(4);
-    altitude = input.getDouble(5);
-    angle = input.getDouble(6);
-    speed = input.getDouble(7);
-    timestamp = input.getString(8);
-    airline = input.getString(9);
+    altitude = (float) input.getDouble(5);
+    angle = (float) input.getDouble(6);
+    speed = (float) input.getDouble(7);
+    timestamp = input.optLong(8);
+    airline = intern(input.getString(9));
     if (input.length() == 12) {
       flightNumber2 = input.getString(10);
-      path = input.getString(11).split("-");
+      route = input.getString(11);
     } else {
-      flightNumber2 = "N/A";
-      path = input.getString(10).split("-");
+      flightNumber2 = null;
+      route = input.getString(10);
     }
   }
 
-  @Override
-  public String toString() {
-    return dump(this);
+  /**
+   * @param route the airports the flight calls at, separated by dashes, e.g. "PHL-ORD-SFO"
+   */
+  public Flight(String identification, String type, String registration, String flightNumber,
+      double latitude, double longitude, float altitude, float angle, float speed,
+      long timestamp, String airline, String flightNumber2, String route) {
+    this.identification = identification;
+    this.type = intern(type);
+    this.registration = registration;
+    this.flightNumber = flightNumber;
+    this.latitude = latitude;
+    this.longitude = longitude;
+    this.altitude = altitude;
+    this.angle = angle;
+    this.speed = speed;
+    this.timestamp = timestamp;
+    this.airline = intern(airline);
+    this.flightNumber2 = flightNumber2;
+    this.route = route;
   }
 
-  private static String dump(Object o) {
-    StringBuffer buffer = new StringBuffer();
-    Class<? extends Object> oClass = o.getClass();
-    if (oClass.isArray()) {
-      buffer.append("Array: ");
-      buffer.append("[");
-      for (int i = 0; i < Array.getLength(o); i++) {
-        Object value = Array.get(o, i);
-        if (value.getClass().isPrimitive() || value.getClass() == java.lang.Long.class
-            || value.getClass() == java.lang.Integer.class
-            || value.getClass() == java.lang.Boolean.class
-            || value.getClass() == java.lang.String.class
-            || value.getClass() == java.lang.Double.class
-            || value.getClass() == java.lang.Short.class
-            || value.getClass() == java.lang.Byte.class) {
-          buffer.append(value);
-          if (i != (Array.getLength(o) - 1)) buffer.append(",");
-        } else {
-          buffer.append(dump(value));
-        }
-      }
-      buffer.append("]\n");
-    } else {
-      buffer.append("Class: " + oClass.getName());
-      buffer.append("{\n");
-      while (oClass != null) {
-        Field[] fields = oClass.getDeclaredFields();
-        for (int i = 0; i < fields.length; i++) {
-          fields[i].setAccessible(true);
-          buffer.append(fields[i].getName());
-          buffer.append("=");
-          try {
-            Object value = fields[i].get(o);
-            if (value != null) {
-              if (value.getClass().isPrimitive() || value.getClass() == java.lang.Long.class
-                  || value.getClass() == java.lang.String.class
-                  || value.getClass() == java.lang.Integer.class
-                  || value.getClass() == java.lang.Boolean.class
-                  || value.getClass() == java.lang.Double.class
-                  || value.getClass() == java.lang.Short.class
-                  || value.getClass() == java.lang.Byte.class) {
-                buffer.append(value);
-              } else {
-                buffer.append(dump(value));
-              }
-            }
-          } catch (IllegalAccessException e) {
-            buffer.append(e.getMessage());
-          }
-          buffer.append("\n");
+  /**
+   * @return the registration, or "z.NO-REG" for an untracked aircraft
+   */
+  public String getRegistration() {
+    return registration;
+  }
+
+  /**
+   * @return the secondary flight number, or "N/A" if the feed did not send one
+   */
+  public String getFlightNumber2() {
+    return flightNumber2 != null ? flightNumber2 : "N/A";
+  }
+
+  /**
+   * @return the airports the flight calls at, e.g. {"PHL", "ORD", "SFO"}; decoded on first access
+   */
+  public String[] getPath() {
+    String[] result = path;
+    if (result == null) {
+      result = split(route, '-');
+      path = result;
+    }
+    return result.clone();
+  }
+
+  /**
+   * Splits a string on a character, like {@code String.split} but without compiling a regex,
+   * and keeping trailing empty strings.
+   */
+  private static String[] split(String value, char separator) {
+    int count = 1;
+    for (int i = value.indexOf(separator); i >= 0; i = value.indexOf(separator, i + 1)) {
+      count++;
+    }
+    String[] parts = new String[count];
+    int start = 0;
+    for (int i = 0; i < count - 1; i++) {
+      int end = value.indexOf(separator, start);
+      parts[i] = value.substring(start, end);
+      start = end + 1;
+    }
+    parts[count - 1] = value.substring(start);
+    return parts;
+  }
+
+  /**
+   * Returns a shared instance of a type or airline code, so that thousands of flights don't each
+   * hold their own copy of "B738".
+   */
+  private static String intern(String code) {
+    synchronized (internedCodes) {
+      String interned = internedCodes.get(code);
+      if (interned == null) {
+        interned = code;
+        if (internedCodes.size() < MAX_INTERNED_CODES) {
+          internedCodes.put(code, code);
         }
-        oClass = oClass.getSuperclass();
       }
-      buffer.append("}\n");
+      return interned;
     }
-    return buffer.toString();
+  }
+
+  @Override
+  public String toString() {
+    return new StringBuilder(160).append("Flight{id=").append(identification)
+        .append(", type=").append(type)
+        .append(", flight=").append(flightNumber)
+        .append(", registration=").append(registration)
+        .append(", lat=").append(latitude)
+        .append(", lon=").append(longitude)
+        .append(", alt=").append(altitude)
+        .append(", angle=").append(angle)
+        .append(", speed=").append(speed)
+        .append(", time=").append(timestamp)
+        .append(", airline=").append(airline)
+        .append(", route=").append(route)
+        .append('}').toString();
   }
 }
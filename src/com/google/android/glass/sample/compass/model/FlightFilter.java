@@ -0,0 +1,340 @@
+package com.google.android.glass.sample.compass.model;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import com.google.android.glass.sample.compass.util.EventLog;
+
+/**
+ * Conditions, set by the operator, that a flight must meet to be shown. A filter is parsed once
+ * from a spec of {@code key=value} clauses separated by semicolons, for example
+ * {@code "altitude=1000-20000;airline=!UAL,DAL;distance=15;state=airborne"}:
+ * <ul>
+ * <li>{@code altitude=MIN-MAX}: altitude band in feet; either end may be left out, and MIN may be
+ * negative, as in {@code -100-5000}</li>
+ * <li>{@code speed=MIN-MAX}: ground speed band in knots; either end may be left out</li>
+ * <li>{@code distance=MAX}: the farthest a flight may be from the user, in km</li>
+ * <li>{@code state=airborne} or {@code state=ground}: flights slower than
+ * {@link #GROUND_SPEED_KNOTS} or at altitude 0 count as on the ground</li>
+ * <li>{@code type=CODE,...} and {@code airline=CODE,...}: only these aircraft types or airlines;
+ * a leading "!" means all but these</li>
+ * </ul>
+ * Every parsed filter, like {@link #DEFAULT}, also drops the aircraft that are not worth showing
+ * whatever the operator asks for: untracked ones, for which planefinder has neither a registration
+ * nor a flight number, and landed ones, at altitude 0.
+ * <p>
+ * The conditions are held as plain numbers and code arrays, and checked cheapest first. While
+ * parsing a response, {@link FlightRetrieval} checks each aircraft's raw JSON before building a
+ * {@link Flight} from it, so rejected aircraft cost a few field reads.
+ * <p>
+ * Filters are immutable; {@link #at} gives a copy that knows where the user is, which the distance
+ * condition needs, and {@link #within} one that also keeps only the flights inside a box.
+ */
+public final class FlightFilter {
+
+  /** a filter that accepts every flight, even untracked and landed ones */
+  public static final FlightFilter NONE = new FlightFilter(false);
+
+  /** a filter with no operator conditions, which only drops untracked and landed flights */
+  public static final FlightFilter DEFAULT = new FlightFilter(true);
+
+  /** what {@link #check} found: the flight passes */
+  static final int ACCEPTED = 0;
+  /** what {@link #check} found: the operator's conditions reject the flight */
+  static final int REJECTED = 1;
+  /** what {@link #check} found: the flight is untracked */
+  static final int UNTRACKED = 2;
+  /** what {@link #check} found: the flight has landed */
+  static final int LANDED = 3;
+
+  /** flights slower than this, in knots, count as on the ground */
+  public static final float GROUND_SPEED_KNOTS = 50;
+
+  private static final int STATE_ANY = 0;
+  private static final int STATE_AIRBORNE = 1;
+  private static final int STATE_GROUND = 2;
+
+  private static final double KM_PER_DEGREE = 111.2;
+
+  private float minAltitude = Float.NEGATIVE_INFINITY;
+  private float maxAltitude = Float.POSITIVE_INFINITY;
+  private float minSpeed = Float.NEGATIVE_INFINITY;
+  private float maxSpeed = Float.POSITIVE_INFINITY;
+  private int state = STATE_ANY;
+  private String[] types;
+  private boolean excludeTypes;
+  private String[] airlines;
+  private boolean excludeAirlines;
+  private double maxDistanceKm = Double.POSITIVE_INFINITY;
+  private boolean dropUntracked;
+  private boolean dropLanded;
+
+  /** set by {@link #at}: the user's location, and the distance condition in scaled degrees */
+  private boolean hasCenter;
+  private double centerLat;
+  private double centerLon;
+  private double lonScale;
+  private double maxDegreesSquared;
+
+  /** set by {@link #within}: the box flights must be inside */
+  private boolean hasBox;
+  private double minLat;
+  private double minLon;
+  private double maxLat;
+  private double maxLon;
+
+  private FlightFilter(boolean dropUnshowable) {
+    dropUntracked = dropUnshowable;
+    dropLanded = dropUnshowable;
+  }
+
+  /**
+   * Parses a filter spec; see the class comment for its format. An empty or null spec gives
+   * {@link #DEFAULT}.
+   *
+   * @throws IllegalArgumentException if the spec is malformed
+   */
+  public static FlightFilter parse(String spec) {
+    if (spec == null || spec.trim().length() == 0) {
+      return DEFAULT;
+    }
+    FlightFilter filter = new FlightFilter(true);
+    for (String clause : spec.split(";")) {
+      clause = clause.trim();
+      if (clause.length() == 0) {
+        continue;
+      }
+      int equals = clause.indexOf('=');
+      if (equals < 0) {
+        throw new IllegalArgumentException("Bad filter clause: " + clause);
+      }
+      String key = clause.substring(0, equals).trim();
+      String value = clause.substring(equals + 1).trim();
+      try {
+        if (key.equals("altitude")) {
+          float[] range = parseRange(value);
+          filter.minAltitude = range[0];
+          filter.maxAltitude = range[1];
+        } else if (key.equals("speed")) {
+          float[] range = parseRange(value);
+          filter.minSpeed = range[0];
+          filter.maxSpeed = range[1];
+        } else if (key.equals("distance")) {
+          filter.maxDistanceKm = Double.parseDouble(value);
+        } else if (key.equals("state") && value.equals("airborne")) {
+          filter.state = STATE_AIRBORNE;
+        } else if (key.equals("state") && value.equals("ground")) {
+          filter.state = STATE_GROUND;
+        } else if (key.equals("type")) {
+          filter.excludeTypes = value.startsWith("!");
+          filter.types = parseCodes(filter.excludeTypes ? value.substring(1) : value);
+        } else if (key.equals("airline")) {
+          filter.excludeAirlines = value.startsWith("!");
+          filter.airlines = parseCodes(filter.excludeAirlines ? value.substring(1) : value);
+        } else {
+          throw new IllegalArgumentException("Bad filter clause: " + clause);
+        }
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bad filter clause: " + clause, e);
+      }
+    }
+    return filter;
+  }
+
+  /**
+   * @return a copy of this filter that measures distance from the specified location
+   */
+  public FlightFilter at(double latitude, double longitude) {
+    FlightFilter filter = copy();
+    if (maxDistanceKm != Double.POSITIVE_INFINITY) {
+      filter.hasCenter = true;
+      filter.centerLat = latitude;
+      filter.centerLon = longitude;
+      filter.lonScale = Math.cos(Math.toRadians(latitude));
+      double maxDegrees = maxDistanceKm / KM_PER_DEGREE;
+      filter.maxDegreesSquared = maxDegrees * maxDegrees;
+    }
+    return filter;
+  }
+
+  /**
+   * @param box a box returned by {@link FlightRetrieval#getBoundingBox}
+   * @return a copy of this filter that also rejects the flights outside the box
+   */
+  public FlightFilter within(double[] box) {
+    FlightFilter filter = copy();
+    filter.hasBox = true;
+    filter.minLat = box[0];
+    filter.minLon = box[1];
+    filter.maxLat = box[2];
+    filter.maxLon = box[3];
+    return filter;
+  }
+
+  /**
+   * @return true if this filter accepts every flight
+   */
+  public boolean isEmpty() {
+    return minAltitude == Float.NEGATIVE_INFINITY && maxAltitude == Float.POSITIVE_INFINITY
+        && minSpeed == Float.NEGATIVE_INFINITY && maxSpeed == Float.POSITIVE_INFINITY
+        && state == STATE_ANY && types == null && airlines == null
+        && maxDistanceKm == Double.POSITIVE_INFINITY && !dropUntracked && !dropLanded && !hasBox;
+  }
+
+  /**
+   * Checks a flight, logging it if it is dropped as untracked or landed.
+   */
+  public boolean accepts(Flight flight) {
+    int verdict = check(flight);
+    logDropped(verdict, flight.identification);
+    return verdict == ACCEPTED;
+  }
+
+  /**
+   * @return {@link #ACCEPTED}, or why the flight is dropped
+   */
+  int check(Flight flight) {
+    if (!acceptsNumbers(flight.altitude, flight.speed, flight.latitude, flight.longitude)
+        || (types != null && contains(types, flight.type) == excludeTypes)
+        || (airlines != null && contains(airlines, flight.airline) == excludeAirlines)) {
+      return REJECTED;
+    }
+    return checkShowable(flight.altitude, flight.getRegistration(), flight.flightNumber);
+  }
+
+  /**
+   * Checks an aircraft in the planefinder array layout (see {@link Flight#Flight(String,
+   * JSONArray)}), reading only the fields the conditions need.
+   *
+   * @return {@link #ACCEPTED}, or why the aircraft is dropped
+   */
+  int check(JSONArray input) throws JSONException {
+    if (input.length() < 11) {
+      // Let the Flight constructor reject it, so that it is counted as a failure.
+      return ACCEPTED;
+    }
+    float altitude = (float) input.getDouble(5);
+    if (!acceptsNumbers(altitude, (float) input.getDouble(7), input.getDouble(3),
+        input.getDouble(4))
+        || (types != null && contains(types, input.getString(0)) == excludeTypes)
+        || (airlines != null && contains(airlines, input.getString(9)) == excludeAirlines)) {
+      return REJECTED;
+    }
+    return checkShowable(altitude, input.getString(1), input.getString(2));
+  }
+
+  /**
+   * Logs an aircraft that {@link #check} dropped as untracked or landed.
+   */
+  static void logDropped(int verdict, String identification) {
+    if (verdict == UNTRACKED) {
+      EventLog.event(EventLog.FLIGHT_DROPPED_UNTRACKED, 0, 0, identification);
+    } else if (verdict == LANDED) {
+      EventLog.event(EventLog.FLIGHT_DROPPED_LANDED, 0, 0, identification);
+    }
+  }
+
+  private int checkShowable(float altitude, String registration, String flightNumber) {
+    if (dropUntracked && registration.startsWith("z.NO-REG") && flightNumber.startsWith("z.NO")) {
+      return UNTRACKED;
+    }
+    if (dropLanded && altitude == 0) {
+      return LANDED;
+    }
+    return ACCEPTED;
+  }
+
+  private boolean acceptsNumbers(float altitude, float speed, double latitude, double longitude) {
+    if (altitude < minAltitude || altitude > maxAltitude || speed < minSpeed || speed > maxSpeed) {
+      return false;
+    }
+    if (state != STATE_ANY) {
+      boolean onGround = altitude == 0 || speed < GROUND_SPEED_KNOTS;
+      if (onGround != (state == STATE_GROUND)) {
+        return false;
+      }
+    }
+    if (hasBox && (latitude < minLat || latitude > maxLat || longitude < minLon
+        || longitude > maxLon)) {
+      return false;
+    }
+    if (hasCenter) {
+      double dLat = latitude - centerLat;
+      double dLon = longitude - centerLon;
+      if (dLon > 180) {
+        dLon -= 360;
+      } else if (dLon < -180) {
+        dLon += 360;
+      }
+      dLon *= lonScale;
+      if (dLat * dLat + dLon * dLon > maxDegreesSquared) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private FlightFilter copy() {
+    FlightFilter filter = new FlightFilter(false);
+    filter.minAltitude = minAltitude;
+    filter.maxAltitude = maxAltitude;
+    filter.minSpeed = minSpeed;
+    filter.maxSpeed = maxSpeed;
+    filter.state = state;
+    filter.types = types;
+    filter.excludeTypes = excludeTypes;
+    filter.airlines = airlines;
+    filter.excludeAirlines = excludeAirlines;
+    filter.maxDistanceKm = maxDistanceKm;
+    filter.dropUntracked = dropUntracked;
+    filter.dropLanded = dropLanded;
+    filter.hasCenter = hasCenter;
+    filter.centerLat = centerLat;
+    filter.centerLon = centerLon;
+    filter.lonScale = lonScale;
+    filter.maxDegreesSquared = maxDegreesSquared;
+    filter.hasBox = hasBox;
+    filter.minLat = minLat;
+    filter.minLon = minLon;
+    filter.maxLat = maxLat;
+    filter.maxLon = maxLon;
+    return filter;
+  }
+
+  private static boolean contains(String[] codes, String code) {
+    for (int i = 0; i < codes.length; i++) {
+      if (codes[i].equals(code)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Parses "MIN-MAX", "MIN-" or "-MAX" into {min, max}, with a missing end unbounded. MIN may be
+   * negative, as in "-100-5000", so the separator is the first '-' after the first character; a
+   * value with no such '-' but a leading one is "-MAX".
+   */
+  private static float[] parseRange(String value) {
+    value = value.trim();
+    int dash = value.indexOf('-', 1);
+    if (dash < 0) {
+      if (!value.startsWith("-")) {
+        throw new NumberFormatException(value);
+      }
+      dash = 0;
+    }
+    String min = value.substring(0, dash).trim();
+    String max = value.substring(dash + 1).trim();
+    return new float[] {min.length() == 0 ? Float.NEGATIVE_INFINITY : Float.parseFloat(min),
+        max.length() == 0 ? Float.POSITIVE_INFINITY : Float.parseFloat(max)};
+  }
+
+  private static String[] parseCodes(String value) {
+    String[] codes = value.split(",");
+    for (int i = 0; i < codes.length; i++) {
+      codes[i] = codes[i].trim();
+    }
+    return codes;
+  }
+}
@@ -0,0 +1,255 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recent positions of each aircraft, kept across refreshes so that trails, velocities and
+ * climb/descent trends can be computed without refetching.
+ * <p>
+ * Samples live in one pool of primitive arrays that is allocated up front: every aircraft gets a
+ * slot holding a ring of the last {@code depth} samples of {@link #BYTES_PER_SAMPLE} bytes each
+ * (latitude, longitude and altitude as floats, and the time in seconds as an int), and the number
+ * of slots is whatever fits in the memory cap. An aircraft's slot is freed once it has been missing
+ * from {@link #MISSED_REFRESHES_TO_EVICT} refreshes in a row. If the pool is full, new aircraft
+ * take the slot of the one seen least recently, or go without history if every slot is current.
+ * <p>
+ * {@link FlightManager} records every refresh; queries may come from any thread.
+ */
+public class FlightHistory {
+
+  /** the size of one sample in the pool */
+  public static final int BYTES_PER_SAMPLE = 16;
+
+  /** how many refreshes in a row an aircraft can be missing before its history is dropped */
+  private static final int MISSED_REFRESHES_TO_EVICT = 3;
+
+  private static final double KM_PER_DEGREE = 111.2;
+  private static final double KNOTS_PER_KM_PER_SECOND = 3600 / 1.852;
+
+  private final int depth;
+  private final int slotCount;
+
+  /** the samples of slot s are at indices [s * depth, (s + 1) * depth), as a ring */
+  private final float[] latitudes;
+  private final float[] longitudes;
+  private final float[] altitudes;
+  private final int[] times;
+
+  /** per slot: the index of the newest sample, the sample count, and the last refresh seen */
+  private final int[] heads;
+  private final int[] counts;
+  private final int[] lastSeen;
+  private final String[] owners;
+
+  private final Map<String, Integer> slotsById = new HashMap<String, Integer>();
+  private final int[] freeSlots;
+  private int freeCount;
+  private int generation;
+  private int untrackedCount;
+
+  /**
+   * Creates an empty history.
+   *
+   * @param depth the number of samples kept per aircraft
+   * @param maxBytes the memory cap for the samples of all aircraft
+   */
+  public FlightHistory(int depth, int maxBytes) {
+    if (depth < 2 || maxBytes < depth * BYTES_PER_SAMPLE) {
+      throw new IllegalArgumentException("Depth " + depth + " does not fit in " + maxBytes);
+    }
+    this.depth = depth;
+    slotCount = maxBytes / (depth * BYTES_PER_SAMPLE);
+    latitudes = new float[slotCount * depth];
+    longitudes = new float[slotCount * depth];
+    altitudes = new float[slotCount * depth];
+    times = new int[slotCount * depth];
+    heads = new int[slotCount];
+    counts = new int[slotCount];
+    lastSeen = new int[slotCount];
+    owners = new String[slotCount];
+    freeSlots = new int[slotCount];
+    for (int i = 0; i < slotCount; i++) {
+      freeSlots[i] = slotCount - 1 - i;
+    }
+    freeCount = slotCount;
+  }
+
+  /**
+   * Adds the positions from a refresh, and drops the history of aircraft that have left.
+   *
+   * @param flights the flights of the refresh
+   * @param timeMillis the time of the refresh, used for flights that carry no timestamp
+   */
+  public synchronized void record(List<Flight> flights, long timeMillis) {
+    generation++;
+    untrackedCount = 0;
+    for (int i = 0; i < flights.size(); i++) {
+      Flight flight = flights.get(i);
+      int slot = slotFor(flight.identification);
+      if (slot < 0) {
+        untrackedCount++;
+        continue;
+      }
+      lastSeen[slot] = generation;
+
+      int time = (int) (flight.timestamp != 0 ? flight.timestamp : timeMillis / 1000);
+      int head = slot * depth + heads[slot];
+      if (counts[slot] > 0 && time <= times[head]) {
+        // The feed had nothing newer for this aircraft, or a source lagging behind another sent
+        // an older position; either would give a zero or negative time step.
+        continue;
+      }
+      if (counts[slot] > 0) {
+        heads[slot] = (heads[slot] + 1) % depth;
+        head = slot * depth + heads[slot];
+      }
+      latitudes[head] = (float) flight.latitude;
+      longitudes[head] = (float) flight.longitude;
+      altitudes[head] = flight.altitude;
+      times[head] = time;
+      counts[slot] = Math.min(counts[slot] + 1, depth);
+    }
+
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (owners[slot] != null && generation - lastSeen[slot] >= MISSED_REFRESHES_TO_EVICT) {
+        free(slot);
+      }
+    }
+  }
+
+  /**
+   * Drops all history.
+   */
+  public synchronized void clear() {
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (owners[slot] != null) {
+        free(slot);
+      }
+    }
+  }
+
+  /**
+   * @return the number of samples held for an aircraft
+   */
+  public synchronized int getSampleCount(String identification) {
+    Integer slot = slotsById.get(identification);
+    return slot != null ? counts[slot] : 0;
+  }
+
+  /**
+   * Copies an aircraft's trail, oldest position first.
+   *
+   * @param out receives latitude, longitude pairs; it should hold {@code 2 * depth} values
+   * @return the number of positions copied
+   */
+  public synchronized int getTrail(String identification, float[] out) {
+    Integer slot = slotsById.get(identification);
+    if (slot == null) {
+      return 0;
+    }
+    int count = Math.min(counts[slot], out.length / 2);
+    for (int i = 0; i < count; i++) {
+      int index = sampleIndex(slot, count - 1 - i);
+      out[2 * i] = latitudes[index];
+      out[2 * i + 1] = longitudes[index];
+    }
+    return count;
+  }
+
+  /**
+   * Estimates an aircraft's ground velocity from its two newest positions.
+   *
+   * @param out receives the ground speed in knots and the track in degrees clockwise from north
+   * @return false if there are fewer than two positions, or they are not in time order
+   */
+  public synchronized boolean getVelocity(String identification, float[] out) {
+    Integer slot = slotsById.get(identification);
+    if (slot == null || counts[slot] < 2) {
+      return false;
+    }
+    int newest = sampleIndex(slot, 0);
+    int previous = sampleIndex(slot, 1);
+    int seconds = times[newest] - times[previous];
+    if (seconds <= 0) {
+      return false;
+    }
+    double northKm = (latitudes[newest] - latitudes[previous]) * KM_PER_DEGREE;
+    double eastKm = (longitudes[newest] - longitudes[previous]) * KM_PER_DEGREE
+        * Math.cos(Math.toRadians(latitudes[newest]));
+    out[0] = (float) (Math.hypot(northKm, eastKm) / seconds * KNOTS_PER_KM_PER_SECOND);
+    out[1] = (float) ((Math.toDegrees(Math.atan2(eastKm, northKm)) + 360) % 360);
+    return true;
+  }
+
+  /**
+   * Estimates an aircraft's climb (positive) or descent (negative) rate over its whole history.
+   *
+   * @return the rate in feet per minute, or {@code Float.NaN} if there are fewer than two positions
+   *         or they are not in time order
+   */
+  public synchronized float getVerticalRate(String identification) {
+    Integer slot = slotsById.get(identification);
+    if (slot == null || counts[slot] < 2) {
+      return Float.NaN;
+    }
+    int newest = sampleIndex(slot, 0);
+    int oldest = sampleIndex(slot, counts[slot] - 1);
+    int seconds = times[newest] - times[oldest];
+    if (seconds <= 0) {
+      return Float.NaN;
+    }
+    return (altitudes[newest] - altitudes[oldest]) * 60 / seconds;
+  }
+
+  /**
+   * @return the number of aircraft in the last refresh that got no history because the pool was
+   *         full
+   */
+  public synchronized int getUntrackedCount() {
+    return untrackedCount;
+  }
+
+  /**
+   * @return the index in the pool of an aircraft's sample, counting back from the newest
+   */
+  private int sampleIndex(int slot, int age) {
+    return slot * depth + (heads[slot] - age + depth) % depth;
+  }
+
+  /**
+   * @return the slot of an aircraft, newly taken if it has none, or -1 if the pool is full
+   */
+  private int slotFor(String identification) {
+    Integer existing = slotsById.get(identification);
+    if (existing != null) {
+      return existing;
+    }
+    if (freeCount == 0) {
+      int stalest = -1;
+      for (int slot = 0; slot < slotCount; slot++) {
+        if (lastSeen[slot] < generation && (stalest < 0 || lastSeen[slot] < lastSeen[stalest])) {
+          stalest = slot;
+        }
+      }
+      if (stalest < 0) {
+        return -1;
+      }
+      free(stalest);
+    }
+    int slot = freeSlots[--freeCount];
+    owners[slot] = identification;
+    heads[slot] = 0;
+    counts[slot] = 0;
+    slotsById.put(identification, slot);
+    return slot;
+  }
+
+  private void free(int slot) {
+    slotsById.remove(owners[slot]);
+    owners[slot] = null;
+    counts[slot] = 0;
+    freeSlots[freeCount++] = slot;
+  }
+}
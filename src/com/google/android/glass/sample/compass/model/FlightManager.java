@@ -4,9 +4,12 @@ package com.google.android.glass.sample.compass.model;
 import android.content.Context;
 import android.util.Log;
 
+import com.google.android.glass.sample.compass.util.AllocationTracker;
+import com.google.android.glass.sample.compass.util.EventLog;
+
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -21,14 +24,48 @@ public class FlightManager {
   private static final String TAG = FlightManager.class.getSimpleName();
 
   /**
-   * distance threshold for determining bounding box for aircraft
+   * default distance threshold for determining bounding box for aircraft
+   */
+  public static final double DEFAULT_MAX_DISTANCE_KM = 20;
+
+  private double maxDistanceKm = DEFAULT_MAX_DISTANCE_KM;
+
+  /**
+   * default minimum time between two refreshes, to keep from hammering the endpoint
+   */
+  public static final long DEFAULT_MIN_REFRESH_INTERVAL_MILLIS = 5000;
+
+  private long minRefreshIntervalMillis = DEFAULT_MIN_REFRESH_INTERVAL_MILLIS;
+
+  private FlightSource source = FlightRetrieval.PLANEFINDER;
+
+  /**
+   * default number of positions kept per aircraft; at the default refresh interval this is about
+   * two minutes of trail
+   */
+  public static final int DEFAULT_HISTORY_DEPTH = 24;
+
+  /**
+   * default memory cap for position history, enough for the full depth of about 680 aircraft
+   */
+  public static final int DEFAULT_HISTORY_MAX_BYTES = 256 * 1024;
+
+  private volatile FlightHistory history =
+      new FlightHistory(DEFAULT_HISTORY_DEPTH, DEFAULT_HISTORY_MAX_BYTES);
+
+  /**
+   * where each refreshed snapshot is exported for other apps, or null
    */
-  private static final double MAX_DISTANCE_KM = 20;
+  private FlightSnapshotWriter snapshotWriter;
 
-  private final ArrayList<Flight> flightsLoaded;
+  /**
+   * unmodifiable snapshot of the last successful refresh; kept while a refresh is in progress or
+   * fails, then replaced wholesale so readers on other threads never see a partially refreshed list
+   */
+  private volatile List<Flight> flightsLoaded;
 
   public FlightManager(Context context) {
-    flightsLoaded = new ArrayList<Flight>();
+    flightsLoaded = Collections.emptyList();
     refreshFlights();
   }
   
@@ -36,27 +73,94 @@ public class FlightManager {
     return flightsLoaded.size();
   }
 
-  public synchronized void refreshFlights() {
+  /**
+   * Requests the flights around the current location, unless there is no location yet or the last
+   * refresh was less than the minimum refresh interval ago.
+   *
+   * @return true if the flights were refreshed, false if the refresh was skipped or failed
+   */
+  public synchronized boolean refreshFlights() {
     if (currentLat * currentLon == 0) {
-      Log.w(TAG, "Can't refresh flights--no lat/long info.");
-      return;
+      EventLog.event(EventLog.REFRESH_SKIPPED, 1, 0, null);
+      return false;
     }
-    if (System.currentTimeMillis() - timeLastRefreshed <= 5000) {
-      Log.i(TAG, "Not refreshing flights--timeout not exceeded.");
-      return;
+    long startMillis = System.currentTimeMillis();
+    if (minRefreshIntervalMillis > 0
+        && startMillis - timeLastRefreshed <= minRefreshIntervalMillis) {
+      EventLog.event(EventLog.REFRESH_SKIPPED, 0, 0, null);
+      return false;
     }
-    Log.i(TAG, "Refreshing flights...");
-    flightsLoaded.clear();
-    double[] box = FlightRetrieval.getBoundingBox(currentLat, currentLon, MAX_DISTANCE_KM, null);
+    EventLog.event(EventLog.REFRESH_STARTED, 0, 0, null);
+    long allocations = AllocationTracker.start();
+    double[] box = FlightRetrieval.getBoundingBox(currentLat, currentLon, maxDistanceKm, null);
+    boolean refreshed = false;
     try {
-      ArrayList<Flight> flights = FlightRetrieval.getFlights(box);
-      flightsLoaded.addAll(flights);
+      List<Flight> flights = source.getFlights(box);
+      flightsLoaded = Collections.unmodifiableList(flights);
+      history.record(flights, startMillis);
+      if (snapshotWriter != null) {
+        snapshotWriter.publish(flights, currentLat, currentLon, startMillis);
+      }
+      refreshed = true;
     } catch (Exception e) {
       Log.e(TAG, e.getMessage(), e);
     }
     timeLastRefreshed = System.currentTimeMillis();
+    AllocationTracker.stop(AllocationTracker.REFRESH, allocations);
+    EventLog.event(EventLog.REFRESH_FINISHED, flightsLoaded.size(), timeLastRefreshed - startMillis,
+        refreshed ? "ok" : "failed");
+    return refreshed;
   }
 
+  /**
+   * Sets where flights come from, e.g. {@link SyntheticTraffic} for stress testing. Takes effect
+   * on the next refresh.
+   */
+  public synchronized void setFlightSource(FlightSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Sets the minimum time between two refreshes; zero lets every call refresh, as load tests need.
+   */
+  public synchronized void setMinRefreshInterval(long millis) {
+    minRefreshIntervalMillis = millis;
+  }
+
+  /**
+   * Sets how far from the user flights are requested, e.g. the outermost radius of a
+   * {@link TieredFlightSource}. Takes effect on the next refresh.
+   */
+  public synchronized void setMaxDistance(double km) {
+    maxDistanceKm = km;
+  }
+
+  /**
+   * Replaces the position history with an empty one of the specified depth and memory cap.
+   */
+  public synchronized void setHistoryLimits(int depth, int maxBytes) {
+    history = new FlightHistory(depth, maxBytes);
+  }
+
+  /**
+   * Sets where to export each refreshed snapshot for other apps on the device, or null to stop
+   * exporting. Waits for a refresh in progress, so the previous writer can be closed afterwards.
+   */
+  public synchronized void setSnapshotWriter(FlightSnapshotWriter writer) {
+    snapshotWriter = writer;
+  }
+
+  /**
+   * @return the recent positions of the aircraft, for trails and trends; may be queried from any
+   *         thread
+   */
+  public FlightHistory getHistory() {
+    return history;
+  }
+
+  /**
+   * @return an unmodifiable snapshot of the flights loaded by the last successful refresh
+   */
   public List<Flight> getFlights() {
     return flightsLoaded;
   }
@@ -69,7 +173,8 @@ public class FlightManager {
   }
 
   public void setLocation(double latitude, double longitude) {
-    Log.i(TAG, String.format("Lat/long set to: %f/%f", latitude, longitude));
+    EventLog.event(EventLog.LOCATION_SET, Double.doubleToRawLongBits(latitude),
+        Double.doubleToRawLongBits(longitude), null);
     currentLat = latitude;
     currentLon = longitude;
   }
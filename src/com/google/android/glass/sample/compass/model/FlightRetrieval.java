@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 
 import org.apache.http.HttpResponse;
@@ -20,11 +21,59 @@ import org.json.JSONObject;
 import android.os.StrictMode;
 import android.util.Log;
 
+import com.google.android.glass.sample.compass.util.AllocationTracker;
+import com.google.android.glass.sample.compass.util.EventLog;
+
 /**
  * @author Erik Reed
  */
 public class FlightRetrieval {
 
+  /**
+   * the planefinder update.php endpoint that flights are requested from unless
+   * {@link #setEndpoint} says otherwise
+   */
+  public static final String DEFAULT_ENDPOINT = "http://planefinder.net/endpoints/update.php";
+
+  private static volatile String endpoint = DEFAULT_ENDPOINT;
+
+  private static volatile FlightFilter filter = FlightFilter.DEFAULT;
+
+  /**
+   * flights from planefinder, via {@link #getFlights}
+   */
+  public static final FlightSource PLANEFINDER = new FlightSource() {
+    @Override
+    public List<Flight> getFlights(double[] box) throws IOException, JSONException {
+      return FlightRetrieval.getFlights(box);
+    }
+  };
+
+  /**
+   * Sets the update.php-compatible endpoint that flights are requested from, e.g. a local
+   * stand-in server for offline testing.
+   */
+  public static void setEndpoint(String url) {
+    endpoint = url;
+  }
+
+  public static String getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Sets the operator's conditions on which flights to load; they are applied while parsing, with
+   * distances measured from the center of the requested bounding box. Without one,
+   * {@link FlightFilter#DEFAULT} drops untracked and landed flights.
+   */
+  public static void setFilter(FlightFilter flightFilter) {
+    filter = flightFilter;
+  }
+
+  public static FlightFilter getFilter() {
+    return filter;
+  }
+
   public static ArrayList<Flight> getFlights(double[] box) throws MalformedURLException,
       IOException, JSONException {
     String trackerUrl = getUrl(box);
@@ -39,20 +88,48 @@ public class FlightRetrieval {
     HttpResponse response = httpclient.execute(httpGet);
     StatusLine statusLine = response.getStatusLine();
     if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
+      long allocations = AllocationTracker.start();
       ByteArrayOutputStream out = new ByteArrayOutputStream();
       response.getEntity().writeTo(out);
       out.close();
       inputText = out.toString();
+      AllocationTracker.stop(AllocationTracker.REFRESH_HTTP_BODY, allocations);
     } else {
       // Closes the connection.
       response.getEntity().getContent().close();
       throw new IOException(statusLine.getReasonPhrase());
     }
     
+    FlightFilter boundFilter = filter.at((box[0] + box[2]) / 2, (box[1] + box[3]) / 2);
+    return parseResponse(inputText, boundFilter);
+  }
+
+  /**
+   * Parses an update.php response body into flights, accepting both the object-shaped and the
+   * array-shaped "planes" payloads. Flights that fail to parse are skipped; all others are kept,
+   * even untracked and landed ones.
+   */
+  public static ArrayList<Flight> parseResponse(String inputText) throws JSONException {
+    return parseResponse(inputText, FlightFilter.NONE);
+  }
+
+  /**
+   * Like {@link #parseResponse(String)}, but skips aircraft that the filter rejects without
+   * building a {@link Flight} for them, in the same pass.
+   */
+  public static ArrayList<Flight> parseResponse(String inputText, FlightFilter flightFilter)
+      throws JSONException {
+    long allocations = AllocationTracker.start();
     JSONObject json = new JSONObject(inputText);
-    Log.i("Flights", json.toString(2));
+    AllocationTracker.stop(AllocationTracker.REFRESH_JSON, allocations);
+    if (EventLog.isLoggable(Log.VERBOSE)) {
+      Log.v(EventLog.TAG, json.toString(2));
+    }
+    allocations = AllocationTracker.start();
     ArrayList<Flight> flights = new ArrayList<Flight>();
-    int failed = 0;
+    // Aircraft that failed to parse, and that the filter rejected.
+    int[] skipped = new int[2];
+    FlightFilter checked = flightFilter.isEmpty() ? null : flightFilter;
     try {
       JSONObject plane;
       try {
@@ -60,54 +137,58 @@ public class FlightRetrieval {
       } catch (JSONException e2) {
         plane = json.getJSONObject("planes");
       }
-      failed = parseFlights(flights, failed, plane);
+      parseFlights(flights, skipped, checked, plane);
     } catch (JSONException e) {
       JSONArray planes = json.getJSONArray("planes");
       for (int i = 0; i < planes.length(); i++) {
         JSONObject plane = planes.getJSONObject(i);
-        failed = parseFlights(flights, failed, plane);
+        parseFlights(flights, skipped, checked, plane);
       }
     }
+    AllocationTracker.stop(AllocationTracker.REFRESH_FLIGHTS, allocations);
     boolean isPartial = json.getBoolean("isPartial");
-    Log.i("Flights", flights.toString());
-    System.out.printf("\n\nPartial: %s. Successfully loaded %d flights (%d failed)\n",
-        Boolean.toString(isPartial), flights.size(), failed);
-    return cleanFlights(flights);
+    EventLog.event(EventLog.RESPONSE_PARSED, flights.size(), skipped[0],
+        isPartial ? "partial" : "complete");
+    if (checked != null) {
+      EventLog.event(EventLog.RESPONSE_FILTERED, skipped[1], flights.size(), null);
+    }
+    return flights;
   }
 
-  private static int parseFlights(ArrayList<Flight> flights, int failed, JSONObject plane)
-      throws JSONException {
+  private static void parseFlights(ArrayList<Flight> flights, int[] skipped,
+      FlightFilter flightFilter, JSONObject plane) throws JSONException {
     @SuppressWarnings("unchecked")
     Iterator<String> iter = plane.keys();
     while (iter.hasNext()) {
       String id = iter.next();
+      JSONArray input = plane.getJSONArray(id);
+      int verdict = flightFilter == null ? FlightFilter.ACCEPTED : flightFilter.check(input);
+      if (verdict != FlightFilter.ACCEPTED) {
+        FlightFilter.logDropped(verdict, id);
+        skipped[1]++;
+        continue;
+      }
       try {
-        Flight flight = new Flight(id, plane.getJSONArray(id));
+        Flight flight = new Flight(id, input);
         flights.add(flight);
       } catch (IllegalArgumentException e2) {
-        failed++;
+        skipped[0]++;
       }
     }
-    return failed;
   }
 
   private static String getUrl(double[] box) {
-    return String.format(Locale.getDefault(), "http://planefinder.net/endpoints/update.php?" + "faa=1&bounds="
-        + "%f,%f,%f,%f", box[0], box[1], box[2], box[3]);
+    // Locale.US so that the coordinates never get a decimal comma, which would garble the bounds.
+    return String.format(Locale.US, endpoint + "?faa=1&bounds=%f,%f,%f,%f",
+        box[0], box[1], box[2], box[3]);
   }
   
-  public static ArrayList<Flight> cleanFlights(ArrayList<Flight> flights) {
-    ArrayList<Flight> cleanedFlights = new ArrayList<Flight>(flights.size());
-    for (Flight f : flights) {
-      if (f.registration.startsWith("z.NO-REG") && f.flightNumber.startsWith("z.NO")) {
-        Log.d(FlightRetrieval.class.getName(), "Removing flight (no registration): " + f);
-      } else if (f.altitude == 0) {
-        Log.d(FlightRetrieval.class.getName(), "Removing flight (landed--i.e. zero altitude): " + f);
-      } else {
-        cleanedFlights.add(f);
-      }
-    }
-    return cleanedFlights;
+  /**
+   * @return true if the flight is inside a box returned by {@link #getBoundingBox}
+   */
+  static boolean isInside(double[] box, Flight flight) {
+    return flight.latitude >= box[0] && flight.latitude <= box[2] && flight.longitude >= box[1]
+        && flight.longitude <= box[3];
   }
 
   public static double[] getBoundingBox(double lat, double lon, double radius, double[] asd) {
@@ -0,0 +1,202 @@
+package com.google.android.glass.sample.compass.model;
+
+import com.google.android.glass.sample.compass.util.MathUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Publishes each flight snapshot into a memory-mapped file in a fixed binary layout, so that other
+ * apps on the device can map the same file read-only and see every refresh without copying it or
+ * fetching the flights themselves. The file never changes size or identity while it is open, so a
+ * reader maps it once and keeps reading.
+ * <p>
+ * All values are little-endian. The file starts with a {@link #HEADER_BYTES}-byte header:
+ * <pre>
+ *  0 int    MAGIC
+ *  4 int    VERSION
+ *  8 long   sequence: odd while a snapshot is being written; the generation is half of it
+ * 16 long   snapshot time, in milliseconds since the epoch
+ * 24 double user latitude
+ * 32 double user longitude
+ * 40 int    number of records
+ * 44 int    number of flights in the snapshot, more than the records if it exceeded the capacity
+ * 48 int    capacity, in records
+ * 52 int    RECORD_BYTES
+ * 56 int    checksum of the records: h = rotateLeft(h, 1) ^ word over each int, starting at 0
+ * </pre>
+ * followed by up to capacity records of {@link #RECORD_BYTES} bytes, projected for the user:
+ * <pre>
+ *  0 double latitude
+ *  8 double longitude
+ * 16 float  altitude, in feet
+ * 20 float  ground speed, in knots
+ * 24 float  track, in degrees
+ * 28 float  bearing from the user, in degrees
+ * 32 float  distance from the user, in kilometers
+ * 36 int    position time, in seconds since the epoch
+ * 40 byte[8] identification, in ASCII
+ * 48 byte[8] flight number, in ASCII
+ * 56 byte[4] aircraft type, in ASCII
+ * 60 int    reserved, 0
+ * </pre>
+ * Strings are truncated or padded with zero bytes. A reader reads the sequence, skips the snapshot
+ * if it is odd, reads what it needs, and then checks that the sequence is unchanged and the
+ * checksum matches; otherwise a write overlapped the read and it tries again. The checksum is
+ * there because there is no portable way to order the writer's stores as another process sees
+ * them.
+ * <p>
+ * {@link FlightManager} publishes every successful refresh; the listener is run after each one,
+ * e.g. to notify the app's content observers.
+ */
+public class FlightSnapshotWriter implements Closeable {
+
+  public static final int MAGIC = 0x464c5431; // "FLT1"
+  public static final int VERSION = 1;
+
+  public static final int HEADER_BYTES = 64;
+  public static final int RECORD_BYTES = 64;
+
+  /** enough records for a busy hub at the default query radius */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  public static final int OFFSET_SEQUENCE = 8;
+  public static final int OFFSET_TIME = 16;
+  public static final int OFFSET_USER_LATITUDE = 24;
+  public static final int OFFSET_USER_LONGITUDE = 32;
+  public static final int OFFSET_COUNT = 40;
+  public static final int OFFSET_TOTAL = 44;
+  public static final int OFFSET_CAPACITY = 48;
+  public static final int OFFSET_RECORD_BYTES = 52;
+  public static final int OFFSET_CHECKSUM = 56;
+
+  private static final int IDENTIFICATION_BYTES = 8;
+  private static final int FLIGHT_NUMBER_BYTES = 8;
+  private static final int TYPE_BYTES = 4;
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+  private final Runnable listener;
+  private long sequence;
+
+  /**
+   * Maps the file, creating it or resizing it as needed. If it already holds snapshots in this
+   * layout, the generation carries on from the last one, so readers of the old file never see it
+   * go backwards.
+   *
+   * @param capacity the most records a snapshot can hold
+   * @param listener run after each snapshot is published, or {@code null}
+   */
+  public FlightSnapshotWriter(File path, int capacity, Runnable listener) throws IOException {
+    this.capacity = capacity;
+    this.listener = listener;
+    file = new RandomAccessFile(path, "rw");
+    try {
+      file.setLength(HEADER_BYTES + (long) capacity * RECORD_BYTES);
+      buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+      // Round up, in case the last writer died in the middle of a snapshot.
+      sequence = (buffer.getLong(OFFSET_SEQUENCE) + 1) & ~1L;
+    }
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, VERSION);
+    buffer.putInt(OFFSET_CAPACITY, capacity);
+    buffer.putInt(OFFSET_RECORD_BYTES, RECORD_BYTES);
+    buffer.putLong(OFFSET_SEQUENCE, sequence);
+  }
+
+  /**
+   * Writes a snapshot over the previous one, projecting each flight for the user at the specified
+   * position, and runs the listener.
+   *
+   * @param timeMillis when the flights were fetched
+   */
+  public void publish(List<Flight> flights, double userLatitude, double userLongitude,
+      long timeMillis) {
+    synchronized (this) {
+      int count = Math.min(flights.size(), capacity);
+      buffer.putLong(OFFSET_SEQUENCE, ++sequence);
+
+      for (int i = 0; i < count; i++) {
+        Flight flight = flights.get(i);
+        int record = HEADER_BYTES + i * RECORD_BYTES;
+        buffer.putDouble(record, flight.latitude);
+        buffer.putDouble(record + 8, flight.longitude);
+        buffer.putFloat(record + 16, flight.altitude);
+        buffer.putFloat(record + 20, flight.speed);
+        buffer.putFloat(record + 24, flight.angle);
+        buffer.putFloat(record + 28, MathUtils.getBearing(userLatitude, userLongitude,
+            flight.latitude, flight.longitude));
+        buffer.putFloat(record + 32, MathUtils.getDistance(userLatitude, userLongitude,
+            flight.latitude, flight.longitude));
+        buffer.putInt(record + 36, (int) flight.timestamp);
+        putAscii(record + 40, flight.identification, IDENTIFICATION_BYTES);
+        putAscii(record + 48, flight.flightNumber, FLIGHT_NUMBER_BYTES);
+        putAscii(record + 56, flight.type, TYPE_BYTES);
+        buffer.putInt(record + 60, 0);
+      }
+
+      buffer.putLong(OFFSET_TIME, timeMillis);
+      buffer.putDouble(OFFSET_USER_LATITUDE, userLatitude);
+      buffer.putDouble(OFFSET_USER_LONGITUDE, userLongitude);
+      buffer.putInt(OFFSET_COUNT, count);
+      buffer.putInt(OFFSET_TOTAL, flights.size());
+      buffer.putInt(OFFSET_CHECKSUM, checksum(count));
+      buffer.putLong(OFFSET_SEQUENCE, ++sequence);
+    }
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  /**
+   * @return the generation of the last snapshot published
+   */
+  public synchronized long getGeneration() {
+    return sequence / 2;
+  }
+
+  /**
+   * Closes the file. Readers keep their mappings, and simply see no further snapshots.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    buffer.force();
+    file.close();
+  }
+
+  /**
+   * Computes the checksum of the first {@code count} records, as stored in the header.
+   */
+  private int checksum(int count) {
+    int hash = 0;
+    int end = HEADER_BYTES + count * RECORD_BYTES;
+    for (int offset = HEADER_BYTES; offset < end; offset += 4) {
+      hash = Integer.rotateLeft(hash, 1) ^ buffer.getInt(offset);
+    }
+    return hash;
+  }
+
+  private void putAscii(int offset, String value, int length) {
+    int n = Math.min(value.length(), length);
+    for (int i = 0; i < n; i++) {
+      char c = value.charAt(i);
+      buffer.put(offset + i, (byte) (c < 0x80 ? c : '?'));
+    }
+    for (int i = n; i < length; i++) {
+      buffer.put(offset + i, (byte) 0);
+    }
+  }
+}
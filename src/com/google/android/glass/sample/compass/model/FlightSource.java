@@ -0,0 +1,24 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.json.JSONException;
+
+/**
+ * Where {@link FlightManager} gets its flights from: planefinder by default (see
+ * {@link FlightRetrieval#PLANEFINDER}), a local receiver ({@link ReceiverFlightSource}), recorded
+ * responses ({@link ReplayFlightSource}), or e.g. {@link SyntheticTraffic} for stress testing.
+ * {@link FanOutFlightSource} combines several of them.
+ */
+public interface FlightSource {
+
+  /**
+   * Gets the flights inside a bounding box that the operator's filter accepts, which by default
+   * leaves out untracked and landed aircraft (see {@link FlightFilter#DEFAULT}). Called on
+   * whatever thread refreshes the flights.
+   *
+   * @param box the box, as returned by {@link FlightRetrieval#getBoundingBox}
+   */
+  List<Flight> getFlights(double[] box) throws IOException, JSONException;
+}
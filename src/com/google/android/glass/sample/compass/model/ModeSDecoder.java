@@ -0,0 +1,337 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes raw Mode-S frames from a local receiver, in either of the formats that receivers such as
+ * dump1090 serve: Beast binary ({@link #FORMAT_BEAST}, port 30005) or AVR hex lines such as
+ * {@code *8D4840D6202CC371C32CE0576098;} ({@link #FORMAT_AVR}, port 30002).
+ * <p>
+ * Only DF17 and DF18 extended squitters, the frames that carry ADS-B, are decoded, and only those
+ * whose parity checks out: aircraft identification (the callsign), airborne position with
+ * barometric or GNSS altitude, and airborne velocity over ground. Positions are CPR-encoded (see
+ * {@link Cpr}); an aircraft gets its first position from an even and an odd frame at most
+ * {@link #CPR_PAIR_MILLIS} apart, and after that from every single frame, decoded locally against
+ * its last position. Surface position frames only mark the aircraft as on the ground.
+ * <p>
+ * Frames are decoded from a reusable array, with the 56-bit message field held in a long, so a
+ * frame allocates nothing unless it carries a callsign that differs from the one already known.
+ * Not thread-safe.
+ */
+public class ModeSDecoder implements ReceiverDecoder {
+
+  /** Beast binary: 0x1a, a type byte, a 6-byte timestamp, a signal byte, then the frame */
+  public static final int FORMAT_BEAST = 0;
+
+  /** AVR: a frame as hex digits between "*" (or "@" and a 12-digit timestamp) and ";" */
+  public static final int FORMAT_AVR = 1;
+
+  /** how far apart an even and an odd position frame may be to be decoded together */
+  public static final long CPR_PAIR_MILLIS = 10000;
+
+  /** how long an aircraft's last position stays good enough to decode single frames against */
+  private static final long LOCAL_DECODE_MILLIS = 60000;
+
+  private static final int LONG_FRAME_BYTES = 14;
+  private static final int SHORT_FRAME_BYTES = 7;
+
+  private static final byte BEAST_ESCAPE = 0x1a;
+  private static final int BEAST_HEADER_BYTES = 7;
+
+  private static final char[] CALLSIGN_CHARS =
+      "#ABCDEFGHIJKLMNOPQRSTUVWXYZ##### ###############0123456789######".toCharArray();
+
+  private static final int[] CRC_TABLE = new int[256];
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      int crc = i << 16;
+      for (int bit = 0; bit < 8; bit++) {
+        crc = (crc & 0x800000) != 0 ? (crc << 1) ^ 0xfff409 : crc << 1;
+      }
+      CRC_TABLE[i] = crc & 0xffffff;
+    }
+  }
+
+  private final AircraftStateTable table;
+  private final int format;
+  private final byte[] frame = new byte[LONG_FRAME_BYTES];
+  private final char[] callsign = new char[8];
+  private final double[] position = new double[2];
+
+  private long messageCount;
+  private long badParityCount;
+
+  /**
+   * @param format {@link #FORMAT_BEAST} or {@link #FORMAT_AVR}
+   */
+  public ModeSDecoder(AircraftStateTable table, int format) {
+    if (format != FORMAT_BEAST && format != FORMAT_AVR) {
+      throw new IllegalArgumentException("Unknown format " + format);
+    }
+    this.table = table;
+    this.format = format;
+  }
+
+  /**
+   * Computes the Mode-S parity of the first bytes of a frame, which for DF17 and DF18 must equal
+   * the frame's last three bytes.
+   */
+  public static int parity(byte[] data, int length) {
+    int crc = 0;
+    for (int i = 0; i < length; i++) {
+      crc = ((crc << 8) ^ CRC_TABLE[((crc >>> 16) ^ data[i]) & 0xff]) & 0xffffff;
+    }
+    return crc;
+  }
+
+  @Override
+  public int decode(ByteBuffer buffer, long nowMillis) {
+    return format == FORMAT_BEAST ? decodeBeast(buffer, nowMillis) : decodeAvr(buffer, nowMillis);
+  }
+
+  @Override
+  public long getMessageCount() {
+    return messageCount;
+  }
+
+  /**
+   * @return the number of extended squitters dropped because their parity did not check out
+   */
+  public long getBadParityCount() {
+    return badParityCount;
+  }
+
+  private int decodeBeast(ByteBuffer buffer, long nowMillis) {
+    int frames = 0;
+    int limit = buffer.limit();
+    int start = buffer.position();
+    while (start < limit) {
+      if (buffer.get(start) != BEAST_ESCAPE) {
+        start++;
+        continue;
+      }
+      if (start + 1 >= limit) {
+        break;
+      }
+      byte type = buffer.get(start + 1);
+      int length = type == '3' ? LONG_FRAME_BYTES : type == '2' ? SHORT_FRAME_BYTES
+          : type == '1' ? 2 : -1;
+      if (length < 0) {
+        // Not the start of a frame; resynchronize on the next escape byte.
+        start++;
+        continue;
+      }
+      // Unescape the header and frame: a 0x1a byte in them is sent twice.
+      int needed = BEAST_HEADER_BYTES + length;
+      int read = 0;
+      int i = start + 2;
+      boolean broken = false;
+      while (read < needed && i < limit) {
+        byte b = buffer.get(i++);
+        if (b == BEAST_ESCAPE) {
+          if (i == limit) {
+            i--;
+            break;
+          }
+          if (buffer.get(i) != BEAST_ESCAPE) {
+            // A lone escape byte starts the next frame; this one was cut short.
+            broken = true;
+            i--;
+            break;
+          }
+          i++;
+        }
+        if (read >= BEAST_HEADER_BYTES) {
+          frame[read - BEAST_HEADER_BYTES] = b;
+        }
+        read++;
+      }
+      if (broken) {
+        start = i;
+        continue;
+      }
+      if (read < needed) {
+        break;
+      }
+      messageCount++;
+      frames++;
+      if (length == LONG_FRAME_BYTES) {
+        decodeFrame(nowMillis);
+      }
+      start = i;
+    }
+    buffer.position(start);
+    return frames;
+  }
+
+  private int decodeAvr(ByteBuffer buffer, long nowMillis) {
+    int frames = 0;
+    int limit = buffer.limit();
+    int lineStart = buffer.position();
+    for (int end = lineStart; end < limit; end++) {
+      if (buffer.get(end) != '\n') {
+        continue;
+      }
+      int i = lineStart;
+      lineStart = end + 1;
+      while (i < end && buffer.get(i) != '*' && buffer.get(i) != '@') {
+        i++;
+      }
+      if (i == end) {
+        continue;
+      }
+      // "@" frames carry a 48-bit timestamp ahead of the frame.
+      i += buffer.get(i) == '@' ? 13 : 1;
+      int bytes = 0;
+      boolean bad = false;
+      while (i + 1 < end && buffer.get(i) != ';') {
+        int high = hexValue(buffer.get(i));
+        int low = hexValue(buffer.get(i + 1));
+        if (high < 0 || low < 0 || bytes == LONG_FRAME_BYTES) {
+          bad = true;
+          break;
+        }
+        frame[bytes++] = (byte) ((high << 4) | low);
+        i += 2;
+      }
+      messageCount++;
+      frames++;
+      if (!bad && bytes == LONG_FRAME_BYTES) {
+        decodeFrame(nowMillis);
+      }
+    }
+    buffer.position(lineStart);
+    return frames;
+  }
+
+  private void decodeFrame(long nowMillis) {
+    int df = (frame[0] >> 3) & 0x1f;
+    if (df != 17 && df != 18) {
+      return;
+    }
+    int checksum = ((frame[11] & 0xff) << 16) | ((frame[12] & 0xff) << 8) | (frame[13] & 0xff);
+    if (parity(frame, 11) != checksum) {
+      badParityCount++;
+      return;
+    }
+    long address = ((frame[1] & 0xff) << 16) | ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+    if (df == 18 && (frame[0] & 0x7) != 0) {
+      // Control field 0 is an ADS-B device with an ICAO address; the others are anonymous,
+      // surface vehicle or TIS-B addresses, which may collide with ICAO ones.
+      address |= AircraftStateTable.NON_ICAO;
+    }
+    long me = 0;
+    for (int i = 4; i < 11; i++) {
+      me = (me << 8) | (frame[i] & 0xff);
+    }
+    int typeCode = (int) (me >>> 51);
+    if (typeCode < 1 || typeCode > 22) {
+      return;
+    }
+    int slot = table.slotFor(address, nowMillis);
+    if (slot < 0) {
+      return;
+    }
+    if (typeCode <= 4) {
+      decodeIdentification(slot, me);
+    } else if (typeCode <= 8) {
+      table.setOnGround(slot, true);
+    } else if (typeCode == 19) {
+      decodeVelocity(slot, me);
+    } else {
+      decodeAirbornePosition(slot, me, typeCode, nowMillis);
+    }
+  }
+
+  private void decodeIdentification(int slot, long me) {
+    int length = 0;
+    for (int i = 0; i < 8; i++) {
+      char c = CALLSIGN_CHARS[(int) (me >>> (42 - 6 * i)) & 0x3f];
+      if (c != '#') {
+        callsign[length++] = c;
+      }
+    }
+    while (length > 0 && callsign[length - 1] == ' ') {
+      length--;
+    }
+    String known = table.getCallsign(slot);
+    boolean same = known.length() == length;
+    for (int i = 0; same && i < length; i++) {
+      same = known.charAt(i) == callsign[i];
+    }
+    if (!same) {
+      table.setCallsign(slot, new String(callsign, 0, length));
+    }
+  }
+
+  private void decodeVelocity(int slot, long me) {
+    int subtype = (int) (me >>> 48) & 0x7;
+    if (subtype != 1 && subtype != 2) {
+      // Airspeed and heading rather than velocity over ground.
+      return;
+    }
+    int eastWest = (int) (me >>> 32) & 0x3ff;
+    int northSouth = (int) (me >>> 21) & 0x3ff;
+    if (eastWest == 0 || northSouth == 0) {
+      return;
+    }
+    // Supersonic reports count in units of 4 knots.
+    int unit = subtype == 2 ? 4 : 1;
+    double east = (eastWest - 1) * unit * (((me >>> 42) & 1) != 0 ? -1 : 1);
+    double north = (northSouth - 1) * unit * (((me >>> 31) & 1) != 0 ? -1 : 1);
+    double track = Math.toDegrees(Math.atan2(east, north));
+    table.setVelocity(slot, (float) Math.hypot(east, north),
+        (float) (track < 0 ? track + 360 : track));
+    table.setOnGround(slot, false);
+  }
+
+  private void decodeAirbornePosition(int slot, long me, int typeCode, long nowMillis) {
+    int altitudeCode = (int) (me >>> 36) & 0xfff;
+    if (typeCode >= 20) {
+      // GNSS height, in meters.
+      table.setAltitude(slot, altitudeCode * 3.28084f);
+    } else if ((altitudeCode & 0x10) != 0) {
+      // 25-foot increments; the Gillham-coded 100-foot form (Q bit clear) is not decoded.
+      int n = ((altitudeCode & 0xfe0) >>> 1) | (altitudeCode & 0xf);
+      table.setAltitude(slot, n * 25 - 1000);
+    }
+    table.setOnGround(slot, false);
+
+    boolean odd = ((me >>> 34) & 1) != 0;
+    int cprLat = (int) (me >>> 17) & 0x1ffff;
+    int cprLon = (int) me & 0x1ffff;
+    table.setCprHalf(slot, odd, cprLat, cprLon, nowMillis);
+
+    long otherMillis = table.getCprMillis(slot, !odd);
+    boolean decoded;
+    if (otherMillis != 0 && nowMillis - otherMillis <= CPR_PAIR_MILLIS) {
+      decoded = odd
+          ? Cpr.decodeGlobal(table.getCprLatitude(slot, false),
+              table.getCprLongitude(slot, false), cprLat, cprLon, true, position)
+          : Cpr.decodeGlobal(cprLat, cprLon, table.getCprLatitude(slot, true),
+              table.getCprLongitude(slot, true), false, position);
+    } else if (table.getPositionMillis(slot) != 0
+        && nowMillis - table.getPositionMillis(slot) <= LOCAL_DECODE_MILLIS) {
+      Cpr.decodeLocal(odd, cprLat, cprLon, table.getLatitude(slot), table.getLongitude(slot),
+          position);
+      decoded = true;
+    } else {
+      decoded = false;
+    }
+    if (decoded && position[0] >= -90 && position[0] <= 90) {
+      table.setPosition(slot, position[0], position[1], nowMillis);
+    }
+  }
+
+  private static int hexValue(byte b) {
+    if (b >= '0' && b <= '9') {
+      return b - '0';
+    } else if (b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    } else if (b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    }
+    return -1;
+  }
+}
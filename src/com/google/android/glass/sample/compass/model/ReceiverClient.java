@@ -0,0 +1,170 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import android.util.Log;
+
+/**
+ * Streams a local ADS-B receiver's feed into a {@link ReceiverFlightSource}: the SBS-1 text feed
+ * (see {@link SbsDecoder}), or raw Mode-S frames in the Beast or AVR format (see
+ * {@link ModeSDecoder}). A single background thread reads the socket without blocking into one
+ * reusable buffer, decodes the messages into an {@link AircraftStateTable}, and publishes the
+ * aircraft that changed every {@link #PUBLISH_INTERVAL_MILLIS}, so positions reach the flight
+ * source well within a second of being heard. If the connection fails, drops, or is not made within
+ * {@link #CONNECT_TIMEOUT_MILLIS}, the client tries again every {@link #RECONNECT_DELAY_MILLIS}
+ * until it is stopped.
+ */
+public class ReceiverClient {
+
+  /** the port receivers such as dump1090 serve the SBS-1 feed on */
+  public static final int SBS_PORT = 30003;
+
+  /** the port receivers such as dump1090 serve Beast binary frames on */
+  public static final int BEAST_PORT = 30005;
+
+  /** the port receivers such as dump1090 serve AVR hex frames on */
+  public static final int AVR_PORT = 30002;
+
+  /** how often the aircraft that changed are handed to the flight source */
+  public static final long PUBLISH_INTERVAL_MILLIS = 250;
+
+  /** how long a connection attempt may take before it is abandoned */
+  public static final long CONNECT_TIMEOUT_MILLIS = 5000;
+
+  /** how long to wait before connecting again after the connection failed or dropped */
+  public static final long RECONNECT_DELAY_MILLIS = 5000;
+
+  private static final String TAG = ReceiverClient.class.getSimpleName();
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String host;
+  private final int port;
+  private final ReceiverFlightSource target;
+  private final long maxAgeMillis;
+  private final AircraftStateTable table;
+  private final ReceiverDecoder decoder;
+
+  private volatile boolean running;
+  private volatile long messageCount;
+  private Thread thread;
+
+  /**
+   * @param table the table that the decoder fills in
+   * @param decoder the decoder for the receiver's feed format
+   * @param target where to publish the aircraft heard; aircraft it has not heard for its maximum
+   *        age are removed from it
+   */
+  public ReceiverClient(String host, int port, AircraftStateTable table, ReceiverDecoder decoder,
+      ReceiverFlightSource target, long maxAgeMillis) {
+    this.host = host;
+    this.port = port;
+    this.table = table;
+    this.decoder = decoder;
+    this.target = target;
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        runLoop();
+      }
+    }, TAG);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    // Wakes the thread from select() or sleep(), and closes the channel if it is mid-read.
+    thread.interrupt();
+    thread = null;
+  }
+
+  /**
+   * @return the number of messages decoded since the client was created
+   */
+  public long getMessageCount() {
+    return messageCount;
+  }
+
+  private void runLoop() {
+    while (running) {
+      try {
+        readFeed();
+      } catch (IOException e) {
+        Log.w(TAG, "Receiver feed at " + host + ":" + port + " failed: " + e.getMessage());
+      }
+      try {
+        Thread.sleep(RECONNECT_DELAY_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private void readFeed() throws IOException {
+    Selector readSelector = Selector.open();
+    SocketChannel channel = SocketChannel.open();
+    try {
+      channel.configureBlocking(false);
+      channel.connect(new InetSocketAddress(host, port));
+      channel.register(readSelector, SelectionKey.OP_CONNECT);
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      long lastPublishMillis = System.currentTimeMillis();
+      long connectDeadlineMillis = lastPublishMillis + CONNECT_TIMEOUT_MILLIS;
+
+      while (running) {
+        readSelector.select(PUBLISH_INTERVAL_MILLIS);
+        for (SelectionKey key : readSelector.selectedKeys()) {
+          if (key.isConnectable() && channel.finishConnect()) {
+            key.interestOps(SelectionKey.OP_READ);
+          }
+          if (key.isValid() && key.isReadable()) {
+            if (channel.read(buffer) < 0) {
+              throw new EOFException("Receiver closed the connection");
+            }
+            buffer.flip();
+            decoder.decode(buffer, System.currentTimeMillis());
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+              // A whole buffer without a complete message is not the expected feed; start over.
+              buffer.clear();
+            }
+            messageCount = decoder.getMessageCount();
+          }
+        }
+        readSelector.selectedKeys().clear();
+
+        long nowMillis = System.currentTimeMillis();
+        if (!channel.isConnected() && nowMillis >= connectDeadlineMillis) {
+          // A host that drops the SYN would otherwise leave the connection pending forever.
+          throw new SocketTimeoutException("No connection after " + CONNECT_TIMEOUT_MILLIS + " ms");
+        }
+        if (nowMillis - lastPublishMillis >= PUBLISH_INTERVAL_MILLIS) {
+          table.publish(target, nowMillis, maxAgeMillis);
+          lastPublishMillis = nowMillis;
+        }
+      }
+    } finally {
+      channel.close();
+      readSelector.close();
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the byte stream of a local ADS-B receiver into an {@link AircraftStateTable}; see
+ * {@link SbsDecoder} and {@link ModeSDecoder}. Implementations are not thread-safe.
+ */
+public interface ReceiverDecoder {
+
+  /**
+   * Decodes every complete message between the buffer's position and limit, and advances the
+   * position past them; an incomplete last message is left for the next call, after
+   * {@link ByteBuffer#compact()}.
+   *
+   * @param nowMillis the time the bytes were received
+   * @return the number of messages decoded
+   */
+  int decode(ByteBuffer buffer, long nowMillis);
+
+  /**
+   * @return the number of messages decoded so far, including malformed ones
+   */
+  long getMessageCount();
+}
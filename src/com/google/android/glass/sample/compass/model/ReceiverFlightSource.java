@@ -0,0 +1,72 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Flights pushed by a local ADS-B receiver rather than polled. A decoder calls
+ * {@link #update(Flight)} whenever it has a newer position for an aircraft, from its own thread;
+ * a refresh then returns the latest position of every aircraft inside the box that passes the
+ * operator's filter (see {@link FlightRetrieval#setFilter}), without waiting on the network.
+ * Aircraft the receiver has not heard from in a while are dropped.
+ */
+public class ReceiverFlightSource implements FlightSource {
+
+  /** default time after which an aircraft that has gone quiet is dropped */
+  public static final long DEFAULT_MAX_AGE_MILLIS = 60000;
+
+  private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+  private final long maxAgeMillis;
+
+  public ReceiverFlightSource() {
+    this(DEFAULT_MAX_AGE_MILLIS);
+  }
+
+  /**
+   * @param maxAgeMillis the time after which an aircraft that has gone quiet is dropped
+   */
+  public ReceiverFlightSource(long maxAgeMillis) {
+    this.maxAgeMillis = maxAgeMillis;
+  }
+
+  /**
+   * Replaces an aircraft's last known state. The flight's timestamp should be when the receiver
+   * heard it, and its registration and flight number must not be null ("" if unknown).
+   */
+  public void update(Flight flight) {
+    flights.put(flight.identification, flight);
+  }
+
+  /**
+   * Forgets an aircraft, e.g. when the decoder evicts it.
+   */
+  public void remove(String identification) {
+    flights.remove(identification);
+  }
+
+  /**
+   * @return the number of aircraft currently known, inside the box or not
+   */
+  public int size() {
+    return flights.size();
+  }
+
+  @Override
+  public List<Flight> getFlights(double[] box) {
+    long oldestSeconds = (System.currentTimeMillis() - maxAgeMillis) / 1000;
+    FlightFilter filter =
+        FlightRetrieval.getFilter().at((box[0] + box[2]) / 2, (box[1] + box[3]) / 2);
+    ArrayList<Flight> inside = new ArrayList<Flight>();
+    for (Flight flight : flights.values()) {
+      if (flight.timestamp < oldestSeconds) {
+        // Only if the decoder has not replaced it in the meantime.
+        flights.remove(flight.identification, flight);
+      } else if (FlightRetrieval.isInside(box, flight) && filter.accepts(flight)) {
+        inside.add(flight);
+      }
+    }
+    return inside;
+  }
+}
@@ -0,0 +1,60 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.json.JSONException;
+
+/**
+ * Replays recorded update.php responses, such as benchmarks/payloads/recorded-sfo.json, one file
+ * per refresh and starting over after the last one. The responses go through the same parsing and
+ * filtering (see {@link FlightRetrieval#setFilter}) as live ones, and only the flights inside
+ * the requested box are returned. Replayed flights keep their recorded
+ * timestamps, so {@link FanOutFlightSource} prefers any live source's positions over them.
+ */
+public class ReplayFlightSource implements FlightSource {
+
+  private final File[] files;
+  private int next;
+
+  /**
+   * @param files the responses, in the order to replay them
+   */
+  public ReplayFlightSource(File... files) {
+    if (files.length == 0) {
+      throw new IllegalArgumentException("Nothing to replay");
+    }
+    this.files = files.clone();
+  }
+
+  @Override
+  public List<Flight> getFlights(double[] box) throws IOException, JSONException {
+    File file;
+    synchronized (this) {
+      file = files[next];
+      next = (next + 1) % files.length;
+    }
+    FlightFilter filter = FlightRetrieval.getFilter()
+        .at((box[0] + box[2]) / 2, (box[1] + box[3]) / 2).within(box);
+    return FlightRetrieval.parseResponse(read(file), filter);
+  }
+
+  private static String read(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = in.read(buffer)) > 0) {
+        out.write(buffer, 0, read);
+      }
+      return out.toString("UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+}
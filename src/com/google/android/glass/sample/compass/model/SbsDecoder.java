@@ -0,0 +1,236 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the SBS-1 (BaseStation) text stream that ADS-B receivers such as dump1090 serve on port
+ * 30003, one CSV line per message:
+ *
+ * <pre>
+ * MSG,3,1,1,A9ACB8,1,2013/12/05,06:19:13.000,2013/12/05,06:19:13.000,,9600,,,37.52,-121.75,,,,,,0
+ * </pre>
+ *
+ * The fields used are the hex ICAO address (5th), callsign (11th), altitude in feet (12th), ground
+ * speed in knots (13th), track (14th), latitude and longitude (15th and 16th), and the on-ground
+ * flag (22nd). Each message type fills in only some of them; whatever a line has goes into an
+ * {@link AircraftStateTable}.
+ * <p>
+ * Lines are decoded straight from the bytes in the buffer, including the numbers, so a message
+ * allocates nothing unless it carries a callsign that differs from the one already known. Not
+ * thread-safe.
+ */
+public class SbsDecoder implements ReceiverDecoder {
+
+  private static final int MAX_FIELDS = 22;
+
+  private static final int FIELD_ADDRESS = 4;
+  private static final int FIELD_CALLSIGN = 10;
+  private static final int FIELD_ALTITUDE = 11;
+  private static final int FIELD_SPEED = 12;
+  private static final int FIELD_TRACK = 13;
+  private static final int FIELD_LATITUDE = 14;
+  private static final int FIELD_LONGITUDE = 15;
+  private static final int FIELD_ON_GROUND = 21;
+
+  private static final double[] POWERS_OF_TEN = new double[19];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  private final AircraftStateTable table;
+
+  /** where each field of the current line starts and ends in the buffer */
+  private final int[] starts = new int[MAX_FIELDS];
+  private final int[] ends = new int[MAX_FIELDS];
+
+  private long messageCount;
+  private long malformedCount;
+
+  public SbsDecoder(AircraftStateTable table) {
+    this.table = table;
+  }
+
+  @Override
+  public int decode(ByteBuffer buffer, long nowMillis) {
+    int lines = 0;
+    int lineStart = buffer.position();
+    int limit = buffer.limit();
+    int fields = 0;
+    int fieldStart = lineStart;
+    for (int i = lineStart; i < limit; i++) {
+      byte b = buffer.get(i);
+      if (b == ',' || b == '\n') {
+        if (fields < MAX_FIELDS) {
+          int end = i;
+          if (b == '\n' && end > fieldStart && buffer.get(end - 1) == '\r') {
+            end--;
+          }
+          starts[fields] = fieldStart;
+          ends[fields] = end;
+          fields++;
+        }
+        fieldStart = i + 1;
+        if (b == '\n') {
+          decodeLine(buffer, fields, nowMillis);
+          lines++;
+          fields = 0;
+          lineStart = i + 1;
+        }
+      }
+    }
+    buffer.position(lineStart);
+    return lines;
+  }
+
+  @Override
+  public long getMessageCount() {
+    return messageCount;
+  }
+
+  /**
+   * @return the number of lines that were not messages or had a bad address or number
+   */
+  public long getMalformedCount() {
+    return malformedCount;
+  }
+
+  private void decodeLine(ByteBuffer buffer, int fields, long nowMillis) {
+    messageCount++;
+    if (fields <= FIELD_LONGITUDE || ends[0] - starts[0] != 3 || buffer.get(starts[0]) != 'M'
+        || buffer.get(starts[0] + 1) != 'S' || buffer.get(starts[0] + 2) != 'G') {
+      malformedCount++;
+      return;
+    }
+    int address = parseHex(buffer, starts[FIELD_ADDRESS], ends[FIELD_ADDRESS]);
+    if (address < 0) {
+      malformedCount++;
+      return;
+    }
+    int slot = table.slotFor(address, nowMillis);
+    if (slot < 0) {
+      return;
+    }
+
+    if (!isEmpty(FIELD_CALLSIGN)) {
+      updateCallsign(buffer, slot);
+    }
+    if (!isEmpty(FIELD_ALTITUDE)) {
+      double altitude = parseNumber(buffer, starts[FIELD_ALTITUDE], ends[FIELD_ALTITUDE]);
+      if (altitude == altitude) {
+        table.setAltitude(slot, (float) altitude);
+      }
+    }
+    if (!isEmpty(FIELD_SPEED) && !isEmpty(FIELD_TRACK)) {
+      double speed = parseNumber(buffer, starts[FIELD_SPEED], ends[FIELD_SPEED]);
+      double track = parseNumber(buffer, starts[FIELD_TRACK], ends[FIELD_TRACK]);
+      if (speed == speed && track == track) {
+        table.setVelocity(slot, (float) speed, (float) track);
+      }
+    }
+    if (!isEmpty(FIELD_LATITUDE) && !isEmpty(FIELD_LONGITUDE)) {
+      double latitude = parseNumber(buffer, starts[FIELD_LATITUDE], ends[FIELD_LATITUDE]);
+      double longitude = parseNumber(buffer, starts[FIELD_LONGITUDE], ends[FIELD_LONGITUDE]);
+      if (latitude == latitude && longitude == longitude) {
+        table.setPosition(slot, latitude, longitude, nowMillis);
+      }
+    }
+    if (fields > FIELD_ON_GROUND && !isEmpty(FIELD_ON_GROUND)) {
+      // -1 means on the ground; some receivers send 1 instead.
+      table.setOnGround(slot, buffer.get(starts[FIELD_ON_GROUND]) != '0');
+    }
+  }
+
+  private boolean isEmpty(int field) {
+    return starts[field] == ends[field];
+  }
+
+  /**
+   * Replaces the callsign only if it changed, so that the usual repeat costs no allocation.
+   */
+  private void updateCallsign(ByteBuffer buffer, int slot) {
+    int start = starts[FIELD_CALLSIGN];
+    int end = ends[FIELD_CALLSIGN];
+    // Callsigns are padded with spaces to eight characters.
+    while (end > start && buffer.get(end - 1) == ' ') {
+      end--;
+    }
+    String known = table.getCallsign(slot);
+    boolean same = known.length() == end - start;
+    for (int i = 0; same && i < end - start; i++) {
+      same = known.charAt(i) == buffer.get(start + i);
+    }
+    if (!same) {
+      char[] chars = new char[end - start];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = (char) buffer.get(start + i);
+      }
+      table.setCallsign(slot, new String(chars));
+    }
+  }
+
+  /**
+   * @return the value of up to six hex digits, or -1 if there are none or something else
+   */
+  private static int parseHex(ByteBuffer buffer, int start, int end) {
+    if (end <= start || end - start > 6) {
+      return -1;
+    }
+    int value = 0;
+    for (int i = start; i < end; i++) {
+      int b = buffer.get(i);
+      int digit;
+      if (b >= '0' && b <= '9') {
+        digit = b - '0';
+      } else if (b >= 'A' && b <= 'F') {
+        digit = b - 'A' + 10;
+      } else if (b >= 'a' && b <= 'f') {
+        digit = b - 'a' + 10;
+      } else {
+        return -1;
+      }
+      value = (value << 4) | digit;
+    }
+    return value;
+  }
+
+  /**
+   * Parses a decimal number such as "-121.75" without building a string.
+   *
+   * @return the number, or NaN if the field is not one
+   */
+  private static double parseNumber(ByteBuffer buffer, int start, int end) {
+    boolean negative = start < end && buffer.get(start) == '-';
+    int i = negative || (start < end && buffer.get(start) == '+') ? start + 1 : start;
+    long mantissa = 0;
+    int scale = -1;
+    int digits = 0;
+    for (; i < end; i++) {
+      int b = buffer.get(i);
+      if (b == '.' && scale < 0) {
+        scale = 0;
+      } else if (b >= '0' && b <= '9') {
+        // Digits past what a long holds only add precision the feeds don't have.
+        if (digits < 18) {
+          mantissa = mantissa * 10 + (b - '0');
+          digits++;
+          if (scale >= 0) {
+            scale++;
+          }
+        } else if (scale < 0) {
+          return Double.NaN;
+        }
+      } else {
+        return Double.NaN;
+      }
+    }
+    if (digits == 0) {
+      return Double.NaN;
+    }
+    double value = scale > 0 ? mantissa / POWERS_OF_TEN[Math.min(scale, 18)] : mantissa;
+    return negative ? -value : value;
+  }
+}
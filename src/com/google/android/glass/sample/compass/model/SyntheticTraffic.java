@@ -0,0 +1,375 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A deterministic generator of dense airspace around a hub airport, for stress testing everything
+ * downstream of {@link FlightManager} with far more aircraft than a real feed delivers. Plug it in
+ * with {@link FlightManager#setFlightSource}.
+ * <p>
+ * The traffic is a mix of departures climbing out along the runway and then turning onto their
+ * outbound course, arrivals descending onto a three degree final, aircraft in racetrack holding
+ * stacks, and high overflights. Every aircraft's position is a function of time alone, so motion
+ * is continuous from one refresh to the next, and the same seed and time always give the same
+ * flights. Departures and arrivals spend part of each cycle on the ground, where the default
+ * {@link FlightFilter} drops them as it does real landed aircraft, as well as a share of
+ * untracked aircraft without a registration.
+ */
+public class SyntheticTraffic implements FlightSource {
+
+  private static final int DEPARTURE = 0;
+  private static final int ARRIVAL = 1;
+  private static final int HOLDING = 2;
+  private static final int OVERFLIGHT = 3;
+
+  /** the radius of the simulated airspace; it covers the bounding box FlightManager asks for */
+  private static final double AIRSPACE_RADIUS_KM = 30;
+
+  private static final double KM_PER_DEGREE = 111.2;
+  private static final double FEET_PER_KM = 3280.84;
+  private static final double KM_PER_SECOND_PER_KNOT = 1.852 / 3600;
+
+  /** departures fly the runway heading for this long before turning onto their course */
+  private static final double CLIMB_OUT_KM = 5;
+  private static final double CLIMB_FEET_PER_KM = 330;
+
+  /** arrivals join the final approach this far from touchdown */
+  private static final double FINAL_KM = 15;
+  private static final double GLIDE_FEET_PER_KM = FEET_PER_KM * Math.tan(Math.toRadians(3));
+  private static final double DESCENT_FEET_PER_KM = 300;
+  private static final double MAX_ARRIVAL_FEET = 12000;
+
+  /** time spent on the ground between two departures or two arrivals of the same aircraft */
+  private static final double MIN_GROUND_SECONDS = 60;
+  private static final double MAX_GROUND_SECONDS = 600;
+
+  /** a standard holding pattern: one minute legs and one minute turns */
+  private static final double HOLDING_LEG_SECONDS = 60;
+  private static final double HOLDING_KNOTS = 220;
+
+  /** the share of aircraft that are untracked, i.e. have no registration or flight number */
+  private static final double UNTRACKED_SHARE = 0.1;
+
+  private static final String HUB = "HUB";
+  private static final String[] AIRPORTS = {"ATL", "BOS", "DEN", "DFW", "JFK", "LAS", "LAX", "ORD",
+      "PDX", "PHX", "SAN", "SEA"};
+  private static final String[] AIRLINES = {"UAL", "SWA", "DAL", "AAL", "ASA", "SKW", "VRD", "JBU"};
+  private static final String[] AIRLINE_CODES = {"UA", "WN", "DL", "AA", "AS", "OO", "VX", "B6"};
+  private static final String[] TYPES = {"A319", "A320", "A321", "B737", "B738", "B739", "B752",
+      "B772", "CRJ2", "CRJ7", "E120", "E175"};
+
+  private final double hubLat;
+  private final double hubLon;
+  private final double lonScale;
+
+  /** the runway heading, in radians, shared by all departures and arrivals */
+  private final double runway;
+
+  /** each aircraft's kind, phase, and kind-specific parameters, indexed by aircraft */
+  private final int[] kinds;
+  private final double[] offsets;
+  private final double[] periods;
+  private final double[] knots;
+  private final double[] courses;
+  private final double[] distances;
+  private final double[] altitudes;
+
+  private final String[] identifications;
+  private final String[] types;
+  private final String[] registrations;
+  private final String[] flightNumbers;
+  private final String[] airlines;
+  private final String[] flightNumbers2;
+  private final String[] routes;
+
+  /** scratch space for {@link #locate}: east and north in km, altitude in feet, speed in knots */
+  private final double[] here = new double[4];
+  private final double[] next = new double[4];
+
+  /**
+   * Creates a generator.
+   *
+   * @param hubLat the hub airport's latitude
+   * @param hubLon the hub airport's longitude
+   * @param count the number of aircraft in the airspace, including those on the ground
+   * @param seed the seed that all aircraft are derived from
+   */
+  public SyntheticTraffic(double hubLat, double hubLon, int count, long seed) {
+    this.hubLat = hubLat;
+    this.hubLon = hubLon;
+    lonScale = Math.cos(Math.toRadians(hubLat));
+
+    Random random = new Random(seed);
+    runway = Math.toRadians(random.nextInt(36) * 10);
+    kinds = new int[count];
+    offsets = new double[count];
+    periods = new double[count];
+    knots = new double[count];
+    courses = new double[count];
+    distances = new double[count];
+    altitudes = new double[count];
+    identifications = new String[count];
+    types = new String[count];
+    registrations = new String[count];
+    flightNumbers = new String[count];
+    airlines = new String[count];
+    flightNumbers2 = new String[count];
+    routes = new String[count];
+
+    for (int i = 0; i < count; i++) {
+      double kind = random.nextDouble();
+      double course = random.nextDouble() * 2 * Math.PI;
+      double ground = MIN_GROUND_SECONDS
+          + random.nextDouble() * (MAX_GROUND_SECONDS - MIN_GROUND_SECONDS);
+      String other = AIRPORTS[random.nextInt(AIRPORTS.length)];
+      String route;
+      if (kind < 0.3) {
+        kinds[i] = DEPARTURE;
+        knots[i] = 180 + random.nextInt(60);
+        courses[i] = course;
+        periods[i] = departureLength(course) / speedKmPerSecond(i) + ground;
+        route = HUB + "-" + other;
+      } else if (kind < 0.6) {
+        kinds[i] = ARRIVAL;
+        knots[i] = 160 + random.nextInt(60);
+        courses[i] = course;
+        periods[i] = arrivalLength(course) / speedKmPerSecond(i) + ground;
+        route = other + "-" + HUB;
+      } else if (kind < 0.8) {
+        kinds[i] = HOLDING;
+        knots[i] = HOLDING_KNOTS;
+        // Four stacks at the corners of the airspace, each with aircraft every thousand feet.
+        courses[i] = runway + random.nextInt(4) * Math.PI / 2;
+        distances[i] = 20;
+        altitudes[i] = 5000 + random.nextInt(10) * 1000;
+        periods[i] = 4 * HOLDING_LEG_SECONDS;
+        route = other + "-" + HUB;
+      } else {
+        kinds[i] = OVERFLIGHT;
+        knots[i] = 420 + random.nextInt(80);
+        courses[i] = course;
+        // The signed distance of the track from the hub.
+        distances[i] = (random.nextDouble() * 2 - 1) * AIRSPACE_RADIUS_KM * 0.95;
+        altitudes[i] = 25000 + random.nextInt(15) * 1000;
+        double chord = 2 * Math.sqrt(AIRSPACE_RADIUS_KM * AIRSPACE_RADIUS_KM
+            - distances[i] * distances[i]);
+        periods[i] = chord / speedKmPerSecond(i) * (1 + random.nextDouble());
+        route = other + "-" + AIRPORTS[random.nextInt(AIRPORTS.length)];
+      }
+      offsets[i] = random.nextDouble() * periods[i];
+
+      identifications[i] = String.format(Locale.US, "%06X", 0xA00000 + i);
+      if (random.nextDouble() < UNTRACKED_SHARE) {
+        types[i] = "????";
+        registrations[i] = "z.NO-REG";
+        flightNumbers[i] = "z.NO-" + identifications[i].toLowerCase(Locale.US);
+        airlines[i] = "Z.N";
+        flightNumbers2[i] = "";
+        routes[i] = "";
+      } else {
+        int airline = random.nextInt(AIRLINES.length);
+        int number = 1 + random.nextInt(2999);
+        types[i] = TYPES[random.nextInt(TYPES.length)];
+        registrations[i] = String.format(Locale.US, "N%d%c%c", 100 + random.nextInt(900),
+            (char) ('A' + random.nextInt(26)), (char) ('A' + random.nextInt(26)));
+        flightNumbers[i] = AIRLINES[airline] + number;
+        airlines[i] = AIRLINES[airline];
+        flightNumbers2[i] = AIRLINE_CODES[airline] + number;
+        routes[i] = route;
+      }
+    }
+  }
+
+  /**
+   * Gets the flights inside the box at the current time.
+   */
+  @Override
+  public List<Flight> getFlights(double[] box) {
+    return getFlights(box, System.currentTimeMillis());
+  }
+
+  /**
+   * Gets the flights inside the box at the specified time, filtered like
+   * {@link FlightRetrieval#getFlights}.
+   *
+   * @param timeMillis the wall-clock time
+   */
+  public synchronized ArrayList<Flight> getFlights(double[] box, long timeMillis) {
+    double seconds = timeMillis / 1000.0;
+    long timestamp = timeMillis / 1000;
+    FlightFilter filter =
+        FlightRetrieval.getFilter().at((box[0] + box[2]) / 2, (box[1] + box[3]) / 2);
+    ArrayList<Flight> flights = new ArrayList<Flight>();
+    for (int i = 0; i < kinds.length; i++) {
+      if (!locate(i, seconds, here)) {
+        continue;
+      }
+      double lat = hubLat + here[1] / KM_PER_DEGREE;
+      double lon = hubLon + here[0] / (KM_PER_DEGREE * lonScale);
+      if (lat < box[0] || lat > box[2] || lon < box[1] || lon > box[3]) {
+        continue;
+      }
+      double track = 0;
+      if (locate(i, seconds + 1, next) && (next[0] != here[0] || next[1] != here[1])) {
+        track = Math.toDegrees(Math.atan2(next[0] - here[0], next[1] - here[1]));
+        track = (track + 360) % 360;
+      }
+      Flight flight = new Flight(identifications[i], types[i], registrations[i],
+          flightNumbers[i], lat, lon, Math.round(here[2]), Math.round(track), Math.round(here[3]),
+          timestamp, airlines[i], flightNumbers2[i], routes[i]);
+      if (filter.accepts(flight)) {
+        flights.add(flight);
+      }
+    }
+    return flights;
+  }
+
+  /**
+   * Computes where an aircraft is at a time.
+   *
+   * @param out receives the position east and north of the hub in km, the altitude in feet, and
+   *        the ground speed in knots
+   * @return false if the aircraft is outside the airspace at that time
+   */
+  private boolean locate(int i, double seconds, double[] out) {
+    double phase = (seconds + offsets[i]) % periods[i];
+    double flown = phase * speedKmPerSecond(i);
+    out[3] = knots[i];
+    switch (kinds[i]) {
+      case DEPARTURE: {
+        double length = departureLength(courses[i]);
+        if (flown >= length) {
+          return ground(out);
+        }
+        if (flown < CLIMB_OUT_KM) {
+          along(runway, flown, 0, 0, out);
+        } else {
+          along(runway, CLIMB_OUT_KM, 0, 0, out);
+          along(courses[i], flown - CLIMB_OUT_KM, out[0], out[1], out);
+        }
+        out[2] = flown * CLIMB_FEET_PER_KM;
+        return true;
+      }
+      case ARRIVAL: {
+        double toGo = arrivalLength(courses[i]) - flown;
+        if (toGo <= 0) {
+          return ground(out);
+        }
+        // Touchdown is at the hub; final is flown along the runway heading, towards the hub.
+        if (toGo <= FINAL_KM) {
+          along(runway, -toGo, 0, 0, out);
+          out[2] = toGo * GLIDE_FEET_PER_KM;
+        } else {
+          along(runway, -FINAL_KM, 0, 0, out);
+          double fixX = out[0];
+          double fixY = out[1];
+          double heading = Math.atan2(fixX - entryX(courses[i]), fixY - entryY(courses[i]));
+          along(heading, -(toGo - FINAL_KM), fixX, fixY, out);
+          out[2] = Math.min(MAX_ARRIVAL_FEET,
+              FINAL_KM * GLIDE_FEET_PER_KM + (toGo - FINAL_KM) * DESCENT_FEET_PER_KM);
+        }
+        return true;
+      }
+      case HOLDING: {
+        // A racetrack whose inbound leg ends at the fix and points at the hub.
+        double inbound = courses[i] + Math.PI;
+        double leg = HOLDING_LEG_SECONDS * speedKmPerSecond(i);
+        double radius = leg / Math.PI;
+        double fixX = Math.sin(courses[i]) * distances[i];
+        double fixY = Math.cos(courses[i]) * distances[i];
+        double alongTrack;
+        double acrossTrack;
+        if (phase < HOLDING_LEG_SECONDS) {
+          // Inbound leg, ending at the fix.
+          alongTrack = flown - leg;
+          acrossTrack = 0;
+        } else if (phase < 2 * HOLDING_LEG_SECONDS) {
+          // Right turn around the far end.
+          double angle = (phase - HOLDING_LEG_SECONDS) / HOLDING_LEG_SECONDS * Math.PI;
+          alongTrack = radius * Math.sin(angle);
+          acrossTrack = radius * (1 - Math.cos(angle));
+        } else if (phase < 3 * HOLDING_LEG_SECONDS) {
+          // Outbound leg.
+          alongTrack = -(phase - 2 * HOLDING_LEG_SECONDS) * speedKmPerSecond(i);
+          acrossTrack = 2 * radius;
+        } else {
+          // Right turn back onto the inbound leg.
+          double angle = (phase - 3 * HOLDING_LEG_SECONDS) / HOLDING_LEG_SECONDS * Math.PI;
+          alongTrack = -leg - radius * Math.sin(angle);
+          acrossTrack = radius * (1 + Math.cos(angle));
+        }
+        along(inbound, alongTrack, fixX, fixY, out);
+        along(inbound + Math.PI / 2, acrossTrack, out[0], out[1], out);
+        out[2] = altitudes[i];
+        return true;
+      }
+      default: {
+        double halfChord = Math.sqrt(AIRSPACE_RADIUS_KM * AIRSPACE_RADIUS_KM
+            - distances[i] * distances[i]);
+        if (flown >= 2 * halfChord) {
+          // Out of the airspace until the next one comes along.
+          return false;
+        }
+        along(courses[i] + Math.PI / 2, distances[i], 0, 0, out);
+        along(courses[i], flown - halfChord, out[0], out[1], out);
+        out[2] = altitudes[i];
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Moves {@code distance} km from (x, y) along a course, in radians clockwise from north.
+   */
+  private static void along(double course, double distance, double x, double y, double[] out) {
+    out[0] = x + Math.sin(course) * distance;
+    out[1] = y + Math.cos(course) * distance;
+  }
+
+  /**
+   * Parks an aircraft at the hub.
+   */
+  private static boolean ground(double[] out) {
+    out[0] = 0;
+    out[1] = 0;
+    out[2] = 0;
+    out[3] = 0;
+    return true;
+  }
+
+  private double speedKmPerSecond(int i) {
+    return knots[i] * KM_PER_SECOND_PER_KNOT;
+  }
+
+  /**
+   * @return the distance a departure flies before leaving the airspace
+   */
+  private double departureLength(double course) {
+    // Solve |climbOutEnd + t * direction| = radius for t.
+    double x = Math.sin(runway) * CLIMB_OUT_KM;
+    double y = Math.cos(runway) * CLIMB_OUT_KM;
+    double b = x * Math.sin(course) + y * Math.cos(course);
+    double c = x * x + y * y - AIRSPACE_RADIUS_KM * AIRSPACE_RADIUS_KM;
+    return CLIMB_OUT_KM + (-b + Math.sqrt(b * b - c));
+  }
+
+  /**
+   * @return the distance an arrival flies from the edge of the airspace to touchdown
+   */
+  private double arrivalLength(double course) {
+    double fixX = -Math.sin(runway) * FINAL_KM;
+    double fixY = -Math.cos(runway) * FINAL_KM;
+    return FINAL_KM + Math.hypot(entryX(course) - fixX, entryY(course) - fixY);
+  }
+
+  private static double entryX(double course) {
+    return Math.sin(course) * AIRSPACE_RADIUS_KM;
+  }
+
+  private static double entryY(double course) {
+    return Math.cos(course) * AIRSPACE_RADIUS_KM;
+  }
+}
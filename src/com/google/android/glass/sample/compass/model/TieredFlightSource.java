@@ -0,0 +1,217 @@
+package com.google.android.glass.sample.compass.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONException;
+
+import com.google.android.glass.sample.compass.util.MathUtils;
+
+/**
+ * Polls another source, e.g. planefinder, in concentric tiers around the user, each with its own
+ * radius and period: nearby aircraft cross the view quickly and need frequent updates, while those
+ * far out barely move in bearing. A tier is queried with its own bounding box when its period has
+ * passed, or sooner if the user has moved a quarter of its radius since; in between, its last
+ * result stands in for it. Since a box's area grows with the square of its radius, polling the
+ * near tier often and the far tier rarely costs far fewer bytes than polling the whole area at the
+ * near tier's rate.
+ * <p>
+ * The tiers' results are merged into one snapshot, freshest tier first. A tier's result is taken
+ * as the whole truth inside its own box: an aircraft that an older tier last saw inside the box of
+ * a fresher tier, and that the fresher tier did not return, has landed, left, or moved, and is
+ * dropped rather than drawn where the older tier saw it. An aircraft returned by several tiers is
+ * kept once, with the position that has the newest timestamp. The box passed to
+ * {@link #getFlights} only supplies the center and clips the result, so it should be at least as
+ * large as the outermost tier (see {@link #getMaxRadiusKm}).
+ * <p>
+ * A call queries the due tiers one after another and blocks until they answer, so call it off the
+ * UI and render threads, e.g. through a {@link FanOutFlightSource}.
+ */
+public class TieredFlightSource implements FlightSource {
+
+  /** how many of its periods a tier's last result may stand in for it while its queries fail */
+  private static final int MAX_RESULT_AGE_PERIODS = 3;
+
+  /** how far the user may move, as a fraction of a tier's radius, before it is queried again */
+  private static final double MAX_DRIFT_FRACTION = 0.25;
+
+  /** orders tiers by the time of their last result, most recent first */
+  private static final Comparator<Tier> FRESHEST_FIRST = new Comparator<Tier>() {
+    @Override
+    public int compare(Tier a, Tier b) {
+      return a.resultTimeMillis > b.resultTimeMillis ? -1
+          : a.resultTimeMillis < b.resultTimeMillis ? 1 : 0;
+    }
+  };
+
+  private final FlightSource source;
+  private final List<Tier> tiers = new ArrayList<Tier>();
+
+  /**
+   * A radius and period, and the last result with the box it was fetched for.
+   */
+  private static class Tier {
+    final double radiusKm;
+    final long periodMillis;
+    double[] box;
+    double centerLat;
+    double centerLon;
+    List<Flight> result;
+    long resultTimeMillis;
+    long lastQueryMillis;
+
+    Tier(double radiusKm, long periodMillis) {
+      this.radiusKm = radiusKm;
+      this.periodMillis = periodMillis;
+    }
+  }
+
+  public TieredFlightSource(FlightSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Parses tiers from a spec such as "5:5000;15:60000;40:300000", a list of radius in kilometers
+   * and period in milliseconds, separated by semicolons.
+   *
+   * @return the tiered source, or null if the spec is empty
+   * @throws IllegalArgumentException if the spec is malformed
+   */
+  public static TieredFlightSource parse(FlightSource source, String spec) {
+    if (spec.trim().length() == 0) {
+      return null;
+    }
+    TieredFlightSource tiered = new TieredFlightSource(source);
+    for (String clause : spec.split(";")) {
+      String[] parts = clause.trim().split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Bad tier: " + clause);
+      }
+      try {
+        tiered.addTier(Double.parseDouble(parts[0].trim()), Long.parseLong(parts[1].trim()));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bad tier: " + clause, e);
+      }
+    }
+    return tiered;
+  }
+
+  /**
+   * Adds a tier; tiers may be added in any order.
+   *
+   * @param radiusKm the distance from the user that the tier covers
+   * @param periodMillis the least time between two queries of the tier
+   */
+  public synchronized void addTier(double radiusKm, long periodMillis) {
+    if (radiusKm <= 0 || periodMillis < 0) {
+      throw new IllegalArgumentException("Bad tier: " + radiusKm + " km every " + periodMillis);
+    }
+    int i = 0;
+    while (i < tiers.size() && tiers.get(i).radiusKm < radiusKm) {
+      i++;
+    }
+    tiers.add(i, new Tier(radiusKm, periodMillis));
+  }
+
+  /**
+   * @return the radius of the outermost tier, which the boxes passed in should cover
+   */
+  public synchronized double getMaxRadiusKm() {
+    return tiers.isEmpty() ? 0 : tiers.get(tiers.size() - 1).radiusKm;
+  }
+
+  /**
+   * @return the shortest tier period, which is how often refreshes are worth making
+   */
+  public synchronized long getMinPeriodMillis() {
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < tiers.size(); i++) {
+      min = Math.min(min, tiers.get(i).periodMillis);
+    }
+    return min;
+  }
+
+  /**
+   * Queries every tier that is due and merges the tiers' results.
+   *
+   * @throws IOException if no tier has a result to give
+   */
+  @Override
+  public synchronized List<Flight> getFlights(double[] box) throws IOException, JSONException {
+    double centerLat = (box[0] + box[2]) / 2;
+    double centerLon = (box[1] + box[3]) / 2;
+    long nowMillis = System.currentTimeMillis();
+    Exception failure = null;
+    for (int i = 0; i < tiers.size(); i++) {
+      Tier tier = tiers.get(i);
+      boolean moved = tier.box != null && MathUtils.getDistance(tier.centerLat, tier.centerLon,
+          centerLat, centerLon) > tier.radiusKm * MAX_DRIFT_FRACTION;
+      if (tier.box != null && !moved && nowMillis - tier.lastQueryMillis < tier.periodMillis) {
+        continue;
+      }
+      tier.lastQueryMillis = nowMillis;
+      double[] tierBox = FlightRetrieval.getBoundingBox(centerLat, centerLon, tier.radiusKm, null);
+      try {
+        tier.result = source.getFlights(tierBox);
+        tier.resultTimeMillis = nowMillis;
+        tier.box = tierBox;
+        tier.centerLat = centerLat;
+        tier.centerLon = centerLon;
+      } catch (IOException e) {
+        failure = e;
+      } catch (JSONException e) {
+        failure = e;
+      }
+    }
+    return merge(box, nowMillis, failure);
+  }
+
+  private List<Flight> merge(double[] box, long nowMillis, Exception failure)
+      throws IOException {
+    List<Tier> byFreshness = new ArrayList<Tier>(tiers);
+    Collections.sort(byFreshness, FRESHEST_FIRST);
+    Map<String, Flight> merged = new HashMap<String, Flight>();
+    // The tiers merged so far; inside their boxes, only the aircraft they kept are current.
+    List<Tier> fresher = new ArrayList<Tier>(tiers.size());
+    for (int i = 0; i < byFreshness.size(); i++) {
+      Tier tier = byFreshness.get(i);
+      if (tier.result == null
+          || nowMillis - tier.resultTimeMillis > MAX_RESULT_AGE_PERIODS * tier.periodMillis) {
+        continue;
+      }
+      for (int j = 0; j < tier.result.size(); j++) {
+        Flight flight = tier.result.get(j);
+        if (!FlightRetrieval.isInside(box, flight)
+            || (!merged.containsKey(flight.identification) && insideAny(fresher, flight))) {
+          continue;
+        }
+        Flight existing = merged.get(flight.identification);
+        if (existing == null || flight.timestamp > existing.timestamp) {
+          merged.put(flight.identification, flight);
+        }
+      }
+      fresher.add(tier);
+    }
+    if (fresher.isEmpty()) {
+      throw new IOException("No tier has flights", failure);
+    }
+    return new ArrayList<Flight>(merged.values());
+  }
+
+  /**
+   * @return true if the flight is inside the box of any of the tiers
+   */
+  private static boolean insideAny(List<Tier> tiers, Flight flight) {
+    for (int i = 0; i < tiers.size(); i++) {
+      if (FlightRetrieval.isInside(tiers.get(i).box, flight)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass.util;
+
+import android.os.Debug;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Opt-in accounting of the objects and bytes allocated by each stage of the compass: flight
+ * refreshes, rendered frames, and sensor handling. This is meant to show which stage to blame for
+ * garbage collection pauses.
+ * <p>
+ * A stage is measured by bracketing it with {@link #start()} and {@link #stop(int, long)}, which
+ * read the current thread's allocation counters from {@link Debug}, so allocations made by other
+ * threads in the meantime are not counted. Stages may nest; the outer one then includes the inner
+ * one. While tracking is off, both calls are a single volatile read, so the brackets can stay in
+ * place in every build; while it is on, the runtime counts allocations, which costs a little on
+ * every allocation, and each bracket adds a few counter reads and a short lock.
+ */
+public final class AllocationTracker {
+
+    /** The whole of {@code FlightManager.refreshFlights}, including anything not broken out. */
+    public static final int REFRESH = 0;
+    /** Reading the HTTP response body into a string. */
+    public static final int REFRESH_HTTP_BODY = 1;
+    /** Parsing the response into a JSON tree. */
+    public static final int REFRESH_JSON = 2;
+    /** Building {@code Flight} objects from the JSON tree. */
+    public static final int REFRESH_FLIGHTS = 3;
+    /** One frame of the render loop, including the stages below that run on it. */
+    public static final int FRAME = 4;
+    /** Recomputing flight bearings and label strings after the flights or location change. */
+    public static final int FRAME_LABELS = 5;
+    /** Drawing the compass view. */
+    public static final int FRAME_DRAW = 6;
+    /** Computing the orientation from the latest rotation vector sample. */
+    public static final int SENSOR_ORIENTATION = 7;
+    /** Handling one rotation vector event on the sensor thread. */
+    public static final int SENSOR_EVENT = 8;
+
+    private static final String[] STAGE_NAMES = {"refresh", "refresh.httpBody", "refresh.json",
+            "refresh.flights", "frame", "frame.labels", "frame.draw", "sensor.orientation",
+            "sensor.event"};
+
+    private static final Object sLock = new Object();
+    private static final long[] sOperations = new long[STAGE_NAMES.length];
+    private static final long[] sObjects = new long[STAGE_NAMES.length];
+    private static final long[] sBytes = new long[STAGE_NAMES.length];
+    private static final long[] sMaxBytes = new long[STAGE_NAMES.length];
+
+    private static volatile boolean sEnabled;
+
+    private AllocationTracker() {
+    }
+
+    /**
+     * Turns tracking on or off. Turning it on clears the statistics.
+     */
+    public static void setEnabled(boolean enabled) {
+        synchronized (sLock) {
+            if (enabled == sEnabled) {
+                return;
+            }
+            if (enabled) {
+                for (int i = 0; i < STAGE_NAMES.length; i++) {
+                    sOperations[i] = 0;
+                    sObjects[i] = 0;
+                    sBytes[i] = 0;
+                    sMaxBytes[i] = 0;
+                }
+                Debug.startAllocCounting();
+            } else {
+                Debug.stopAllocCounting();
+            }
+            sEnabled = enabled;
+        }
+    }
+
+    /**
+     * @return true if allocations are being tracked
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Marks the start of a stage on the current thread.
+     *
+     * @return a token to pass to {@link #stop(int, long)}
+     */
+    public static long start() {
+        if (!sEnabled) {
+            return -1;
+        }
+        // Both counters fit in an int; the object count goes in the high half, which keeps the
+        // token non-negative.
+        return ((long) Debug.getThreadAllocCount() << 32)
+                | (Debug.getThreadAllocSize() & 0xffffffffL);
+    }
+
+    /**
+     * Marks the end of a stage on the current thread and adds its allocations to the statistics.
+     *
+     * @param stage one of the stage constants
+     * @param token the value returned by the matching {@link #start()}
+     */
+    public static void stop(int stage, long token) {
+        if (token < 0 || !sEnabled) {
+            return;
+        }
+        // Int arithmetic, so that a counter wrapping around in between still gives the right delta.
+        int objects = Debug.getThreadAllocCount() - (int) (token >>> 32);
+        long bytes = (Debug.getThreadAllocSize() - (int) token) & 0xffffffffL;
+        synchronized (sLock) {
+            sOperations[stage]++;
+            sObjects[stage] += objects;
+            sBytes[stage] += bytes;
+            sMaxBytes[stage] = Math.max(sMaxBytes[stage], bytes);
+        }
+    }
+
+    /**
+     * Writes the statistics of each stage: operations, objects and bytes per operation, and the
+     * largest number of bytes a single operation allocated.
+     */
+    public static void dump(PrintWriter writer) {
+        if (!sEnabled) {
+            writer.println("Allocation tracking is off");
+            return;
+        }
+        writer.println(String.format(Locale.US, "%-20s %10s %12s %12s %12s",
+                "stage", "ops", "objects/op", "bytes/op", "max bytes"));
+        synchronized (sLock) {
+            for (int i = 0; i < STAGE_NAMES.length; i++) {
+                long operations = sOperations[i];
+                writer.println(String.format(Locale.US, "%-20s %10d %12.1f %12.1f %12d",
+                        STAGE_NAMES[i], operations,
+                        operations == 0 ? 0.0 : (double) sObjects[i] / operations,
+                        operations == 0 ? 0.0 : (double) sBytes[i] / operations,
+                        sMaxBytes[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.google.android.glass.sample.compass.util;
+
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Structured events for the flight retrieval path. An event is a type and up to two numbers and a
+ * label that already exist (such as a flight's identification), so recording one builds no
+ * strings. The most recent {@link #CAPACITY} events are always kept in memory, and
+ * {@link #dump(PrintWriter)} formats them on demand.
+ * <p>
+ * Events also go to logcat under the tag {@link #TAG} when that tag is loggable at the event's
+ * level, e.g. after "adb shell setprop log.tag.CompassEvents DEBUG". Only then is the event
+ * formatted. High-volume events, such as each dropped flight, are sampled before they are
+ * written. The level is read once at startup and again on {@link #refreshLevel()}, so checking it
+ * costs a volatile read.
+ */
+public final class EventLog {
+
+    public static final String TAG = "CompassEvents";
+
+    /** How many of the most recent events are kept in memory. */
+    public static final int CAPACITY = 256;
+
+    /** A refresh started. */
+    public static final int REFRESH_STARTED = 0;
+    /** A refresh was skipped. arg0: 1 if there was no location yet, 0 if it was throttled */
+    public static final int REFRESH_SKIPPED = 1;
+    /** A refresh ended. arg0: flights loaded; arg1: milliseconds taken; label: "ok" or "failed" */
+    public static final int REFRESH_FINISHED = 2;
+    /**
+     * A response was parsed. arg0: flights parsed; arg1: flights that failed to parse; label:
+     * "partial" or "complete"
+     */
+    public static final int RESPONSE_PARSED = 3;
+    /** An untracked flight was dropped. label: its identification */
+    public static final int FLIGHT_DROPPED_UNTRACKED = 4;
+    /** A landed flight was dropped. label: its identification */
+    public static final int FLIGHT_DROPPED_LANDED = 5;
+    /** The location was set. arg0, arg1: the latitude and longitude as raw double bits */
+    public static final int LOCATION_SET = 6;
+    /** The flight filter was applied to a response. arg0: flights rejected; arg1: flights kept */
+    public static final int RESPONSE_FILTERED = 7;
+    /** A flight source missed its timeout. arg0: its index; arg1: the timeout in milliseconds */
+    public static final int SOURCE_LATE = 8;
+
+    private static final String[] NAMES = {"refresh.started", "refresh.skipped",
+            "refresh.finished", "response.parsed", "flight.droppedUntracked",
+            "flight.droppedLanded", "location.set", "response.filtered", "source.late"};
+
+    /** The logcat level of each event type. */
+    private static final int[] LEVELS = {Log.DEBUG, Log.DEBUG, Log.INFO, Log.DEBUG, Log.VERBOSE,
+            Log.VERBOSE, Log.DEBUG, Log.DEBUG, Log.INFO};
+
+    /** One in how many events of each type goes to logcat; the ring buffer keeps all of them. */
+    private static final int[] SAMPLE_RATES = {1, 1, 1, 1, 16, 16, 1, 1, 1};
+
+    private static final Object sLock = new Object();
+    private static final long[] sTimes = new long[CAPACITY];
+    private static final int[] sTypes = new int[CAPACITY];
+    private static final long[] sArgs0 = new long[CAPACITY];
+    private static final long[] sArgs1 = new long[CAPACITY];
+    private static final String[] sLabels = new String[CAPACITY];
+    private static final int[] sSampleCounts = new int[NAMES.length];
+    private static long sCount;
+
+    /** The lowest level that goes to logcat, or {@code Integer.MAX_VALUE} for none. */
+    private static volatile int sLogLevel;
+
+    static {
+        refreshLevel();
+    }
+
+    private EventLog() {
+    }
+
+    /**
+     * Re-reads the logcat level of {@link #TAG}, e.g. after it was changed with setprop.
+     */
+    public static void refreshLevel() {
+        int level = Integer.MAX_VALUE;
+        for (int candidate = Log.ASSERT; candidate >= Log.VERBOSE; candidate--) {
+            if (Log.isLoggable(TAG, candidate)) {
+                level = candidate;
+            }
+        }
+        sLogLevel = level;
+    }
+
+    /**
+     * @return true if events or messages at the specified level go to logcat; use this to guard
+     *         building any message more expensive than an event
+     */
+    public static boolean isLoggable(int level) {
+        return level >= sLogLevel;
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param type one of the event type constants
+     * @param arg0 the event's first number, or 0
+     * @param arg1 the event's second number, or 0
+     * @param label the event's label, or {@code null}; it should be a string that exists anyway
+     */
+    public static void event(int type, long arg0, long arg1, String label) {
+        long time = System.currentTimeMillis();
+        boolean log;
+        synchronized (sLock) {
+            int slot = (int) (sCount++ % CAPACITY);
+            sTimes[slot] = time;
+            sTypes[slot] = type;
+            sArgs0[slot] = arg0;
+            sArgs1[slot] = arg1;
+            sLabels[slot] = label;
+            log = isLoggable(LEVELS[type]) && sSampleCounts[type]++ % SAMPLE_RATES[type] == 0;
+        }
+        if (log) {
+            Log.println(LEVELS[type], TAG, format(type, arg0, arg1, label));
+        }
+    }
+
+    /**
+     * Writes the events in memory, oldest first.
+     */
+    public static void dump(PrintWriter writer) {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        synchronized (sLock) {
+            writer.println("Last " + Math.min(sCount, CAPACITY) + " of " + sCount + " events:");
+            for (long i = Math.max(0, sCount - CAPACITY); i < sCount; i++) {
+                int slot = (int) (i % CAPACITY);
+                writer.println(timeFormat.format(new Date(sTimes[slot])) + " "
+                        + format(sTypes[slot], sArgs0[slot], sArgs1[slot], sLabels[slot]));
+            }
+        }
+    }
+
+    private static String format(int type, long arg0, long arg1, String label) {
+        StringBuilder builder = new StringBuilder(NAMES[type]);
+        switch (type) {
+            case REFRESH_SKIPPED:
+                builder.append(arg0 != 0 ? " reason=noLocation" : " reason=throttled");
+                break;
+            case REFRESH_FINISHED:
+                builder.append(' ').append(label).append(" flights=").append(arg0)
+                        .append(" ms=").append(arg1);
+                break;
+            case RESPONSE_PARSED:
+                builder.append(' ').append(label).append(" flights=").append(arg0)
+                        .append(" failed=").append(arg1);
+                break;
+            case RESPONSE_FILTERED:
+                builder.append(" rejected=").append(arg0).append(" kept=").append(arg1);
+                break;
+            case SOURCE_LATE:
+                builder.append(" source=").append(arg0).append(" timeoutMs=").append(arg1);
+                break;
+            case FLIGHT_DROPPED_UNTRACKED:
+            case FLIGHT_DROPPED_LANDED:
+                builder.append(" id=").append(label);
+                break;
+            case LOCATION_SET:
+                builder.append(" lat=").append(Double.longBitsToDouble(arg0))
+                        .append(" lon=").append(Double.longBitsToDouble(arg1));
+                break;
+            default:
+                break;
+        }
+        return builder.toString();
+    }
+}